@@ -3,16 +3,22 @@ package com.ibm.nmon;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 
+import java.util.Collection;
 import java.util.Set;
 import java.util.Map;
 import java.util.TimeZone;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import java.util.Properties;
 
 import org.slf4j.Logger;
 
 import com.ibm.nmon.data.DataSetListener;
 import com.ibm.nmon.data.DataSet;
+import com.ibm.nmon.data.JMeterDataSet;
+import com.ibm.nmon.data.NMONDataSet;
 import com.ibm.nmon.data.SystemDataSet;
 
 import com.ibm.nmon.data.transform.name.HostRenamer;
@@ -22,7 +28,9 @@ import com.ibm.nmon.parser.gc.VerboseGCParser;
 import com.ibm.nmon.interval.*;
 
 import com.ibm.nmon.analysis.AnalysisRecord;
+import com.ibm.nmon.analysis.IntervalIndex;
 
+import com.ibm.nmon.util.FileHelper;
 import com.ibm.nmon.util.ParserLog;
 import com.ibm.nmon.util.TimeFormatCache;
 import com.ibm.nmon.util.TimeZoneFactory;
@@ -39,16 +47,15 @@ import com.ibm.nmon.file.CombinedFileFilter;
 public abstract class NMONVisualizerApp implements IntervalListener {
     protected final Logger logger = org.slf4j.LoggerFactory.getLogger(getClass());
 
-    private final NMONParser nmonParser;
-    private final VerboseGCParser gcParser;
-    private final IOStatParser iostatParser;
-    private final JSONParser jsonParser;
-    private final HATJParser hatJParser;
-    private final PerfmonParser perfmonParser;
-    private final TopasOutParser topasoutParser;
-    private final FIOParser fioParser;
-    private final ZPoolIOStatParser zpoolParser;
-    private final JMeterAggregateParser jMeterParser;
+    private final Parsers parsers;
+
+    // parsers are not thread safe; each thread used by parseAll() gets its own
+    private final ThreadLocal<Parsers> workerParsers = new ThreadLocal<Parsers>() {
+        @Override
+        protected Parsers initialValue() {
+            return new Parsers();
+        }
+    };
 
     private HostRenamer hostRenamer;
 
@@ -59,12 +66,33 @@ public abstract class NMONVisualizerApp implements IntervalListener {
 
     private TimeZone displayTimeZone;
 
-    private final Map<SystemDataSet, AnalysisRecord> analysisRecords = new java.util.TreeMap<SystemDataSet, AnalysisRecord>();
+    // concurrent so the GUI can iterate while files are parsed in the background
+    private final Map<SystemDataSet, AnalysisRecord> analysisRecords = new java.util.concurrent.ConcurrentSkipListMap<SystemDataSet, AnalysisRecord>();
 
-    private long minSystemTime = 0;
-    private long maxSystemTime = Long.MAX_VALUE;
+    // guards all changes to analysisRecords, followedFiles, loadDriverPercentiles and the data sets themselves
+    // files can be parsed and followed on different threads, so merges must never run concurrently
+    private final Object dataLock = new Object();
+
+    private volatile long minSystemTime = 0;
+    private volatile long maxSystemTime = Long.MAX_VALUE;
 
     private final Properties properties = new Properties();
+
+    // NMON files larger than this are tokenized ahead in parallel; the records are still parsed on one thread
+    private static final long CHUNKED_NMON_SIZE = 64 * 1024 * 1024;
+    // created when first needed
+    private java.util.concurrent.ForkJoinPool chunkPool;
+
+    // files being followed and the parser for each one; parsers keep state between updates
+    private final Map<String, NMONParser> followedFiles = new java.util.LinkedHashMap<String, NMONParser>();
+    // parsers are not thread safe, so updating and stopping them must not overlap; never held on the Swing thread
+    private final Object followLock = new Object();
+
+    // limits the data kept when parsing; shared by all the parsers
+    private volatile DataTypeFilter parseFilter = DataTypeFilter.ALL;
+
+    // response time percentiles for all the JMeter files in each system data set
+    private final Map<SystemDataSet, JMeterDataSet> loadDriverPercentiles = new java.util.IdentityHashMap<SystemDataSet, JMeterDataSet>();
     protected final PropertyChangeSupport propertyChangeSupport;
 
     protected NMONVisualizerApp() {
@@ -72,16 +100,7 @@ public abstract class NMONVisualizerApp implements IntervalListener {
         // since it creates the parent logger
         ParserLog.getInstance();
 
-        nmonParser = new NMONParser();
-        gcParser = new VerboseGCParser();
-        iostatParser = new IOStatParser();
-        jsonParser = new JSONParser();
-        hatJParser = new HATJParser();
-        perfmonParser = new PerfmonParser();
-        topasoutParser = new TopasOutParser(nmonParser);
-        fioParser = new FIOParser();
-        zpoolParser = new ZPoolIOStatParser();
-        jMeterParser = new JMeterAggregateParser();
+        parsers = new Parsers();
 
         TimeZone defaultTz = TimeZone.getDefault();
 
@@ -110,6 +129,9 @@ public abstract class NMONVisualizerApp implements IntervalListener {
         hostRenamer = HostRenamer.BY_HOST;
 
         setProperty("scaleProcessesByCPUs", "true");
+        setProperty("indexIntervals", "false");
+        // empty => exact percentiles
+        setProperty("percentileAccuracy", "");
 
         // requires access to AnalysisRecords
         com.ibm.nmon.data.matcher.TopProcessMatcher.setApp(this);
@@ -132,47 +154,280 @@ public abstract class NMONVisualizerApp implements IntervalListener {
     public final void parse(String fileToParse, TimeZone timeZone) throws Exception {
         fileToParse = fileToParse.replace('\\', '/');
 
+        // parse each file in a zip archive separately
+        if (FileHelper.isArchive(fileToParse)) {
+            for (String entry : FileHelper.expandArchives(java.util.Collections.singletonList(fileToParse),
+                    CombinedFileFilter.getInstance(false))) {
+                if (!entry.equals(fileToParse)) {
+                    parse(entry, timeZone);
+                }
+            }
+
+            return;
+        }
+
         // skipped already parsed files
+        if (isParsed(fileToParse)) {
+            return;
+        }
+
+        DataSet data = parse(fileToParse, timeZone, parsers);
+
+        if (data != null) {
+            addData(fileToParse, data);
+        }
+    }
+
+    /**
+     * Only keep the data accepted by the given filter for all files parsed after this call. NMON, topasout, Perfmon and
+     * iostat files are filtered; all the data in other files is kept.
+     */
+    public final void setParseFilter(DataTypeFilter parseFilter) {
+        this.parseFilter = parseFilter == null ? DataTypeFilter.ALL : parseFilter;
+    }
+
+    public final DataTypeFilter getParseFilter() {
+        return parseFilter;
+    }
+
+    /**
+     * <p>
+     * Parse a number of files, using multiple threads when possible. The parsed data is added to the application
+     * exactly as if {@link #parse(String, TimeZone)} was called for each file in order; data sets are merged and
+     * {@link DataSetListener DataSetListeners} are notified on the calling thread in the same order as the given
+     * files.
+     * </p>
+     * <p>
+     * NMON, topasout, JSON, JMeter and Perfmon files are parsed in parallel. Other file types may need more
+     * information from the user, so they are parsed on the calling thread when their turn comes. Parse errors do not
+     * stop parsing; they are logged and reported to the listener.
+     * </p>
+     * 
+     * @param listener notified, on the calling thread, as each file is completed; may be <code>null</code>
+     */
+    public final void parseAll(Collection<String> filesToParse, final TimeZone timeZone, ParseListener listener)
+            throws InterruptedException {
+        long start = System.nanoTime();
+
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(threadCount,
+                new java.util.concurrent.ThreadFactory() {
+                    private int count = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Parser-" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        // files in order; a null Future means the file is parsed on this thread
+        java.util.LinkedList<String> pendingFiles = new java.util.LinkedList<String>();
+        java.util.LinkedList<Future<ParseResult>> pendingResults = new java.util.LinkedList<Future<ParseResult>>();
+
+        // each file in a zip archive is parsed separately
+        java.util.Iterator<String> files = FileHelper.expandArchives(filesToParse,
+                CombinedFileFilter.getInstance(false)).iterator();
+
+        try {
+            while (true) {
+                // only parse a limited number of files ahead of the merges so parsed data does not pile up in memory
+                while ((pendingFiles.size() < (threadCount * 2)) && files.hasNext()) {
+                    final String fileToParse = files.next().replace('\\', '/');
+
+                    pendingFiles.add(fileToParse);
+
+                    if (!isParsed(fileToParse) && canParseInParallel(fileToParse)) {
+                        pendingResults.add(executor.submit(new java.util.concurrent.Callable<ParseResult>() {
+                            @Override
+                            public ParseResult call() {
+                                return parseInWorker(fileToParse, timeZone);
+                            }
+                        }));
+                    }
+                    else {
+                        pendingResults.add(null);
+                    }
+                }
+
+                if (pendingFiles.isEmpty()) {
+                    break;
+                }
+
+                String fileToParse = pendingFiles.removeFirst();
+                Future<ParseResult> pending = pendingResults.removeFirst();
+
+                ParserLog log = ParserLog.getInstance();
+                log.setCurrentFilename(fileToParse);
+
+                String errors = null;
+
+                try {
+                    if (pending == null) {
+                        parse(fileToParse, timeZone);
+                    }
+                    else {
+                        ParseResult result = pending.get();
+                        errors = result.errors;
+
+                        // file could have been listed twice
+                        if ((result.data != null) && !isParsed(fileToParse)) {
+                            addData(fileToParse, result.data);
+                        }
+                    }
+                }
+                catch (InterruptedException ie) {
+                    throw ie;
+                }
+                catch (Exception e) {
+                    log.getLogger().error("could not parse " + fileToParse, e);
+                }
+
+                if (log.hasData()) {
+                    errors = errors == null ? log.getMessages() : errors + log.getMessages();
+                }
+                else {
+                    // clear the current file name
+                    log.getMessages();
+                }
+
+                if (listener != null) {
+                    listener.parseComplete(fileToParse, errors);
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("parsed {} files with {} threads in {}ms", new Object[] { filesToParse.size(), threadCount,
+                    (System.nanoTime() - start) / 1000000.0d });
+        }
+    }
+
+    // parsers for these file types share no state and never need more information from the user
+    private boolean canParseInParallel(String fileToParse) {
+        CombinedFileFilter filter = CombinedFileFilter.getInstance(false);
+        fileToParse = FileHelper.getUncompressedName(fileToParse);
+
+        // same order as parse()
+        if (filter.getTopasOutFileFilter().accept(fileToParse) || filter.getNMONFileFilter().accept(fileToParse)) {
+            return true;
+        }
+        else if (filter.getGCFileFilter().accept(fileToParse)
+                || filter.getZPoolIOStatOutFileFilter().accept(fileToParse)
+                || filter.getIOStatFileFilter().accept(fileToParse)) {
+            return false;
+        }
+        else if (filter.getJSONFileFilter().accept(fileToParse)) {
+            return true;
+        }
+        else if (filter.getHATJFileFilter().accept(fileToParse)) {
+            return false;
+        }
+        else {
+            return filter.getJMeterFileFilter().accept(fileToParse)
+                    || filter.getPerfmonFileFilter().accept(fileToParse);
+        }
+    }
+
+    // called on a worker thread; parse errors are returned rather than thrown so they can be reported in order
+    private ParseResult parseInWorker(String fileToParse, TimeZone timeZone) {
+        ParserLog log = ParserLog.getInstance();
+        log.setCurrentFilename(fileToParse);
+
+        ParseResult result = new ParseResult();
+
+        try {
+            result.data = parse(fileToParse, timeZone, workerParsers.get());
+        }
+        catch (Exception e) {
+            log.getLogger().error("could not parse " + fileToParse, e);
+        }
+
+        if (log.hasData()) {
+            result.errors = log.getMessages();
+        }
+        else {
+            log.getMessages();
+        }
+
+        return result;
+    }
+
+    private synchronized java.util.concurrent.ForkJoinPool getChunkPool() {
+        if (chunkPool == null) {
+            chunkPool = new java.util.concurrent.ForkJoinPool();
+        }
+
+        return chunkPool;
+    }
+
+    private boolean isParsed(String fileToParse) {
         for (SystemDataSet systemData : analysisRecords.keySet()) {
             if (systemData.containsSourceFile(fileToParse)) {
-                return;
+                return true;
             }
         }
 
+        return false;
+    }
+
+    /**
+     * @return the parsed data or <code>null</code> if the file was skipped
+     */
+    private DataSet parse(String fileToParse, TimeZone timeZone, Parsers parsers) throws Exception {
         DataSet data = null;
         CombinedFileFilter filter = CombinedFileFilter.getInstance(false);
 
-        if (filter.getTopasOutFileFilter().accept(fileToParse)) {
-            data = topasoutParser.parse(fileToParse, timeZone, getBooleanProperty("scaleProcessesByCPUs"));
+        // gzipped files are the same type as the uncompressed file
+        String name = FileHelper.getUncompressedName(fileToParse);
+
+        parsers.nmonParser.setFilter(parseFilter);
+        parsers.perfmonParser.setFilter(parseFilter);
+        parsers.iostatParser.setFilter(parseFilter);
+
+        if (filter.getTopasOutFileFilter().accept(name)) {
+            data = parsers.topasoutParser.parse(fileToParse, timeZone, getBooleanProperty("scaleProcessesByCPUs"));
         }
-        else if (filter.getNMONFileFilter().accept(fileToParse)) {
-            data = nmonParser.parse(fileToParse, timeZone, getBooleanProperty("scaleProcessesByCPUs"));
+        else if (filter.getNMONFileFilter().accept(name)) {
+            // only uncompressed files can be memory mapped
+            if (!FileHelper.isCompressed(fileToParse)
+                    && (new java.io.File(fileToParse).length() > CHUNKED_NMON_SIZE)) {
+                data = parsers.nmonParser.parse(fileToParse, timeZone, getBooleanProperty("scaleProcessesByCPUs"),
+                        getChunkPool());
+            }
+            else {
+                data = parsers.nmonParser.parse(fileToParse, timeZone, getBooleanProperty("scaleProcessesByCPUs"));
+            }
         }
-        else if (filter.getGCFileFilter().accept(fileToParse)) {
+        else if (filter.getGCFileFilter().accept(name)) {
             // GC data does not have a hostname or JVM name so get it before parsing
             String[] values = getDataForGCParse(fileToParse);
 
             if (values == null) {
                 logger.info("skipping file '{}'", fileToParse);
-                return;
+                return null;
             }
             else if (values.length < 2) {
                 logger.error("need both hostname and JVM name to parse GC data, only {} provided",
                         java.util.Arrays.toString(values));
-                return;
+                return null;
             }
             else {
-                data = gcParser.parse(fileToParse, timeZone, values[0], values[1]);
+                data = parsers.gcParser.parse(fileToParse, timeZone, values[0], values[1]);
             }
         }
-        else if (filter.getZPoolIOStatOutFileFilter().accept(fileToParse)) {
-            data = zpoolParser.parse(fileToParse);
+        else if (filter.getZPoolIOStatOutFileFilter().accept(name)) {
+            data = parsers.zpoolParser.parse(fileToParse);
 
             data.setHostname(getDataForZPoolIOStatParse(fileToParse));
         }
-        else if (filter.getIOStatFileFilter().accept(fileToParse)) {
+        else if (filter.getIOStatFileFilter().accept(name)) {
             // IOStat data may have a hostname and time zone so get it after parsing
-            data = iostatParser.parse(fileToParse, getDisplayTimeZone());
+            data = parsers.iostatParser.parse(fileToParse, getDisplayTimeZone());
 
             String hostname = data.getHostname();
             boolean verifyData = "AIX".equals(((com.ibm.nmon.data.BasicDataSet) data).getMetadata("OS"));
@@ -183,7 +438,7 @@ public abstract class NMONVisualizerApp implements IntervalListener {
 
                 if (values == null) {
                     logger.info("skipping file '{}'", fileToParse);
-                    return;
+                    return null;
                 }
 
                 hostname = (String) values[0];
@@ -204,11 +459,11 @@ public abstract class NMONVisualizerApp implements IntervalListener {
                 }
             }
         }
-        else if (filter.getJSONFileFilter().accept(fileToParse)) {
-            data = jsonParser.parse(fileToParse);
+        else if (filter.getJSONFileFilter().accept(name)) {
+            data = parsers.jsonParser.parse(fileToParse);
         }
-        else if (filter.getHATJFileFilter().accept(fileToParse)) {
-            data = hatJParser.parse(fileToParse);
+        else if (filter.getHATJFileFilter().accept(name)) {
+            data = parsers.hatJParser.parse(fileToParse);
 
             String hostname = data.getHostname();
 
@@ -217,21 +472,21 @@ public abstract class NMONVisualizerApp implements IntervalListener {
 
                 if (values == null) {
                     logger.info("skipping file '{}'", fileToParse);
-                    return;
+                    return null;
                 }
 
                 hostname = (String) values[0];
                 data.setHostname(hostname);
             }
         }
-        else if (filter.getJMeterFileFilter().accept(fileToParse)) {
-            data = jMeterParser.parse(fileToParse);
+        else if (filter.getJMeterFileFilter().accept(name)) {
+            data = parsers.jMeterParser.parse(fileToParse);
         }
-        else if (filter.getPerfmonFileFilter().accept(fileToParse)) {
-            data = perfmonParser.parse(fileToParse, getBooleanProperty("scaleProcessesByCPUs"));
+        else if (filter.getPerfmonFileFilter().accept(name)) {
+            data = parsers.perfmonParser.parse(fileToParse, getBooleanProperty("scaleProcessesByCPUs"));
         }
-        else if (filter.getFIOFileFilter().accept(fileToParse)) {
-            data = fioParser.parse(fileToParse, timeZone);
+        else if (filter.getFIOFileFilter().accept(name)) {
+            data = parsers.fioParser.parse(fileToParse, timeZone);
         }
         else {
             throw new IllegalArgumentException("cannot parse " + fileToParse + ": unknown file type");
@@ -241,37 +496,319 @@ public abstract class NMONVisualizerApp implements IntervalListener {
             throw new IllegalArgumentException(fileToParse + " does not appear to contain any data");
         }
 
+        return data;
+    }
+
+    private void addData(final String fileToParse, final DataSet data) throws Exception {
+        runDataChange(new java.util.concurrent.Callable<Void>() {
+            @Override
+            public Void call() throws java.io.IOException {
+                synchronized (dataLock) {
+                    mergeData(fileToParse, data);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * Run a change to the data sets. All changes are made through this method, with <code>dataLock</code> held by the
+     * change itself, so callers must not hold <code>dataLock</code>. By default, the change is run on the calling
+     * thread.
+     * </p>
+     * <p>
+     * Subclasses can override this method to run changes on another thread. For example, the GUI runs changes on the
+     * Swing thread so that its components never read a data set that is being merged.
+     * </p>
+     * 
+     * @return the result of the change
+     */
+    protected <T> T runDataChange(java.util.concurrent.Callable<T> change) throws Exception {
+        return change.call();
+    }
+
+    // must be called with dataLock held
+    private void mergeData(String fileToParse, DataSet data) throws java.io.IOException {
+        // the file could have been added by another thread since it was parsed
+        if (isParsed(fileToParse)) {
+            return;
+        }
+
         // rename the host
         hostRenamer.rename(data);
 
         // find an existing data set for the host
         SystemDataSet systemData = null;
+        AnalysisRecord existingRecord = null;
 
-        for (SystemDataSet toSearch : analysisRecords.keySet()) {
-            if (toSearch.getHostname().equals(data.getHostname())) {
-                systemData = toSearch;
+        for (Map.Entry<SystemDataSet, AnalysisRecord> entry : analysisRecords.entrySet()) {
+            if (entry.getKey().getHostname().equals(data.getHostname())) {
+                systemData = entry.getKey();
+                existingRecord = entry.getValue();
                 break;
             }
         }
 
         // create the data set if none exists
         if (systemData == null) {
-            systemData = new SystemDataSet(data.getHostname());
+            String scratchDirectory = getProperty("scratchDirectory");
 
-            AnalysisRecord record = new AnalysisRecord(systemData);
-            record.setInterval(intervalManager.getCurrentInterval());
+            if ((scratchDirectory == null) || "".equals(scratchDirectory)) {
+                systemData = new SystemDataSet(data.getHostname());
+            }
+            else {
+                // keep data in memory mapped files rather than on the heap
+                systemData = new SystemDataSet(data.getHostname(), new java.io.File(scratchDirectory));
+            }
 
-            analysisRecords.put(systemData, record);
+            analysisRecords.put(systemData, createAnalysisRecord(systemData));
         }
 
         // add the parsed data to the system data set
         systemData.addData(fileToParse, data);
 
+        boolean percentilesReplaced = false;
+
+        if (data instanceof JMeterDataSet) {
+            JMeterDataSet percentiles = loadDriverPercentiles.get(systemData);
+
+            if (percentiles == null) {
+                loadDriverPercentiles.put(systemData, (JMeterDataSet) data);
+            }
+            else {
+                // combine the sketches from each load driver so the percentiles cover all the samples
+                percentiles = percentiles.mergePercentiles((JMeterDataSet) data);
+                systemData.replaceTypes(percentiles);
+                percentilesReplaced = true;
+
+                loadDriverPercentiles.put(systemData, percentiles);
+            }
+        }
+
+        if (existingRecord != null) {
+            if (percentilesReplaced) {
+                // the percentiles for all times changed
+                existingRecord.dataChanged();
+            }
+            else {
+                // new data can be at any time, but results for intervals before it are still valid
+                existingRecord.dataAppended(data.getStartTime());
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("array pool has {} arrays after parsing '{}'; {} hits, {} misses, {} bytes saved",
+                    new Object[] { com.ibm.nmon.data.ArrayPool.getSize(), fileToParse,
+                            com.ibm.nmon.data.ArrayPool.getHits(), com.ibm.nmon.data.ArrayPool.getMisses(),
+                            com.ibm.nmon.data.ArrayPool.getBytesSaved() });
+        }
+
         recalculateMinAndMaxSystemTime();
 
         fireDataAdded(systemData);
     }
 
+    /**
+     * <p>
+     * Parse an NMON file that is still being written and keep following it. The complete records currently in the
+     * file are added just like {@link #parse(String, TimeZone)}. Call {@link #updateFollowedFiles()} to add any data
+     * written since then.
+     * </p>
+     * <p>
+     * Only uncompressed NMON files can be followed. The initial parse can take a long time for large files, so GUIs
+     * should call this method on a background thread.
+     * </p>
+     */
+    public final void follow(String fileToParse, TimeZone timeZone) throws Exception {
+        fileToParse = fileToParse.replace('\\', '/');
+
+        synchronized (dataLock) {
+            if (isParsed(fileToParse) || followedFiles.containsKey(fileToParse)) {
+                return;
+            }
+        }
+
+        if (FileHelper.isCompressed(fileToParse)
+                || !CombinedFileFilter.getInstance(false).getNMONFileFilter().accept(fileToParse)) {
+            throw new IllegalArgumentException("cannot follow " + fileToParse + ": only NMON files can be followed");
+        }
+
+        final NMONParser parser = new NMONParser();
+        parser.setFilter(parseFilter);
+
+        // parse outside the lock so other files can be added in the meantime
+        final NMONDataSet data = parser.follow(fileToParse, timeZone, getBooleanProperty("scaleProcessesByCPUs"));
+        final String toFollow = fileToParse;
+
+        boolean followed = runDataChange(new java.util.concurrent.Callable<Boolean>() {
+            @Override
+            public Boolean call() throws java.io.IOException {
+                synchronized (dataLock) {
+                    // the file could have been parsed or followed while this thread was parsing it
+                    if (isParsed(toFollow) || followedFiles.containsKey(toFollow)) {
+                        return false;
+                    }
+
+                    followedFiles.put(toFollow, parser);
+
+                    // the first record may not be complete yet; if so, the data is added on the first update that
+                    // has a record
+                    if (data.getRecordCount() > 0) {
+                        mergeData(toFollow, data);
+                    }
+
+                    return true;
+                }
+            }
+        });
+
+        if (!followed) {
+            parser.stopFollowing();
+        }
+    }
+
+    /**
+     * <p>
+     * Parse and add any new data from all the files being {@link #follow(String, TimeZone) followed}. Data sets that
+     * already exist are updated in place and {@link DataSetListener#dataAppended(DataSet, long) dataAppended} is fired
+     * for them. If a file cannot be read, it is no longer followed.
+     * </p>
+     * <p>
+     * Files are read outside of {@link #runDataChange(java.util.concurrent.Callable) runDataChange()}; only the merge
+     * runs there. So, GUIs must not call this method on the thread that runs the changes.
+     * </p>
+     */
+    public final void updateFollowedFiles() {
+        Map<String, NMONParser> toUpdate = null;
+
+        synchronized (dataLock) {
+            toUpdate = new java.util.LinkedHashMap<String, NMONParser>(followedFiles);
+        }
+
+        for (Map.Entry<String, NMONParser> entry : toUpdate.entrySet()) {
+            String fileToParse = entry.getKey();
+            NMONParser parser = entry.getValue();
+
+            // parsers keep state between updates, so updates and stopFollowing() must not overlap
+            synchronized (followLock) {
+                if (!isFollowedBy(fileToParse, parser)) {
+                    // stopped or removed since the copy was made
+                    continue;
+                }
+
+                try {
+                    NMONDataSet data = parser.update();
+
+                    if ((data != null) && (data.getRecordCount() > 0)) {
+                        appendData(fileToParse, parser, data);
+                    }
+                }
+                catch (Exception e) {
+                    logger.error("could not update " + fileToParse + "; it will no longer be followed", e);
+
+                    try {
+                        parser.stopFollowing();
+                    }
+                    catch (Exception e2) {
+                        // ignore
+                    }
+
+                    synchronized (dataLock) {
+                        if (followedFiles.get(fileToParse) == parser) {
+                            followedFiles.remove(fileToParse);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop following a file, adding any remaining data, including the last record. Like
+     * {@link #updateFollowedFiles()}, GUIs must not call this method on the thread that runs data changes.
+     */
+    public final void stopFollowing(String fileToParse) throws Exception {
+        fileToParse = fileToParse.replace('\\', '/');
+
+        synchronized (followLock) {
+            NMONParser parser = null;
+
+            synchronized (dataLock) {
+                parser = followedFiles.remove(fileToParse);
+            }
+
+            if (parser != null) {
+                NMONDataSet data = parser.stopFollowing();
+
+                if ((data != null) && (data.getRecordCount() > 0)) {
+                    appendData(fileToParse, null, data);
+                }
+            }
+        }
+    }
+
+    public final Iterable<String> getFollowedFiles() {
+        synchronized (dataLock) {
+            return new java.util.ArrayList<String>(followedFiles.keySet());
+        }
+    }
+
+    private boolean isFollowedBy(String fileToParse, NMONParser parser) {
+        synchronized (dataLock) {
+            return followedFiles.get(fileToParse) == parser;
+        }
+    }
+
+    // add data from a followed file to the data set already containing that file, if any
+    // if followedBy is not null, the data is only added if the file is still followed by that parser
+    private void appendData(final String fileToParse, final NMONParser followedBy, final DataSet data)
+            throws Exception {
+        runDataChange(new java.util.concurrent.Callable<Void>() {
+            @Override
+            public Void call() throws java.io.IOException {
+                synchronized (dataLock) {
+                    if ((followedBy == null) || (followedFiles.get(fileToParse) == followedBy)) {
+                        mergeAppendedData(fileToParse, data);
+                    }
+                }
+
+                return null;
+            }
+        });
+    }
+
+    // must be called with dataLock held
+    private void mergeAppendedData(String fileToParse, DataSet data) throws java.io.IOException {
+        SystemDataSet systemData = null;
+
+        for (SystemDataSet toSearch : analysisRecords.keySet()) {
+            if (toSearch.containsSourceFile(fileToParse)) {
+                systemData = toSearch;
+                break;
+            }
+        }
+
+        if (systemData == null) {
+            mergeData(fileToParse, data);
+            return;
+        }
+
+        hostRenamer.rename(data);
+
+        // data sets are sorted by hostname first and there is only one per host, so the data set can stay in the map
+        // while its times change; removing it would hide it from other threads
+        systemData.addData(fileToParse, data);
+
+        // only results that include the new data need to be recalculated
+        analysisRecords.get(systemData).dataAppended(data.getStartTime());
+
+        recalculateMinAndMaxSystemTime();
+
+        fireDataAppended(systemData, data.getStartTime());
+    }
+
     protected String[] getDataForGCParse(String fileToParse) {
         // hostname and JVM name default to the file name
         int idx = fileToParse.lastIndexOf('/');
@@ -312,6 +849,13 @@ public abstract class NMONVisualizerApp implements IntervalListener {
         }
     }
 
+    // separate function so subclasses can fire the event on another thread, like fireDataAdded()
+    protected void fireDataAppended(DataSet data, long startTime) {
+        for (DataSetListener listener : listeners) {
+            listener.dataAppended(data, startTime);
+        }
+    }
+
     public final void setHostRenamer(HostRenamer hostRenamer) {
         if (hostRenamer != null) {
             this.hostRenamer = hostRenamer;
@@ -338,48 +882,69 @@ public abstract class NMONVisualizerApp implements IntervalListener {
     }
 
     public final void removeDataSet(DataSet data) {
-        if (analysisRecords.remove(data) != null) {
-            recalculateMinAndMaxSystemTime();
+        synchronized (dataLock) {
+            if (analysisRecords.remove(data) != null) {
+                loadDriverPercentiles.remove(data);
 
-            if (analysisRecords.isEmpty()) {
-                for (DataSetListener listener : listeners) {
-                    listener.dataCleared();
+                // release any scratch file
+                data.close();
+
+                // stop following any files in the data set
+                if (data instanceof SystemDataSet) {
+                    for (String sourceFile : ((SystemDataSet) data).getSourceFiles()) {
+                        followedFiles.remove(sourceFile);
+                    }
                 }
-            }
-            else {
-                for (DataSetListener listener : listeners) {
-                    listener.dataRemoved(data);
+
+                recalculateMinAndMaxSystemTime();
+
+                if (analysisRecords.isEmpty()) {
+                    for (DataSetListener listener : listeners) {
+                        listener.dataCleared();
+                    }
+                }
+                else {
+                    for (DataSetListener listener : listeners) {
+                        listener.dataRemoved(data);
+                    }
                 }
             }
         }
     }
 
     public final void updateDataSet(SystemDataSet data) {
-        if (analysisRecords.remove(data) != null) {
-            AnalysisRecord record = new AnalysisRecord(data);
-            record.setInterval(intervalManager.getCurrentInterval());
-
-            analysisRecords.put(data, record);
+        synchronized (dataLock) {
+            if (analysisRecords.remove(data) != null) {
+                analysisRecords.put(data, createAnalysisRecord(data));
 
-            recalculateMinAndMaxSystemTime();
+                recalculateMinAndMaxSystemTime();
 
-            for (DataSetListener listener : listeners) {
-                listener.dataChanged(data);
+                for (DataSetListener listener : listeners) {
+                    listener.dataChanged(data);
+                }
             }
         }
     }
 
     public final void clearDataSets() {
-        minSystemTime = 0;
-        maxSystemTime = Long.MAX_VALUE;
+        synchronized (dataLock) {
+            minSystemTime = 0;
+            maxSystemTime = Long.MAX_VALUE;
 
-        TimeFormatCache.setDefaultIntervalRange(minSystemTime, maxSystemTime);
-        intervalManager.setCurrentInterval(Interval.DEFAULT);
+            TimeFormatCache.setDefaultIntervalRange(minSystemTime, maxSystemTime);
+            intervalManager.setCurrentInterval(Interval.DEFAULT);
 
-        analysisRecords.clear();
+            for (SystemDataSet data : analysisRecords.keySet()) {
+                data.close();
+            }
 
-        for (DataSetListener listener : listeners) {
-            listener.dataCleared();
+            analysisRecords.clear();
+            followedFiles.clear();
+            loadDriverPercentiles.clear();
+
+            for (DataSetListener listener : listeners) {
+                listener.dataCleared();
+            }
         }
     }
 
@@ -413,6 +978,24 @@ public abstract class NMONVisualizerApp implements IntervalListener {
         return analysisRecords.get(data);
     }
 
+    // if the indexIntervals property is set, statistics other than percentiles can be calculated for any interval
+    // without scanning the data; if percentileAccuracy is set, percentiles are also indexed, approximately
+    private AnalysisRecord createAnalysisRecord(SystemDataSet data) {
+        AnalysisRecord record = new AnalysisRecord(data);
+        record.setInterval(intervalManager.getCurrentInterval());
+
+        String percentileAccuracy = getProperty("percentileAccuracy");
+
+        if (!"".equals(percentileAccuracy)) {
+            record.setIndex(new IntervalIndex(data, Double.parseDouble(percentileAccuracy)));
+        }
+        else if (getBooleanProperty("indexIntervals")) {
+            record.setIndex(new IntervalIndex(data));
+        }
+
+        return record;
+    }
+
     public final String getProperty(String name) {
         return properties.getProperty(name);
     }
@@ -533,4 +1116,22 @@ public abstract class NMONVisualizerApp implements IntervalListener {
     public void removePropertyChangeListener(String propertyName, PropertyChangeListener listener) {
         propertyChangeSupport.removePropertyChangeListener(propertyName, listener);
     }
+
+    private static final class Parsers {
+        private final NMONParser nmonParser = new NMONParser();
+        private final VerboseGCParser gcParser = new VerboseGCParser();
+        private final IOStatParser iostatParser = new IOStatParser();
+        private final JSONParser jsonParser = new JSONParser();
+        private final HATJParser hatJParser = new HATJParser();
+        private final PerfmonParser perfmonParser = new PerfmonParser();
+        private final TopasOutParser topasoutParser = new TopasOutParser(nmonParser);
+        private final FIOParser fioParser = new FIOParser();
+        private final ZPoolIOStatParser zpoolParser = new ZPoolIOStatParser();
+        private final JMeterAggregateParser jMeterParser = new JMeterAggregateParser();
+    }
+
+    private static final class ParseResult {
+        private DataSet data;
+        private String errors;
+    }
 }
@@ -387,6 +387,9 @@ public final class NMONVisualizerCmdLine extends NMONVisualizerApp implements Da
     @Override
     public void dataChanged(DataSet data) {}
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {}
+
     @Override
     public void dataCleared() {}
 }
\ No newline at end of file
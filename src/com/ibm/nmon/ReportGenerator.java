@@ -20,8 +20,12 @@ import org.jfree.chart.plot.CategoryPlot;
 import org.jfree.chart.plot.Plot;
 import org.jfree.chart.plot.XYPlot;
 
+import com.ibm.nmon.analysis.Statistic;
+
 import com.ibm.nmon.util.ParserLog;
 
+import com.ibm.nmon.parser.ParseListener;
+
 import com.ibm.nmon.interval.Interval;
 
 import com.ibm.nmon.data.DataSet;
@@ -80,6 +84,9 @@ public final class ReportGenerator extends NMONVisualizerApp {
         String formatFile = "";
         String renamerFile = "";
         String intervalsFile = "";
+        String scratchDirectory = "";
+        String percentileAccuracy = "";
+        String percentile = "";
 
         boolean summaryCharts = true;
         boolean dataSetCharts = true;
@@ -123,7 +130,7 @@ public final class ReportGenerator extends NMONVisualizerApp {
                     case 'd': {
                         ++i;
 
-                        if (i > args.length) {
+                        if (i >= args.length) {
                             System.err.println("file must be specified for " + '-' + 'd');
                             return;
                         }
@@ -134,7 +141,7 @@ public final class ReportGenerator extends NMONVisualizerApp {
                     case 'a': {
                         ++i;
 
-                        if (i > args.length) {
+                        if (i >= args.length) {
                             System.err.println("file must be specified for " + '-' + 'a');
                             return;
                         }
@@ -146,7 +153,7 @@ public final class ReportGenerator extends NMONVisualizerApp {
                     case 'f': {
                         ++i;
 
-                        if (i > args.length) {
+                        if (i >= args.length) {
                             System.err.println("Chart format properties must be specified " + '-' + 'f');
                             return;
                         }
@@ -158,7 +165,7 @@ public final class ReportGenerator extends NMONVisualizerApp {
                     case 'g': {
                         ++i;
 
-                        if (i > args.length) {
+                        if (i >= args.length) {
                             System.err.println("Granularity value must be specified " + '-' + 'g');
                             return;
                         }
@@ -175,7 +182,7 @@ public final class ReportGenerator extends NMONVisualizerApp {
                     case 'h': {
                         ++i;
 
-                        if (i > args.length) {
+                        if (i >= args.length) {
                             System.err.println("file must be specified for " + '-' + 'h');
                             return;
                         }
@@ -186,7 +193,7 @@ public final class ReportGenerator extends NMONVisualizerApp {
                     case 'i': {
                         ++i;
 
-                        if (i > args.length) {
+                        if (i >= args.length) {
                             System.err.println("file must be specified for " + '-' + 'i');
                             return;
                         }
@@ -207,7 +214,7 @@ public final class ReportGenerator extends NMONVisualizerApp {
                             else if ("mf".equals(param)) {
                                 ++i;
 
-                                if (i > args.length) {
+                                if (i >= args.length) {
                                     System.err.println("file must be specified for " + '-' + '-' + "mf");
                                     return;
                                 }
@@ -217,7 +224,7 @@ public final class ReportGenerator extends NMONVisualizerApp {
                             else if ("mt".equals(param)) {
                                 ++i;
 
-                                if (i > args.length) {
+                                if (i >= args.length) {
                                     System.err.println("file must be specified for " + '-' + '-' + "mt");
                                     return;
                                 }
@@ -230,6 +237,36 @@ public final class ReportGenerator extends NMONVisualizerApp {
                             else if ("chartdata".equals(param)) {
                                 writeChartData = true;
                             }
+                            else if ("scratch".equals(param)) {
+                                ++i;
+
+                                if (i >= args.length) {
+                                    System.err.println("directory must be specified for " + '-' + '-' + "scratch");
+                                    return;
+                                }
+
+                                scratchDirectory = args[i];
+                            }
+                            else if ("percentiles".equals(param)) {
+                                ++i;
+
+                                if (i >= args.length) {
+                                    System.err.println("accuracy must be specified for " + '-' + '-' + "percentiles");
+                                    return;
+                                }
+
+                                percentileAccuracy = args[i];
+                            }
+                            else if ("percentile".equals(param)) {
+                                ++i;
+
+                                if (i >= args.length) {
+                                    System.err.println("value must be specified for " + '-' + '-' + "percentile");
+                                    return;
+                                }
+
+                                percentile = args[i];
+                            }
                             else {
                                 System.err.println("ignoring " + "unknown parameter " + '-' + '-' + param);
                             }
@@ -299,6 +336,56 @@ public final class ReportGenerator extends NMONVisualizerApp {
         generator.outputDirectory = outputDirectory.isDirectory() ? outputDirectory : outputDirectory.getParentFile();
         generator.writeChartData = writeChartData;
 
+        if (!"".equals(scratchDirectory)) {
+            if (!new File(scratchDirectory).isDirectory()) {
+                System.err.println('\'' + scratchDirectory + "' is not a directory");
+                return;
+            }
+
+            generator.setProperty("scratchDirectory", scratchDirectory);
+        }
+
+        if (!"".equals(percentileAccuracy)) {
+            boolean valid = false;
+
+            try {
+                double accuracy = Double.parseDouble(percentileAccuracy);
+                valid = (accuracy > 0) && (accuracy < 1);
+            }
+            catch (NumberFormatException nfe) {
+                // valid is false
+            }
+
+            if (!valid) {
+                System.err.println('\'' + percentileAccuracy + "' is not a valid percentile accuracy; "
+                        + "it must be between 0 and 1");
+                return;
+            }
+
+            // calculate approximate percentiles from mergeable sketches rather than from all the data
+            generator.setProperty("percentileAccuracy", percentileAccuracy);
+        }
+
+        if (!"".equals(percentile)) {
+            double value = Double.NaN;
+
+            try {
+                value = Double.parseDouble(percentile);
+            }
+            catch (NumberFormatException nfe) {
+                // value is NaN
+            }
+
+            if (!(value > 0) || (value > 100)) {
+                System.err.println('\'' + percentile + "' is not a valid percentile; "
+                        + "it must be greater than 0 and at most 100");
+                return;
+            }
+
+            // used by PERCENTILE statistics in the report definitions
+            Statistic.setPercentile(value / 100);
+        }
+
         // parse intervals
         if (!"".equals(intervalsFile)) {
             try {
@@ -309,6 +396,9 @@ public final class ReportGenerator extends NMONVisualizerApp {
                 ioe.printStackTrace();
                 return;
             }
+
+            // each interval is charted separately, so avoid scanning all the data for every one
+            generator.setProperty("indexIntervals", true);
         }
 
         ChartFormatter chartFormatter = new ChartFormatter(); // use default format
@@ -336,6 +426,26 @@ public final class ReportGenerator extends NMONVisualizerApp {
             }
         }
 
+        // raw data includes everything; otherwise only parse the data that will be charted
+        if (!writeRawData) {
+            List<String> reports = new java.util.ArrayList<String>();
+
+            if (summaryCharts) {
+                reports.add(ReportCache.DEFAULT_SUMMARY_CHARTS_KEY);
+            }
+
+            if (dataSetCharts) {
+                reports.add(ReportCache.DEFAULT_DATASET_CHARTS_KEY);
+            }
+
+            reports.addAll(customSummaryCharts);
+            reports.addAll(customDataCharts);
+            reports.addAll(multiplexedFieldCharts);
+            reports.addAll(multiplexedTypeCharts);
+
+            generator.setParseFilter(generator.cache.getDataFilter(reports));
+        }
+
         // parse files
         generator.parse(filesToParse);
 
@@ -376,10 +486,13 @@ public final class ReportGenerator extends NMONVisualizerApp {
 
             System.out.println("Raw data complete!");
         }
+
+        // release any scratch files
+        generator.clearDataSets();
     }
 
     private static long parseTime(String[] args, int index, char param) {
-        if (index > args.length) {
+        if (index >= args.length) {
             throw new IllegalArgumentException("time must be specified for " + '-' + param);
         }
 
@@ -448,35 +561,30 @@ public final class ReportGenerator extends NMONVisualizerApp {
         ParserLog log = ParserLog.getInstance();
         java.util.logging.Logger.getLogger(log.getLogger().getName()).setUseParentHandlers(false);
 
-        Map<String, String> errors = new java.util.LinkedHashMap<String, String>();
+        final Map<String, String> errors = new java.util.LinkedHashMap<String, String>();
 
         System.out.println("Parsing NMON files...");
 
-        for (String fileToParse : filesToParse) {
-            System.out.print("\t" + fileToParse + "... ");
-            System.out.flush();
-
-            log.setCurrentFilename(fileToParse);
-
-            try {
-                parse(fileToParse, getDisplayTimeZone());
-
-                if (log.hasData()) {
-                    System.out.println("Complete with errors!");
-                }
-                else {
-                    System.out.println("Complete");
+        try {
+            // files are parsed in parallel but completed in order
+            parseAll(filesToParse, getDisplayTimeZone(), new ParseListener() {
+                @Override
+                public void parseComplete(String fileToParse, String messages) {
+                    System.out.print("\t" + fileToParse + "... ");
+
+                    if (messages != null) {
+                        System.out.println("Complete with errors!");
+                        errors.put(fileToParse, messages);
+                    }
+                    else {
+                        System.out.println("Complete");
+                    }
                 }
-            }
-            catch (Exception e) {
-                log.getLogger().error("could not parse " + fileToParse, e);
-                System.out.println("Complete with errors!");
-                // continue parsing other files
-            }
-
-            if (log.hasData()) {
-                errors.put(log.getCurrentFilename(), log.getMessages());
-            }
+            });
+        }
+        catch (InterruptedException ie) {
+            System.out.println("Parsing interrupted!");
+            Thread.currentThread().interrupt();
         }
 
         System.out.println("Parsing complete!");
@@ -2,16 +2,12 @@ package com.ibm.nmon.analysis;
 
 import org.slf4j.Logger;
 
-import java.lang.ref.SoftReference;
-
-import java.util.Map;
-import java.util.List;
-
 import com.ibm.nmon.data.DataSet;
-import com.ibm.nmon.data.DataRecord;
 import com.ibm.nmon.data.DataType;
 
 import com.ibm.nmon.interval.Interval;
+import com.ibm.nmon.util.ComputeOnceCache;
+import com.ibm.nmon.util.QuantileSketch;
 import com.ibm.nmon.util.TimeFormatCache;
 
 /**
@@ -24,15 +20,30 @@ import com.ibm.nmon.util.TimeFormatCache;
  * <p>
  * This class caches statistics for measurements during a given Interval rather than recalculating from the raw data
  * each time. Calculations are done lazily, when a statistic is requested, not when a measurement is added to the
- * record. Data is cached as SoftReference objects, so while this class could potentially use a large amount of memory,
- * it should not cause OutOfMemoryExceptions. </p
+ * record. The first request for any field of a DataType analyzes all the fields of that type with a single scan of the
+ * data. If an {@link IntervalIndex} is set, only percentiles and the granularity maximum need a scan; other statistics
+ * come from the index and changing the interval does not require any recalculation. Data is cached as SoftReference
+ * objects, so while this class could potentially use a large amount of memory, it should not cause
+ * OutOfMemoryExceptions.
+ * </p>
+ * 
+ * <p>
+ * This class is thread safe. Each DataType is analyzed at most once for a given interval and granularity, even when
+ * multiple threads request it at the same time. Threads requesting other DataTypes do not wait. Changing the interval
+ * or granularity does not affect results already being calculated by other threads.
+ * </p>
  */
 public final class AnalysisRecord {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(AnalysisRecord.class);
 
+    /**
+     * The percentiles calculated when scanning the data.
+     */
+    public static final double[] PERCENTILES = { .5, .9, .95, .99, .999 };
+
     // struct for holding analyzed data
     // data is analyzed lazily, but everything is calculated on the first call, not for each get
-    // method
+    // method; all the fields of a DataType are analyzed at the same time
     private static final class AnalysisHolder {
         int count = 0;
         double sum = 0;
@@ -41,9 +52,12 @@ public final class AnalysisRecord {
         double weightedAverage = Double.NaN;
         double granularityMaximum = Double.MIN_VALUE;
 
-        double median = Double.NaN;
-        double percentile95 = Double.NaN;
-        double percentile99 = Double.NaN;
+        // same order as PERCENTILES, then the extra percentile in the AnalysisKey, if any
+        final double[] percentiles = new double[PERCENTILES.length + 1];
+
+        AnalysisHolder() {
+            java.util.Arrays.fill(percentiles, Double.NaN);
+        }
 
         double minimum = Double.MAX_VALUE;
         double maximum = Double.MIN_VALUE;
@@ -51,14 +65,36 @@ public final class AnalysisRecord {
         double standardDeviation = Double.NaN;
     }
 
+    // returned for types or fields that are not in the DataSet
+    private static final AnalysisHolder MISSING = new AnalysisHolder();
+
+    static {
+        MISSING.maximum = Double.NaN;
+        MISSING.minimum = Double.NaN;
+
+        MISSING.granularityMaximum = Double.NaN;
+    }
+
+    // maximum number of values copied at once when analyzing a DataType
+    private static final int MAX_BATCH_VALUES = 1 << 22;
+
     private final DataSet data;
 
-    // associate DataType keys with the set of values for this record
-    private final Map<String, SoftReference<AnalysisHolder>> values = new java.util.HashMap<String, SoftReference<AnalysisHolder>>();
+    // associate DataTypes, intervals and granularities with the analyzed values for each of the type's fields
+    private final ComputeOnceCache<AnalysisKey, AnalysisHolder[]> values = new ComputeOnceCache<AnalysisKey, AnalysisHolder[]>() {
+        @Override
+        protected AnalysisHolder[] compute(AnalysisKey key) {
+            return analyze(key);
+        }
+    };
+
+    // volatile so all threads see changes; each request reads these once so it uses a consistent interval
+    private volatile Interval interval;
 
-    private Interval interval;
+    private volatile int granularity = 60000;
 
-    private int granularity = 60000;
+    // null => all statistics are calculated by scanning the data
+    private volatile IntervalIndex index;
 
     public AnalysisRecord(DataSet data) {
         this.data = data;
@@ -69,6 +105,24 @@ public final class AnalysisRecord {
         return data;
     }
 
+    public IntervalIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Use the given index for all statistics other than percentiles and the granularity maximum. The same index can be
+     * shared by multiple records for different intervals.
+     * 
+     * @param index an index for this record's DataSet or <code>null</code> to always scan the data
+     */
+    public void setIndex(IntervalIndex index) {
+        if ((index != null) && (index.getDataSet() != data)) {
+            throw new IllegalArgumentException("index is not for " + data);
+        }
+
+        this.index = index;
+    }
+
     public Interval getInterval() {
         return interval;
     }
@@ -77,7 +131,39 @@ public final class AnalysisRecord {
         if (!this.interval.equals(interval)) {
             this.interval = interval;
 
-            values.clear();
+            removeOtherIntervals();
+        }
+    }
+
+    /**
+     * Notify this record that data was added to its DataSet starting at the given time. Cached results are only cleared
+     * if their interval includes the new data, so results for earlier intervals are kept.
+     */
+    public void dataAppended(long startTime) {
+        for (java.util.Iterator<AnalysisKey> i = values.keys().iterator(); i.hasNext();) {
+            if (i.next().interval.getEnd() >= startTime) {
+                i.remove();
+            }
+        }
+
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            index.clear();
+        }
+    }
+
+    /**
+     * Notify this record that its DataSet was changed in a way that could affect any result, for example by merging
+     * data from another file. All cached results are cleared, including the index, if any.
+     */
+    public void dataChanged() {
+        values.clear();
+
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            index.clear();
         }
     }
 
@@ -89,23 +175,61 @@ public final class AnalysisRecord {
         if (granularity != this.granularity) {
             this.granularity = granularity;
 
-            values.clear();
+            removeOtherIntervals();
+        }
+    }
+
+    // only keep results for the current interval and granularity so memory use does not grow as they change
+    private void removeOtherIntervals() {
+        Interval interval = this.interval;
+        int granularity = this.granularity;
+
+        for (java.util.Iterator<AnalysisKey> i = values.keys().iterator(); i.hasNext();) {
+            AnalysisKey key = i.next();
+
+            if ((key.granularity != granularity) || !key.interval.equals(interval)) {
+                i.remove();
+            }
         }
     }
 
     public double getAverage(DataType type, String fieldName) {
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            return index.getAverage(type, fieldName, interval);
+        }
+
         return analyzeIfNecessary(type, fieldName).average;
     }
 
     public double getWeightedAverage(DataType type, String fieldName) {
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            return index.getWeightedAverage(type, fieldName, interval);
+        }
+
         return analyzeIfNecessary(type, fieldName).weightedAverage;
     }
 
     public double getMinimum(DataType type, String fieldName) {
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            return index.getMinimum(type, fieldName, interval);
+        }
+
         return analyzeIfNecessary(type, fieldName).minimum;
     }
 
     public double getMaximum(DataType type, String fieldName) {
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            return index.getMaximum(type, fieldName, interval);
+        }
+
         return analyzeIfNecessary(type, fieldName).maximum;
     }
 
@@ -114,30 +238,124 @@ public final class AnalysisRecord {
     }
 
     public double getMedian(DataType type, String fieldName) {
-        return analyzeIfNecessary(type, fieldName).median;
+        return getPercentile(type, fieldName, .5);
     }
 
     public double get95thPercentile(DataType type, String fieldName) {
-        return analyzeIfNecessary(type, fieldName).percentile95;
+        return getPercentile(type, fieldName, .95);
     }
 
     public double get99thPercentile(DataType type, String fieldName) {
-        return analyzeIfNecessary(type, fieldName).percentile99;
+        return getPercentile(type, fieldName, .99);
+    }
+
+    /**
+     * Get a percentile. If the index for this record {@link IntervalIndex#hasSketches() has sketches}, the result is
+     * approximate. Otherwise, the result is exact. The {@link #PERCENTILES} are calculated along with the other
+     * statistics; any other percentile needs another scan of the data, which is cached the same way.
+     * 
+     * @param percentile between 0 and 1, inclusive
+     */
+    public double getPercentile(DataType type, String fieldName, double percentile) {
+        if ((percentile < 0) || (percentile > 1)) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+
+        IntervalIndex index = this.index;
+
+        if ((index != null) && index.hasSketches()) {
+            return index.getPercentile(type, fieldName, percentile, interval);
+        }
+
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            if (PERCENTILES[i] == percentile) {
+                return analyzeIfNecessary(type, fieldName, Double.NaN).percentiles[i];
+            }
+        }
+
+        return analyzeIfNecessary(type, fieldName, percentile).percentiles[PERCENTILES.length];
+    }
+
+    /**
+     * Get a sketch of the values for the current interval. Sketches from multiple records can be
+     * {@link QuantileSketch#merge(QuantileSketch) merged} to calculate percentiles across intervals or hosts.
+     * 
+     * @return a new sketch or <code>null</code> if the index for this record does not have sketches
+     */
+    public QuantileSketch getSketch(DataType type, String fieldName) {
+        IntervalIndex index = this.index;
+
+        if ((index != null) && index.hasSketches()) {
+            return index.getSketch(type, fieldName, interval);
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Calculate a percentile across multiple records, for example for the same type on many hosts, by merging their
+     * sketches. Records without sketches are ignored. All the sketches must have the same accuracy.
+     * 
+     * @return the approximate percentile or <code>NaN</code> if there is no data
+     */
+    public static double getPercentile(Iterable<AnalysisRecord> records, DataType type, String fieldName,
+            double percentile) {
+        QuantileSketch merged = null;
+
+        for (AnalysisRecord record : records) {
+            QuantileSketch sketch = record.getSketch(type, fieldName);
+
+            if (sketch == null) {
+                continue;
+            }
+            else if (merged == null) {
+                merged = sketch;
+            }
+            else {
+                merged.merge(sketch);
+            }
+        }
+
+        return merged == null ? Double.NaN : merged.getQuantile(percentile);
     }
 
     public double getStandardDeviation(DataType type, String fieldName) {
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            return index.getStandardDeviation(type, fieldName, interval);
+        }
+
         return analyzeIfNecessary(type, fieldName).standardDeviation;
     }
 
     public double getSum(DataType type, String fieldName) {
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            return index.getSum(type, fieldName, interval);
+        }
+
         return analyzeIfNecessary(type, fieldName).sum;
     }
 
     public int getCount(DataType type, String fieldName) {
+        IntervalIndex index = this.index;
+
+        if (index != null) {
+            return index.getCount(type, fieldName, interval);
+        }
+
         return analyzeIfNecessary(type, fieldName).count;
     }
 
     private AnalysisHolder analyzeIfNecessary(DataType type, String fieldName) {
+        return analyzeIfNecessary(type, fieldName, Double.NaN);
+    }
+
+    // extraPercentile is calculated along with PERCENTILES unless it is NaN
+    private AnalysisHolder analyzeIfNecessary(DataType type, String fieldName, double extraPercentile) {
         if (type == null) {
             throw new IllegalArgumentException("cannot analyze null " + "type");
         }
@@ -146,147 +364,184 @@ public final class AnalysisRecord {
             throw new IllegalArgumentException("cannot analyze null " + "field");
         }
 
-        String key = type.getKey(fieldName);
-
-        SoftReference<AnalysisHolder> holderRef = values.get(key);
-        AnalysisHolder holder = null;
-
-        if (holderRef != null) {
-            holder = holderRef.get();
+        DataType typeToAnalyze = data.getType(type.getId());
 
-            if (holder != null) {
-                return holder;
-            }
-            // else valid SoftReference but the actual holder has been GC'ed so recreate it
+        if ((typeToAnalyze == null) || !typeToAnalyze.hasField(fieldName)) {
+            // just return a holder full of NaNs
+            return MISSING;
         }
 
-        holder = new AnalysisHolder();
-        values.put(key, new SoftReference<AnalysisHolder>(holder));
+        AnalysisHolder[] holders = values.get(new AnalysisKey(typeToAnalyze, interval, granularity, extraPercentile));
+
+        return holders[typeToAnalyze.getFieldIndex(fieldName)];
+    }
 
+    // analyze every field of the type; the values for multiple fields are copied at the same time, so the data is only
+    // scanned once for most types
+    private AnalysisHolder[] analyze(AnalysisKey key) {
         long startT = System.nanoTime();
 
-        DataType typeToAnalyze = data.getType(type.getId());
+        DataType type = key.type;
+        Interval interval = key.interval;
 
-        if ((typeToAnalyze != null) && typeToAnalyze.hasField(fieldName)) {
-            // depending on the Interval, all DataRecords may not be processed, but assume
-            // over-allocating here is faster than forcing some number of array resizes
-            List<Double> allValues = new java.util.ArrayList<Double>(data.getRecordCount());
+        int fieldCount = type.getFieldCount();
+        int recordCount = data.getRecordCount(interval);
 
-            long lastGranularityTime = Math.max(interval.getStart(), data.getStartTime());
-            int countSinceLastGranularity = 0;
-            double granularityTotal = 0;
+        AnalysisHolder[] holders = new AnalysisHolder[fieldCount];
 
-            boolean isProcess = type.getClass() == com.ibm.nmon.data.ProcessDataType.class;
+        // limit the memory used for types with many fields
+        int batchSize = Math.max(1, Math.min(fieldCount, MAX_BATCH_VALUES / Math.max(1, recordCount)));
+        double[][] columns = new double[batchSize][recordCount];
 
-            for (DataRecord dataRecord : data.getRecords(interval)) {
-                double value = Double.NaN;
+        for (int batchStart = 0; batchStart < fieldCount; batchStart += batchSize) {
+            int[] fieldIndexes = new int[Math.min(batchSize, fieldCount - batchStart)];
 
-                // for processes, missing values are 0 since NMON does not output data for processes
-                // if there is no activity
-                if (isProcess) {
-                    if (dataRecord.hasData(typeToAnalyze)) {
-                        value = dataRecord.getData(typeToAnalyze, fieldName);
-                    }
+            for (int i = 0; i < fieldIndexes.length; i++) {
+                fieldIndexes[i] = batchStart + i;
+            }
 
-                    if (Double.isNaN(value)) {
-                        value = 0;
-                    }
-                }
-                else { // for other types, assume missing values really are missing
-                    if (dataRecord.hasData(typeToAnalyze)) {
-                        value = dataRecord.getData(typeToAnalyze, fieldName);
-                    }
-
-                    if (Double.isNaN(value)) {
-                        continue;
-                    }
-                }
+            // missing values are copied as NaN
+            data.copyColumns(type, fieldIndexes, interval, columns);
 
-                holder.sum += value;
+            for (int i = 0; i < fieldIndexes.length; i++) {
+                holders[fieldIndexes[i]] = analyze(key, columns[i]);
+            }
+        }
 
-                if (value > holder.maximum) {
-                    holder.maximum = value;
-                }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{}: {} fields of {} analyzed for {} in {}ms", data, fieldCount, type,
+                    TimeFormatCache.formatInterval(interval), (System.nanoTime() - startT) / 1000000.0d);
+        }
 
-                if (value < holder.minimum) {
-                    holder.minimum = value;
-                }
+        return holders;
+    }
 
-                allValues.add(value);
+    // analyze a single field; the column is overwritten
+    private AnalysisHolder analyze(AnalysisKey key, double[] column) {
+        AnalysisHolder holder = new AnalysisHolder();
 
-                ++countSinceLastGranularity;
-                granularityTotal += value;
+        Interval interval = key.interval;
+        int granularity = key.granularity;
 
-                if ((dataRecord.getTime() - lastGranularityTime) >= granularity) {
-                    double peakAverage = granularityTotal / countSinceLastGranularity;
+        long lastGranularityTime = Math.max(interval.getStart(), data.getStartTime());
+        int countSinceLastGranularity = 0;
+        double granularityTotal = 0;
 
-                    if (peakAverage > holder.granularityMaximum) {
-                        holder.granularityMaximum = peakAverage;
-                    }
+        boolean isProcess = key.type.getClass() == com.ibm.nmon.data.ProcessDataType.class;
 
-                    countSinceLastGranularity = 0;
-                    granularityTotal = 0;
+        int first = data.getStartIndex(interval);
+
+        // values to analyze are moved to the front of the column, in place
+        int count = 0;
 
-                    lastGranularityTime = dataRecord.getTime();
+        for (int i = 0; i < column.length; i++) {
+            double value = column[i];
+
+            // for processes, missing values are 0 since NMON does not output data for processes
+            // if there is no activity
+            if (isProcess) {
+                if (Double.isNaN(value)) {
+                    value = 0;
+                }
+            }
+            else { // for other types, assume missing values really are missing
+                if (Double.isNaN(value)) {
+                    continue;
                 }
             }
 
-            if (allValues.size() > 0) {
-                holder.count = allValues.size();
-                holder.average = holder.sum / holder.count;
+            column[count++] = value;
 
-                java.util.Collections.sort(allValues);
+            ++countSinceLastGranularity;
+            granularityTotal += value;
 
-                holder.median = calculatePercentile(.5, allValues);
-                holder.percentile95 = calculatePercentile(.95, allValues);
-                holder.percentile99 = calculatePercentile(.99, allValues);
+            long time = data.getTime(first + i);
 
-                double sumSqs = 0;
-                double sumSqDiffs = 0;
+            if ((time - lastGranularityTime) >= granularity) {
+                double peakAverage = granularityTotal / countSinceLastGranularity;
 
-                for (double value : allValues) {
-                    sumSqs += value * value;
-                    sumSqDiffs += Math.pow(value - holder.average, 2);
+                if (peakAverage > holder.granularityMaximum) {
+                    holder.granularityMaximum = peakAverage;
                 }
 
-                holder.weightedAverage = sumSqs / holder.sum;
-                holder.standardDeviation = Math.sqrt(sumSqDiffs / holder.count);
+                countSinceLastGranularity = 0;
+                granularityTotal = 0;
+
+                lastGranularityTime = time;
             }
-            else {
-                // file has data, but not for the given interval
-                // set all values to NaN
-                holder.maximum = Double.NaN;
-                holder.minimum = Double.NaN;
+        }
+
+        if (count > 0) {
+            double[] percentiles = PERCENTILES;
+
+            if (!Double.isNaN(key.extraPercentile)) {
+                percentiles = java.util.Arrays.copyOf(PERCENTILES, PERCENTILES.length + 1);
+                percentiles[PERCENTILES.length] = key.extraPercentile;
+            }
+
+            ValueStatistics statistics = ValueStatistics.calculate(column, count, percentiles);
 
-                holder.granularityMaximum = Double.NaN;
+            holder.count = statistics.getCount();
+            holder.sum = statistics.getSum();
+            holder.average = statistics.getAverage();
+            holder.weightedAverage = statistics.getWeightedAverage();
+
+            for (int i = 0; i < percentiles.length; i++) {
+                holder.percentiles[i] = statistics.getPercentile(percentiles[i]);
             }
+
+            holder.minimum = statistics.getMinimum();
+            holder.maximum = statistics.getMaximum();
+
+            holder.standardDeviation = statistics.getStandardDeviation();
         }
         else {
-            // typeToAnalyze is null or type does not have the field
-            // just return a holder full of NaNs
+            // file has data, but not for the given interval
+            // set all values to NaN
             holder.maximum = Double.NaN;
             holder.minimum = Double.NaN;
 
             holder.granularityMaximum = Double.NaN;
         }
 
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("{}: {}-{} analyzed for {} in {}ms", data, type, fieldName,
-                    TimeFormatCache.formatInterval(interval), (System.nanoTime() - startT) / 1000000.0d);
-        }
-
         return holder;
     }
 
-    public static double calculatePercentile(double percentile, List<Double> allValues) {
-        double n = allValues.size() * percentile;
-        int idx = (int) n;
+    private static final class AnalysisKey {
+        final DataType type;
+        final Interval interval;
+        final int granularity;
+        // NaN => only PERCENTILES
+        final double extraPercentile;
 
-        if ((n - idx) == 0) {
-            return (allValues.get(idx) + allValues.get(idx - 1)) / 2;
+        AnalysisKey(DataType type, Interval interval, int granularity, double extraPercentile) {
+            this.type = type;
+            this.interval = interval;
+            this.granularity = granularity;
+            this.extraPercentile = extraPercentile;
         }
-        else {
-            return allValues.get(idx);
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            else if (obj instanceof AnalysisKey) {
+                AnalysisKey key = (AnalysisKey) obj;
+
+                // compare DataType instances since merging data can replace a type with one that has more fields
+                return (this.granularity == key.granularity) && (this.type == key.type)
+                        && this.interval.equals(key.interval)
+                        && (Double.compare(this.extraPercentile, key.extraPercentile) == 0);
+            }
+            else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.getId().hashCode() * 31 + interval.hashCode()) * 31 + granularity;
         }
     }
 }
@@ -0,0 +1,512 @@
+package com.ibm.nmon.analysis;
+
+import org.slf4j.Logger;
+
+import com.ibm.nmon.data.DataSet;
+import com.ibm.nmon.data.DataType;
+import com.ibm.nmon.data.ProcessDataType;
+
+import com.ibm.nmon.interval.Interval;
+
+import com.ibm.nmon.util.ComputeOnceCache;
+import com.ibm.nmon.util.QuantileSketch;
+
+/**
+ * <p>
+ * Index of a DataSet that calculates statistics for any {@link Interval} without scanning the data. For each field,
+ * prefix sums of the values, their squares and the number of values give the count, sum, average, weighted average and
+ * standard deviation in constant time. Segment trees give the minimum and maximum in <code>O(log n)</code> time.
+ * </p>
+ *
+ * <p>
+ * Exact percentiles cannot be indexed this way and must still be calculated by {@link AnalysisRecord}. If a percentile
+ * accuracy is given, the index also keeps a {@link QuantileSketch} for each block of {@link #SKETCH_BLOCK_SIZE} records.
+ * Approximate percentiles for an interval are then calculated by merging the sketches for the blocks it covers. Since
+ * sketches merge exactly, the sketches for multiple intervals or hosts can also be combined with
+ * {@link QuantileSketch#merge(QuantileSketch)}.
+ * </p>
+ *
+ * <p>
+ * Each DataType is indexed on first use, for all of its fields at the same time. The index is then used for every
+ * interval. Indexes are cached as SoftReference objects and are rebuilt if the memory is reclaimed. Call
+ * {@link #clear()} whenever data is added to the DataSet. As a safeguard, an index is also rebuilt if the DataType has
+ * been replaced or the number of records has changed since it was built.
+ * </p>
+ *
+ * <p>
+ * This class is thread safe. Each DataType is indexed at most once, even when multiple threads request it at the same
+ * time, and built indexes are never modified so they can be read concurrently.
+ * </p>
+ *
+ * <p>
+ * Results follow the same rules as AnalysisRecord: missing process data counts as 0 and other missing data is ignored.
+ * Since the index uses differences of running sums, results may differ from a full scan in the last few digits. The
+ * standard deviation of values that are nearly constant is the least precise.
+ * </p>
+ */
+public final class IntervalIndex {
+    private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(IntervalIndex.class);
+
+    public static final int SKETCH_BLOCK_SIZE = 256;
+
+    private final DataSet data;
+
+    // NaN => no sketches
+    private final double percentileAccuracy;
+
+    // associate DataType ids with the index for each of the type's fields
+    private final ComputeOnceCache<String, TypeIndex> indexes = new ComputeOnceCache<String, TypeIndex>() {
+        @Override
+        protected TypeIndex compute(String typeId) {
+            return buildIndexes(data.getType(typeId));
+        }
+    };
+
+    public IntervalIndex(DataSet data) {
+        this.data = data;
+        this.percentileAccuracy = Double.NaN;
+    }
+
+    /**
+     * Create an index that also calculates approximate percentiles.
+     *
+     * @param percentileAccuracy the maximum relative error of any percentile; must be between 0 and 1, exclusive
+     */
+    public IntervalIndex(DataSet data, double percentileAccuracy) {
+        if (!((percentileAccuracy > 0) && (percentileAccuracy < 1))) {
+            throw new IllegalArgumentException("percentile accuracy must be between 0 and 1");
+        }
+
+        this.data = data;
+        this.percentileAccuracy = percentileAccuracy;
+    }
+
+    public DataSet getDataSet() {
+        return data;
+    }
+
+    public boolean hasSketches() {
+        return !Double.isNaN(percentileAccuracy);
+    }
+
+    /**
+     * @return the maximum relative error of any percentile or <code>NaN</code> if this index does not calculate
+     *         percentiles
+     */
+    public double getPercentileAccuracy() {
+        return percentileAccuracy;
+    }
+
+    /**
+     * Remove all indexes so they are rebuilt from the current data.
+     */
+    public void clear() {
+        indexes.clear();
+    }
+
+    public int getCount(DataType type, String fieldName, Interval interval) {
+        FieldIndex index = getIndex(type, fieldName);
+
+        if (index == null) {
+            return 0;
+        }
+        else {
+            return index.getCount(data.getStartIndex(interval), data.getEndIndex(interval));
+        }
+    }
+
+    public double getSum(DataType type, String fieldName, Interval interval) {
+        FieldIndex index = getIndex(type, fieldName);
+
+        if (index == null) {
+            return 0;
+        }
+        else {
+            return index.getSum(data.getStartIndex(interval), data.getEndIndex(interval));
+        }
+    }
+
+    public double getAverage(DataType type, String fieldName, Interval interval) {
+        FieldIndex index = getIndex(type, fieldName);
+
+        if (index == null) {
+            return Double.NaN;
+        }
+        else {
+            return index.getAverage(data.getStartIndex(interval), data.getEndIndex(interval));
+        }
+    }
+
+    public double getWeightedAverage(DataType type, String fieldName, Interval interval) {
+        FieldIndex index = getIndex(type, fieldName);
+
+        if (index == null) {
+            return Double.NaN;
+        }
+        else {
+            return index.getWeightedAverage(data.getStartIndex(interval), data.getEndIndex(interval));
+        }
+    }
+
+    public double getStandardDeviation(DataType type, String fieldName, Interval interval) {
+        FieldIndex index = getIndex(type, fieldName);
+
+        if (index == null) {
+            return Double.NaN;
+        }
+        else {
+            return index.getStandardDeviation(data.getStartIndex(interval), data.getEndIndex(interval));
+        }
+    }
+
+    public double getMinimum(DataType type, String fieldName, Interval interval) {
+        FieldIndex index = getIndex(type, fieldName);
+
+        if (index == null) {
+            return Double.NaN;
+        }
+        else {
+            return index.getMinimum(data.getStartIndex(interval), data.getEndIndex(interval));
+        }
+    }
+
+    public double getMaximum(DataType type, String fieldName, Interval interval) {
+        FieldIndex index = getIndex(type, fieldName);
+
+        if (index == null) {
+            return Double.NaN;
+        }
+        else {
+            return index.getMaximum(data.getStartIndex(interval), data.getEndIndex(interval));
+        }
+    }
+
+    /**
+     * @param percentile between 0 and 1, inclusive
+     * @return the approximate percentile or <code>NaN</code> if there is no data
+     * @throws IllegalStateException if this index does not have sketches
+     */
+    public double getPercentile(DataType type, String fieldName, double percentile, Interval interval) {
+        return getSketch(type, fieldName, interval).getQuantile(percentile);
+    }
+
+    /**
+     * Get a sketch of all the values in the given interval. The returned sketch is a new object that can be changed or
+     * merged with other sketches without affecting the index.
+     *
+     * @throws IllegalStateException if this index does not have sketches
+     */
+    public QuantileSketch getSketch(DataType type, String fieldName, Interval interval) {
+        if (!hasSketches()) {
+            throw new IllegalStateException("index for " + data + " does not calculate percentiles");
+        }
+
+        FieldIndex index = getIndex(type, fieldName);
+
+        if (index == null) {
+            return new QuantileSketch(percentileAccuracy);
+        }
+        else {
+            return index.getSketch(data.getStartIndex(interval), data.getEndIndex(interval), percentileAccuracy);
+        }
+    }
+
+    // null if the type or field is not in the data set
+    private FieldIndex getIndex(DataType type, String fieldName) {
+        if (type == null) {
+            throw new IllegalArgumentException("cannot index null " + "type");
+        }
+
+        if ((fieldName == null) || "".equals(fieldName)) {
+            throw new IllegalArgumentException("cannot index null " + "field");
+        }
+
+        DataType typeToIndex = data.getType(type.getId());
+
+        if ((typeToIndex == null) || !typeToIndex.hasField(fieldName)) {
+            return null;
+        }
+
+        TypeIndex typeIndex = indexes.get(typeToIndex.getId());
+
+        // merging data can replace the type with one that has different fields or add records; the index is only
+        // valid for the type and record count it was built with
+        if ((typeIndex.type != typeToIndex) || (typeIndex.recordCount != data.getRecordCount())) {
+            indexes.remove(typeToIndex.getId());
+            typeIndex = indexes.get(typeToIndex.getId());
+        }
+
+        return typeIndex.fields[typeToIndex.getFieldIndex(fieldName)];
+    }
+
+    private TypeIndex buildIndexes(DataType type) {
+        long startT = System.nanoTime();
+
+        int fieldCount = type.getFieldCount();
+        int recordCount = data.getRecordCount();
+
+        int[] fieldIndexes = new int[fieldCount];
+        double[][] columns = new double[fieldCount][recordCount];
+
+        for (int i = 0; i < fieldCount; i++) {
+            fieldIndexes[i] = i;
+        }
+
+        data.copyColumns(type, fieldIndexes, Interval.DEFAULT, columns);
+
+        boolean isProcess = type.getClass() == ProcessDataType.class;
+        FieldIndex[] typeIndexes = new FieldIndex[fieldCount];
+
+        for (int i = 0; i < fieldCount; i++) {
+            typeIndexes[i] = new FieldIndex(columns[i], isProcess, percentileAccuracy);
+            // allow each column to be GC'ed once it is indexed
+            columns[i] = null;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{}: {} fields of {} indexed in {}ms", data, fieldCount, type,
+                    (System.nanoTime() - startT) / 1000000.0d);
+        }
+
+        return new TypeIndex(type, recordCount, typeIndexes);
+    }
+
+    // the indexes for all the fields of a type, along with the data they were built from
+    private static final class TypeIndex {
+        final DataType type;
+        final int recordCount;
+        final FieldIndex[] fields;
+
+        TypeIndex(DataType type, int recordCount, FieldIndex[] fields) {
+            this.type = type;
+            this.recordCount = recordCount;
+            this.fields = fields;
+        }
+    }
+
+    private static final class FieldIndex {
+        // prefix sums; element i is the total for all records before record i
+        // sums are compensated, i.e. the actual sum is high + low, to limit the precision lost when subtracting them
+        private final int[] counts;
+        private final double[] sumsHigh;
+        private final double[] sumsLow;
+        private final double[] sumSqsHigh;
+        private final double[] sumSqsLow;
+
+        // segment trees with the values as leaves, starting at index n
+        private final double[] minimums;
+        private final double[] maximums;
+
+        // one for each SKETCH_BLOCK_SIZE records; null if percentiles are not calculated
+        private final QuantileSketch[] sketches;
+
+        FieldIndex(double[] values, boolean isProcess, double percentileAccuracy) {
+            int n = values.length;
+
+            counts = new int[n + 1];
+            sumsHigh = new double[n + 1];
+            sumsLow = new double[n + 1];
+            sumSqsHigh = new double[n + 1];
+            sumSqsLow = new double[n + 1];
+
+            minimums = new double[2 * n];
+            maximums = new double[2 * n];
+
+            for (int i = 0; i < n; i++) {
+                double value = values[i];
+
+                // for processes, missing values are 0; for other types, missing values really are missing
+                if (Double.isNaN(value) && isProcess) {
+                    value = 0;
+                }
+
+                if (Double.isNaN(value)) {
+                    counts[i + 1] = counts[i];
+                    sumsHigh[i + 1] = sumsHigh[i];
+                    sumsLow[i + 1] = sumsLow[i];
+                    sumSqsHigh[i + 1] = sumSqsHigh[i];
+                    sumSqsLow[i + 1] = sumSqsLow[i];
+
+                    minimums[n + i] = Double.POSITIVE_INFINITY;
+                    maximums[n + i] = Double.NEGATIVE_INFINITY;
+                }
+                else {
+                    counts[i + 1] = counts[i] + 1;
+                    add(sumsHigh, sumsLow, i, value);
+                    add(sumSqsHigh, sumSqsLow, i, value * value);
+
+                    minimums[n + i] = value;
+                    maximums[n + i] = value;
+                }
+            }
+
+            for (int i = n - 1; i > 0; i--) {
+                minimums[i] = Math.min(minimums[2 * i], minimums[2 * i + 1]);
+                maximums[i] = Math.max(maximums[2 * i], maximums[2 * i + 1]);
+            }
+
+            if (Double.isNaN(percentileAccuracy)) {
+                sketches = null;
+            }
+            else {
+                sketches = new QuantileSketch[(n + SKETCH_BLOCK_SIZE - 1) / SKETCH_BLOCK_SIZE];
+
+                for (int i = 0; i < sketches.length; i++) {
+                    QuantileSketch sketch = new QuantileSketch(percentileAccuracy);
+                    int end = Math.min(n, (i + 1) * SKETCH_BLOCK_SIZE);
+
+                    for (int j = i * SKETCH_BLOCK_SIZE; j < end; j++) {
+                        addValue(sketch, j);
+                    }
+
+                    sketch.trimToSize();
+                    sketches[i] = sketch;
+                }
+            }
+        }
+
+        // use the leaves of the segment tree as the values; missing values are infinite and are not added
+        private void addValue(QuantileSketch sketch, int record) {
+            double value = minimums[counts.length - 1 + record];
+
+            if (value != Double.POSITIVE_INFINITY) {
+                sketch.add(value);
+            }
+        }
+
+        QuantileSketch getSketch(int start, int end, double percentileAccuracy) {
+            QuantileSketch sketch = new QuantileSketch(percentileAccuracy);
+
+            int firstBlock = (start + SKETCH_BLOCK_SIZE - 1) / SKETCH_BLOCK_SIZE;
+            // the last block may be partial
+            int lastBlock = end == (counts.length - 1) ? sketches.length : end / SKETCH_BLOCK_SIZE;
+
+            if (firstBlock >= lastBlock) {
+                // no complete blocks
+                for (int i = start; i < end; i++) {
+                    addValue(sketch, i);
+                }
+            }
+            else {
+                for (int i = start; i < firstBlock * SKETCH_BLOCK_SIZE; i++) {
+                    addValue(sketch, i);
+                }
+
+                for (int i = firstBlock; i < lastBlock; i++) {
+                    sketch.merge(sketches[i]);
+                }
+
+                for (int i = lastBlock * SKETCH_BLOCK_SIZE; i < end; i++) {
+                    addValue(sketch, i);
+                }
+            }
+
+            return sketch;
+        }
+
+        // Neumaier's compensated summation
+        private static void add(double[] high, double[] low, int i, double value) {
+            double sum = high[i] + value;
+
+            if (Math.abs(high[i]) >= Math.abs(value)) {
+                low[i + 1] = low[i] + ((high[i] - sum) + value);
+            }
+            else {
+                low[i + 1] = low[i] + ((value - sum) + high[i]);
+            }
+
+            high[i + 1] = sum;
+        }
+
+        // all methods take record indexes; start is inclusive, end is exclusive
+
+        int getCount(int start, int end) {
+            return counts[end] - counts[start];
+        }
+
+        double getSum(int start, int end) {
+            return (sumsHigh[end] - sumsHigh[start]) + (sumsLow[end] - sumsLow[start]);
+        }
+
+        double getAverage(int start, int end) {
+            int count = getCount(start, end);
+
+            if (count == 0) {
+                return Double.NaN;
+            }
+            else {
+                return getSum(start, end) / count;
+            }
+        }
+
+        double getWeightedAverage(int start, int end) {
+            if (getCount(start, end) == 0) {
+                return Double.NaN;
+            }
+            else {
+                return getSumOfSquares(start, end) / getSum(start, end);
+            }
+        }
+
+        double getStandardDeviation(int start, int end) {
+            int count = getCount(start, end);
+
+            if (count == 0) {
+                return Double.NaN;
+            }
+            else {
+                double mean = getSum(start, end) / count;
+                double variance = (getSumOfSquares(start, end) / count) - (mean * mean);
+
+                // rounding can make the variance slightly negative
+                return variance > 0 ? Math.sqrt(variance) : 0;
+            }
+        }
+
+        private double getSumOfSquares(int start, int end) {
+            return (sumSqsHigh[end] - sumSqsHigh[start]) + (sumSqsLow[end] - sumSqsLow[start]);
+        }
+
+        double getMinimum(int start, int end) {
+            if (getCount(start, end) == 0) {
+                return Double.NaN;
+            }
+
+            int n = counts.length - 1;
+            double minimum = Double.POSITIVE_INFINITY;
+
+            for (int l = start + n, r = end + n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    minimum = Math.min(minimum, minimums[l++]);
+                }
+
+                if ((r & 1) == 1) {
+                    minimum = Math.min(minimum, minimums[--r]);
+                }
+            }
+
+            return minimum;
+        }
+
+        double getMaximum(int start, int end) {
+            if (getCount(start, end) == 0) {
+                return Double.NaN;
+            }
+
+            int n = counts.length - 1;
+            double maximum = Double.NEGATIVE_INFINITY;
+
+            for (int l = start + n, r = end + n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    maximum = Math.max(maximum, maximums[l++]);
+                }
+
+                if ((r & 1) == 1) {
+                    maximum = Math.max(maximum, maximums[--r]);
+                }
+            }
+
+            return maximum;
+        }
+    }
+}
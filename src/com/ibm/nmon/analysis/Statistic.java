@@ -65,18 +65,82 @@ public enum Statistic {
         public double getValue(AnalysisRecord record, DataType type, String fieldName) {
             return record.getMedian(type, fieldName);
         }
+
+        @Override
+        public double getPercentile() {
+            return .5;
+        }
+    },
+    PERCENTILE_90("90th Percentile") {
+        @Override
+        public double getValue(AnalysisRecord record, DataType type, String fieldName) {
+            return record.getPercentile(type, fieldName, .9);
+        }
+
+        @Override
+        public double getPercentile() {
+            return .9;
+        }
     },
     PERCENTILE_95("95th Percentile") {
         @Override
         public double getValue(AnalysisRecord record, DataType type, String fieldName) {
             return record.get95thPercentile(type, fieldName);
         }
+
+        @Override
+        public double getPercentile() {
+            return .95;
+        }
     },
     PERCENTILE_99("99th Percentile") {
         @Override
         public double getValue(AnalysisRecord record, DataType type, String fieldName) {
             return record.get99thPercentile(type, fieldName);
         }
+
+        @Override
+        public double getPercentile() {
+            return .99;
+        }
+    },
+    PERCENTILE_99_9("99.9th Percentile") {
+        @Override
+        public double getValue(AnalysisRecord record, DataType type, String fieldName) {
+            return record.getPercentile(type, fieldName, .999);
+        }
+
+        @Override
+        public double getPercentile() {
+            return .999;
+        }
+    },
+    /**
+     * The percentile set by {@link Statistic#setPercentile(double)}.
+     */
+    PERCENTILE("Percentile") {
+        @Override
+        public double getValue(AnalysisRecord record, DataType type, String fieldName) {
+            return record.getPercentile(type, fieldName, percentile);
+        }
+
+        @Override
+        public double getPercentile() {
+            return percentile;
+        }
+
+        @Override
+        public String toString() {
+            // round so the name does not show floating point error
+            double value = Math.round(percentile * 100000) / 1000.0d;
+
+            if (value == Math.rint(value)) {
+                return (int) value + "th Percentile";
+            }
+            else {
+                return value + "th Percentile";
+            }
+        }
     },
     SUM("Sum") {
         @Override
@@ -91,18 +155,41 @@ public enum Statistic {
         }
     };
 
+    // used by PERCENTILE
+    private static volatile double percentile = .9;
+
     private final String name;
 
     private Statistic(String name) {
         this.name = name;
     }
 
+    /**
+     * Set the percentile calculated by {@link #PERCENTILE}. This applies to every {@link AnalysisRecord}.
+     * 
+     * @param percentile between 0 and 1, inclusive
+     */
+    public static void setPercentile(double percentile) {
+        if ((percentile < 0) || (percentile > 1)) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+
+        Statistic.percentile = percentile;
+    }
+
     public String toString() {
         return name;
     };
 
     public abstract double getValue(AnalysisRecord record, DataType type, String fieldName);
 
+    /**
+     * @return the percentile, between 0 and 1, this statistic calculates or <code>NaN</code> if it is not a percentile
+     */
+    public double getPercentile() {
+        return Double.NaN;
+    }
+
     /**
      * Gets the statistic name.
      * 
@@ -111,6 +198,6 @@ public enum Statistic {
      * @return the name
      */
     public String getName(int granularity) {
-        return name;
+        return toString();
     }
 }
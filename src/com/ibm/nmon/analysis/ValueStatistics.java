@@ -0,0 +1,260 @@
+package com.ibm.nmon.analysis;
+
+/**
+ * <p>
+ * Summary statistics for a set of primitive values. All statistics other than percentiles are calculated in a single
+ * pass, using Welford's algorithm for the variance. Percentiles are found by quickselect rather than by sorting all the
+ * values.
+ * </p>
+ *
+ * <p>
+ * If there are no values, the count and sum are zero and all other statistics are <code>NaN</code>.
+ * </p>
+ */
+public final class ValueStatistics {
+    public static final double[] DEFAULT_PERCENTILES = { .5, .95, .99 };
+
+    private int count = 0;
+    private double sum = 0;
+
+    private double average = Double.NaN;
+    private double weightedAverage = Double.NaN;
+
+    private double minimum = Double.NaN;
+    private double maximum = Double.NaN;
+
+    private double standardDeviation = Double.NaN;
+
+    private final double[] percentiles;
+    private final double[] percentileValues;
+
+    private ValueStatistics(double[] percentiles) {
+        this.percentiles = percentiles;
+        this.percentileValues = new double[percentiles.length];
+
+        java.util.Arrays.fill(percentileValues, Double.NaN);
+    }
+
+    /**
+     * Calculate statistics, including the {@link #DEFAULT_PERCENTILES default percentiles}, for the first
+     * <code>count</code> values in the array.
+     *
+     * @see #calculate(double[], int, double[])
+     */
+    public static ValueStatistics calculate(double[] values, int count) {
+        return calculate(values, count, DEFAULT_PERCENTILES);
+    }
+
+    /**
+     * Calculate statistics for the first <code>count</code> values in the array. The values must not contain
+     * <code>NaN</code>. The values will be reordered when calculating percentiles.
+     *
+     * @param percentiles the percentiles to calculate, between 0 and 1, inclusive
+     */
+    public static ValueStatistics calculate(double[] values, int count, double[] percentiles) {
+        if ((count < 0) || (count > values.length)) {
+            throw new IllegalArgumentException("count must be between 0 and " + values.length);
+        }
+
+        for (double percentile : percentiles) {
+            if ((percentile < 0) || (percentile > 1)) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1");
+            }
+        }
+
+        ValueStatistics statistics = new ValueStatistics(percentiles.clone());
+
+        if (count == 0) {
+            return statistics;
+        }
+
+        double sum = 0;
+        double sumSqs = 0;
+
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+
+        double mean = 0;
+        double sumSqDiffs = 0;
+
+        for (int i = 0; i < count; i++) {
+            double value = values[i];
+
+            sum += value;
+            sumSqs += value * value;
+
+            if (value < minimum) {
+                minimum = value;
+            }
+
+            if (value > maximum) {
+                maximum = value;
+            }
+
+            double delta = value - mean;
+            mean += delta / (i + 1);
+            sumSqDiffs += delta * (value - mean);
+        }
+
+        statistics.count = count;
+        statistics.sum = sum;
+        statistics.average = sum / count;
+        statistics.weightedAverage = sumSqs / sum;
+        statistics.minimum = minimum;
+        statistics.maximum = maximum;
+        statistics.standardDeviation = Math.sqrt(sumSqDiffs / count);
+
+        for (int i = 0; i < percentiles.length; i++) {
+            statistics.percentileValues[i] = calculatePercentile(percentiles[i], values, count);
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Calculate a percentile from the first <code>count</code> values in the array without sorting them. If the
+     * percentile falls exactly between two values, their average is returned. The values will be reordered.
+     *
+     * @param percentile between 0 and 1, inclusive
+     * @return the percentile or <code>NaN</code> if <code>count</code> is 0
+     */
+    public static double calculatePercentile(double percentile, double[] values, int count) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        double n = count * percentile;
+        int idx = (int) n;
+
+        if (idx >= count) {
+            return select(values, 0, count, count - 1);
+        }
+
+        double value = select(values, 0, count, idx);
+
+        if (((n - idx) == 0) && (idx > 0)) {
+            // values before idx are all less than or equal to the selected value; the next smallest is their maximum
+            double previous = values[0];
+
+            for (int i = 1; i < idx; i++) {
+                if (values[i] > previous) {
+                    previous = values[i];
+                }
+            }
+
+            return (value + previous) / 2;
+        }
+        else {
+            return value;
+        }
+    }
+
+    // Hoare's quickselect; on return, values[k] is the value that would be there if the range was sorted, with smaller
+    // values before it and larger values after it
+    private static double select(double[] values, int from, int to, int k) {
+        int left = from;
+        int right = to - 1;
+
+        while (right > left) {
+            // median of three pivot to avoid worst case behavior on sorted data
+            int mid = (left + right) >>> 1;
+
+            if (values[mid] < values[left]) {
+                swap(values, left, mid);
+            }
+
+            if (values[right] < values[left]) {
+                swap(values, left, right);
+            }
+
+            if (values[right] < values[mid]) {
+                swap(values, mid, right);
+            }
+
+            double pivot = values[mid];
+
+            int i = left;
+            int j = right;
+
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    ++i;
+                }
+
+                while (values[j] > pivot) {
+                    --j;
+                }
+
+                if (i <= j) {
+                    swap(values, i++, j--);
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            }
+            else if (k >= i) {
+                left = i;
+            }
+            else {
+                // between j and i, all values equal the pivot
+                break;
+            }
+        }
+
+        return values[k];
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double temp = values[i];
+        values[i] = values[j];
+        values[j] = temp;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getAverage() {
+        return average;
+    }
+
+    /**
+     * @return the average with each value weighted by itself, i.e. the sum of squares divided by the sum
+     */
+    public double getWeightedAverage() {
+        return weightedAverage;
+    }
+
+    public double getMinimum() {
+        return minimum;
+    }
+
+    public double getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @return the population standard deviation
+     */
+    public double getStandardDeviation() {
+        return standardDeviation;
+    }
+
+    /**
+     * @param percentile one of the percentiles given when these statistics were calculated
+     */
+    public double getPercentile(double percentile) {
+        for (int i = 0; i < percentiles.length; i++) {
+            if (percentiles[i] == percentile) {
+                return percentileValues[i];
+            }
+        }
+
+        throw new IllegalArgumentException("percentile " + percentile + " was not calculated");
+    }
+}
@@ -1,29 +1,223 @@
 package com.ibm.nmon.data;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
 import java.util.Map;
 
 /**
- * Simple cache for double arrays. Currently only caches arrays that are all zero for a minor memory
- * savings (~1MB over 20 test NMON files).
+ * <p>
+ * Content addressed cache for double arrays. Arrays with identical contents are shared, so data that repeats for long
+ * periods, like idle disks, quiet network interfaces or sleeping processes, is only stored once no matter which
+ * DataType it belongs to.
+ * </p>
+ *
+ * <p>
+ * {@link DataColumn DataColumns} pool each block of values once it is complete and copy the block again before any
+ * later update, so pooled arrays are never modified. Arrays are weakly referenced; the pool does not keep data alive
+ * after the DataSet holding it is discarded.
+ * </p>
  */
-final class ArrayPool {
-    private static final Map<Integer, double[]> POOL = new java.util.HashMap<Integer, double[]>();
+public final class ArrayPool {
+    // arrays are pooled on many parser threads at once, so the pool is split into independently locked stripes
+    private static final Stripe[] STRIPES = new Stripe[64];
 
+    static {
+        for (int i = 0; i < STRIPES.length; i++) {
+            STRIPES[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return an existing array with the same contents or <code>toPool</code> if there is none
+     */
     static double[] getArray(double[] toPool) {
-        // only pool arrays that are all 0
-        for (int i = 0; i < toPool.length; i++) {
-            if (toPool[i] != 0) {
-                return toPool;
+        int hash = hash(toPool);
+        Stripe stripe = STRIPES[(hash ^ (hash >>> 16)) & (STRIPES.length - 1)];
+
+        synchronized (stripe) {
+            stripe.purge();
+
+            Entry existing = stripe.pool.get(new Lookup(toPool, hash));
+
+            if (existing != null) {
+                double[] pooled = existing.get();
+
+                if (pooled != null) {
+                    ++stripe.hits;
+                    stripe.bytesSaved += pooled.length * 8L;
+
+                    return pooled;
+                }
+            }
+
+            // only create the weak reference when the array is actually added
+            Entry entry = new Entry(toPool, hash, stripe.cleared);
+            stripe.pool.put(entry, entry);
+            ++stripe.misses;
+
+            return toPool;
+        }
+    }
+
+    /**
+     * @return the number of arrays that were replaced by an existing array
+     */
+    public static long getHits() {
+        long hits = 0;
+
+        for (Stripe stripe : STRIPES) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+
+        return hits;
+    }
+
+    /**
+     * @return the number of arrays that were added to the pool
+     */
+    public static long getMisses() {
+        long misses = 0;
+
+        for (Stripe stripe : STRIPES) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+
+        return misses;
+    }
+
+    /**
+     * @return the total size of all the arrays that were replaced by an existing array
+     */
+    public static long getBytesSaved() {
+        long bytesSaved = 0;
+
+        for (Stripe stripe : STRIPES) {
+            synchronized (stripe) {
+                bytesSaved += stripe.bytesSaved;
             }
         }
 
-        double[] pooled = POOL.get(toPool.length);
+        return bytesSaved;
+    }
+
+    public static int getSize() {
+        int size = 0;
+
+        for (Stripe stripe : STRIPES) {
+            synchronized (stripe) {
+                stripe.purge();
+                size += stripe.pool.size();
+            }
+        }
+
+        return size;
+    }
+
+    // Arrays.hashCode() collides badly for whole numbers since it ignores most of their bits, which turns the pool's
+    // buckets into trees; mix every bit of each value instead
+    // uses the same bits as Arrays.equals() so equal arrays have equal hashes
+    private static int hash(double[] array) {
+        long hash = array.length;
 
-        if (pooled == null) {
-            // assume new arrays default to 0 filled
-            pooled = new double[toPool.length];
+        for (int i = 0; i < array.length; i++) {
+            hash = (hash ^ Double.doubleToLongBits(array[i])) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 32;
         }
 
-        return pooled;
+        return (int) hash;
     }
+
+    private static final class Stripe {
+        // keys are Entry objects; lookups use a Lookup which equals the Entry for the same contents
+        private final Map<Object, Entry> pool = new java.util.HashMap<Object, Entry>();
+        private final ReferenceQueue<double[]> cleared = new ReferenceQueue<double[]>();
+
+        private long hits = 0;
+        private long misses = 0;
+        private long bytesSaved = 0;
+
+        // remove entries for arrays that have been garbage collected
+        private void purge() {
+            Object entry = null;
+
+            while ((entry = cleared.poll()) != null) {
+                pool.remove(entry);
+            }
+        }
+    }
+
+    // strongly references the array being looked up so a miss does not need a WeakReference
+    private static final class Lookup {
+        private final double[] array;
+        private final int hash;
+
+        Lookup(double[] array, int hash) {
+            this.array = array;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Entry) {
+                Entry entry = (Entry) obj;
+
+                return (entry.hash == hash) && java.util.Arrays.equals(array, entry.get());
+            }
+            else {
+                return false;
+            }
+        }
+    }
+
+    private static final class Entry extends WeakReference<double[]> {
+        private final int hash;
+
+        Entry(double[] array, int hash, ReferenceQueue<double[]> cleared) {
+            super(array, cleared);
+
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            else if (obj instanceof Entry) {
+                Entry entry = (Entry) obj;
+
+                if (entry.hash != hash) {
+                    return false;
+                }
+
+                double[] array = get();
+
+                // cleared entries are only equal to themselves
+                return (array != null) && java.util.Arrays.equals(array, entry.get());
+            }
+            else if (obj instanceof Lookup) {
+                return obj.equals(this);
+            }
+            else {
+                return false;
+            }
+        }
+    }
+
+    private ArrayPool() {}
 }
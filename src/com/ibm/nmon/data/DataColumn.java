@@ -0,0 +1,553 @@
+package com.ibm.nmon.data;
+
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * <p>
+ * Storage for all the values of a single DataType within a {@link DataSet}. Rows are indexes into the data set's
+ * time axis.
+ * </p>
+ *
+ * <p>
+ * A column only spans the rows between the first and last time its DataType has data, so short lived processes do
+ * not pay for the whole file. Values are held in blocks of {@link #BLOCK_SIZE} rows. Each block is a single primitive
+ * array laid out field major, so scanning one field over time reads contiguous memory. Rows without data are tracked
+ * with one bitmask per block.
+ * </p>
+ *
+ * <p>
+ * If a {@link ScratchFile} is given, each block is moved into the file as soon as it is full. Only the last, partially
+ * filled block stays on the heap. Otherwise, each block is added to the {@link ArrayPool} once the column has moved
+ * past it, so identical blocks are only stored once. Pooled blocks are copied before they are changed.
+ * </p>
+ */
+final class DataColumn {
+    static final int BLOCK_SHIFT = 6;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    // row capacity of a column's first block; grown by doubling up to BLOCK_SIZE
+    private static final int INITIAL_CAPACITY = 4;
+
+    private DataType type;
+    private final int fieldCount;
+
+    // null => all blocks on the heap
+    private final ScratchFile scratch;
+
+    // first data set row covered by this column; -1 if there is no data
+    private int firstRow = -1;
+    private int rowCount = 0;
+
+    // values, relative to firstRow; block layout is field * capacity + row
+    // a block is either on the heap or mapped, never both
+    private double[][] blocks = new double[1][];
+    private DoubleBuffer[] mapped;
+    // true if the block came from ArrayPool and may be shared
+    private boolean[] pooled = new boolean[1];
+    // one bit per row, one long per block
+    private long[] present = new long[1];
+
+    DataColumn(DataType type, ScratchFile scratch) {
+        this.type = type;
+        this.fieldCount = type.getFieldCount();
+        this.scratch = scratch;
+
+        if (scratch != null) {
+            mapped = new DoubleBuffer[1];
+        }
+    }
+
+    DataType getType() {
+        return type;
+    }
+
+    // used when a DataType is replaced by an equivalent type with the same fields
+    void setType(DataType type) {
+        if (type.getFieldCount() != fieldCount) {
+            throw new IllegalArgumentException("DataType " + type.getId() + " defines " + type.getFieldCount()
+                    + " fields but this column holds " + fieldCount);
+        }
+
+        this.type = type;
+    }
+
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return the first row with data or -1 if this column is empty
+     */
+    int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * @return one past the last row with data
+     */
+    int getEndRow() {
+        return firstRow < 0 ? 0 : firstRow + rowCount;
+    }
+
+    boolean hasData(int row) {
+        int rel = row - firstRow;
+
+        if ((firstRow < 0) || (rel < 0) || (rel >= rowCount)) {
+            return false;
+        }
+        else {
+            return (present[rel >>> BLOCK_SHIFT] & (1L << rel)) != 0;
+        }
+    }
+
+    /**
+     * Get a single value. The caller must ensure the row {@link #hasData(int) has data}.
+     */
+    double get(int row, int field) {
+        return getRaw(row - firstRow, field);
+    }
+
+    /**
+     * Copy all the values for a row into the given array. The caller must ensure the row {@link #hasData(int) has
+     * data}.
+     */
+    void copyRow(int row, double[] destination) {
+        int rel = row - firstRow;
+        double[] block = blocks[rel >>> BLOCK_SHIFT];
+        int offset = rel & BLOCK_MASK;
+
+        if (block == null) {
+            DoubleBuffer buffer = mapped[rel >>> BLOCK_SHIFT];
+
+            for (int i = 0; i < fieldCount; i++) {
+                destination[i] = buffer.get(i * BLOCK_SIZE + offset);
+            }
+        }
+        else {
+            int capacity = block.length / fieldCount;
+
+            for (int i = 0; i < fieldCount; i++) {
+                destination[i] = block[i * capacity + offset];
+            }
+        }
+    }
+
+    /**
+     * Copy the values of a single field for <code>count</code> rows, starting at <code>row</code>, into the given
+     * array. Rows without data are set to <code>NaN</code>.
+     */
+    void copyField(int field, int row, int count, double[] destination) {
+        copyFields(new int[] { field }, row, count, new double[][] { destination });
+    }
+
+    /**
+     * Copy the values of multiple fields in a single pass over the column. <code>destinations[i]</code> receives the
+     * values for <code>fields[i]</code>.
+     * 
+     * @see #copyField(int, int, int, double[])
+     */
+    void copyFields(int[] fields, int row, int count, double[][] destinations) {
+        int from = row;
+        int to = row + count;
+
+        if (firstRow >= 0) {
+            from = Math.min(Math.max(row, firstRow), to);
+            to = Math.max(Math.min(to, firstRow + rowCount), from);
+        }
+        else {
+            to = from;
+        }
+
+        // rows outside of this column
+        for (int f = 0; f < fields.length; f++) {
+            java.util.Arrays.fill(destinations[f], 0, from - row, Double.NaN);
+            java.util.Arrays.fill(destinations[f], to - row, count, Double.NaN);
+        }
+
+        int rel = from - firstRow;
+        int endRel = to - firstRow;
+
+        while (rel < endRel) {
+            int index = rel >>> BLOCK_SHIFT;
+            int offset = rel & BLOCK_MASK;
+            int length = Math.min(BLOCK_SIZE - offset, endRel - rel);
+            int destinationOffset = rel + firstRow - row;
+
+            double[] block = blocks[index];
+            long bits = present[index];
+
+            for (int f = 0; f < fields.length; f++) {
+                int field = fields[f];
+                double[] destination = destinations[f];
+
+                // field values are contiguous within a block
+                if (block == null) {
+                    DoubleBuffer buffer = mapped[index].duplicate();
+                    ((Buffer) buffer).position(field * BLOCK_SIZE + offset);
+                    buffer.get(destination, destinationOffset, length);
+                }
+                else {
+                    System.arraycopy(block, field * (block.length / fieldCount) + offset, destination,
+                            destinationOffset, length);
+                }
+
+                if (bits != -1L) {
+                    for (int i = 0; i < length; i++) {
+                        if ((bits & (1L << (offset + i))) == 0) {
+                            destination[destinationOffset + i] = Double.NaN;
+                        }
+                    }
+                }
+            }
+
+            rel += length;
+        }
+    }
+
+    double[] getRow(int row) {
+        double[] toReturn = new double[fieldCount];
+        copyRow(row, toReturn);
+        return toReturn;
+    }
+
+    /**
+     * Set all the values for a row. Only the first <code>getFieldCount()</code> values are used.
+     */
+    void put(int row, double[] values) {
+        int rel = ensureRow(row);
+        double[] block = getWritableBlock(rel >>> BLOCK_SHIFT);
+        int offset = rel & BLOCK_MASK;
+
+        if (block == null) {
+            DoubleBuffer buffer = mapped[rel >>> BLOCK_SHIFT];
+
+            for (int i = 0; i < fieldCount; i++) {
+                buffer.put(i * BLOCK_SIZE + offset, values[i]);
+            }
+        }
+        else {
+            int capacity = block.length / fieldCount;
+
+            for (int i = 0; i < fieldCount; i++) {
+                block[i * capacity + offset] = values[i];
+            }
+        }
+
+        present[rel >>> BLOCK_SHIFT] |= 1L << rel;
+    }
+
+    /**
+     * Set a single value. If the row does not have any data, all the other fields will be <code>NaN</code>.
+     */
+    void set(int row, int field, double value) {
+        int rel = ensureRow(row);
+        long mask = 1L << rel;
+
+        if ((present[rel >>> BLOCK_SHIFT] & mask) == 0) {
+            for (int i = 0; i < fieldCount; i++) {
+                setRaw(rel, i, Double.NaN);
+            }
+
+            present[rel >>> BLOCK_SHIFT] |= mask;
+        }
+
+        setRaw(rel, field, value);
+    }
+
+    boolean remove(int row) {
+        if (hasData(row)) {
+            int rel = row - firstRow;
+            present[rel >>> BLOCK_SHIFT] &= ~(1L << rel);
+
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+
+    /**
+     * Called when a new row is inserted into the data set's time axis, before the existing row at the same index.
+     */
+    void insertRow(int row) {
+        if (firstRow < 0) {
+            return;
+        }
+
+        if (row <= firstRow) {
+            ++firstRow;
+        }
+        else if (row < (firstRow + rowCount)) {
+            shift(row - firstRow, 1);
+        }
+        // else after the last row; nothing to move
+    }
+
+    /**
+     * Move every row to a new index. Used when the data set's time axis is rebuilt. The mapping must preserve the
+     * existing order.
+     */
+    void remap(int[] oldToNew) {
+        if (firstRow < 0) {
+            return;
+        }
+
+        int newFirst = oldToNew[firstRow];
+        int newCount = oldToNew[firstRow + rowCount - 1] - newFirst + 1;
+
+        if ((newFirst == firstRow) && (newCount == rowCount)) {
+            return;
+        }
+
+        DataColumn remapped = new DataColumn(type, scratch);
+        double[] buffer = new double[fieldCount];
+
+        remapped.firstRow = newFirst;
+        remapped.ensureCapacity(newCount);
+        remapped.rowCount = newCount;
+
+        for (int row = firstRow; row < firstRow + rowCount; row++) {
+            if (hasData(row)) {
+                copyRow(row, buffer);
+                remapped.put(oldToNew[row], buffer);
+            }
+        }
+
+        if (scratch != null) {
+            for (DoubleBuffer block : mapped) {
+                if (block != null) {
+                    scratch.release(block);
+                }
+            }
+        }
+
+        this.firstRow = remapped.firstRow;
+        this.rowCount = remapped.rowCount;
+        this.blocks = remapped.blocks;
+        this.pooled = remapped.pooled;
+        this.mapped = remapped.mapped;
+        this.present = remapped.present;
+    }
+
+    /**
+     * Release any unused capacity at the end of the column. The column can still grow afterwards.
+     */
+    void trimToSize() {
+        if (firstRow < 0) {
+            return;
+        }
+
+        int blockCount = ((rowCount - 1) >>> BLOCK_SHIFT) + 1;
+
+        if (blocks.length > blockCount) {
+            blocks = java.util.Arrays.copyOf(blocks, blockCount);
+            pooled = java.util.Arrays.copyOf(pooled, blockCount);
+            present = java.util.Arrays.copyOf(present, blockCount);
+
+            if (scratch != null) {
+                mapped = java.util.Arrays.copyOf(mapped, blockCount);
+            }
+        }
+
+        int last = blockCount - 1;
+        double[] block = blocks[last];
+
+        if (block != null) {
+            int needed = rowCount - (last << BLOCK_SHIFT);
+
+            // full blocks, including pooled ones, are never resized
+            if ((block.length / fieldCount) > needed) {
+                blocks[last] = resize(block, needed);
+            }
+        }
+    }
+
+    /**
+     * Make sure storage exists for the given row, extending the column as needed.
+     *
+     * @return the row relative to the start of the column
+     */
+    private int ensureRow(int row) {
+        if (firstRow < 0) {
+            firstRow = row;
+            rowCount = 1;
+
+            blocks[0] = new double[fieldCount * INITIAL_CAPACITY];
+
+            return 0;
+        }
+        else if (row < firstRow) {
+            int by = firstRow - row;
+
+            shift(0, by);
+            firstRow = row;
+
+            return 0;
+        }
+        else {
+            int rel = row - firstRow;
+
+            if (rel >= rowCount) {
+                int lastBlock = (rowCount - 1) >>> BLOCK_SHIFT;
+
+                ensureCapacity(rel + 1);
+                rowCount = rel + 1;
+
+                if (scratch == null) {
+                    // blocks before the new last block are complete
+                    for (int i = lastBlock; i < (rel >>> BLOCK_SHIFT); i++) {
+                        if (!pooled[i]) {
+                            blocks[i] = ArrayPool.getArray(blocks[i]);
+                            pooled[i] = true;
+                        }
+                    }
+                }
+            }
+
+            return rel;
+        }
+    }
+
+    // rowCount must still be the current count when this is called
+    private void ensureCapacity(int rows) {
+        int blockCount = ((rows - 1) >>> BLOCK_SHIFT) + 1;
+
+        if (blockCount > blocks.length) {
+            int newLength = Math.max(blockCount, blocks.length + (blocks.length >> 1) + 1);
+
+            blocks = java.util.Arrays.copyOf(blocks, newLength);
+            pooled = java.util.Arrays.copyOf(pooled, newLength);
+            present = java.util.Arrays.copyOf(present, newLength);
+
+            if (scratch != null) {
+                mapped = java.util.Arrays.copyOf(mapped, newLength);
+            }
+        }
+
+        // all blocks but the last are always full size
+        // only blocks past the current last block can need changes
+        int currentLast = (rowCount == 0) ? 0 : ((rowCount - 1) >>> BLOCK_SHIFT);
+
+        for (int i = currentLast; i < blockCount - 1; i++) {
+            if ((blocks[i] != null) && (blocks[i].length != fieldCount * BLOCK_SIZE)) {
+                blocks[i] = resize(blocks[i], BLOCK_SIZE);
+            }
+
+            if (scratch == null) {
+                if (blocks[i] == null) {
+                    blocks[i] = new double[fieldCount * BLOCK_SIZE];
+                }
+            }
+            else if (mapped[i] == null) {
+                // block is full; move it off the heap
+                mapped[i] = scratch.allocate(fieldCount * BLOCK_SIZE);
+
+                if (blocks[i] != null) {
+                    mapped[i].duplicate().put(blocks[i]);
+                    blocks[i] = null;
+                }
+            }
+        }
+
+        int last = blockCount - 1;
+        int needed = rows - (last << BLOCK_SHIFT);
+
+        if ((scratch != null) && (mapped[last] != null)) {
+            // already full size
+            return;
+        }
+
+        if (blocks[last] == null) {
+            // only the first block starts small; a column that reaches a second block is likely to fill it
+            blocks[last] = new double[fieldCount * ((last == 0) ? Math.max(needed, INITIAL_CAPACITY) : BLOCK_SIZE)];
+        }
+        else {
+            int capacity = blocks[last].length / fieldCount;
+
+            if (capacity < needed) {
+                blocks[last] = resize(blocks[last], Math.min(BLOCK_SIZE, Math.max(needed, capacity * 2)));
+            }
+        }
+    }
+
+    private double[] resize(double[] block, int newCapacity) {
+        int capacity = block.length / fieldCount;
+        double[] resized = new double[fieldCount * newCapacity];
+        int toCopy = Math.min(capacity, newCapacity);
+
+        for (int i = 0; i < fieldCount; i++) {
+            System.arraycopy(block, i * capacity, resized, i * newCapacity, toCopy);
+        }
+
+        return resized;
+    }
+
+    // move rows starting at the given relative row down by the given amount, leaving empty rows in the gap
+    private void shift(int fromRel, int by) {
+        int oldCount = rowCount;
+
+        ensureCapacity(oldCount + by);
+        rowCount = oldCount + by;
+
+        for (int rel = oldCount - 1; rel >= fromRel; rel--) {
+            int to = rel + by;
+
+            if (isSet(rel)) {
+                for (int i = 0; i < fieldCount; i++) {
+                    setRaw(to, i, getRaw(rel, i));
+                }
+
+                present[to >>> BLOCK_SHIFT] |= 1L << to;
+            }
+            else {
+                present[to >>> BLOCK_SHIFT] &= ~(1L << to);
+            }
+        }
+
+        for (int rel = fromRel; rel < fromRel + by; rel++) {
+            present[rel >>> BLOCK_SHIFT] &= ~(1L << rel);
+        }
+    }
+
+    // pooled blocks may be shared so copy them before any changes
+    private double[] getWritableBlock(int index) {
+        double[] block = blocks[index];
+
+        if ((block != null) && pooled[index]) {
+            block = block.clone();
+
+            blocks[index] = block;
+            pooled[index] = false;
+        }
+
+        return block;
+    }
+
+    private boolean isSet(int rel) {
+        return (present[rel >>> BLOCK_SHIFT] & (1L << rel)) != 0;
+    }
+
+    private double getRaw(int rel, int field) {
+        double[] block = blocks[rel >>> BLOCK_SHIFT];
+
+        if (block == null) {
+            return mapped[rel >>> BLOCK_SHIFT].get(field * BLOCK_SIZE + (rel & BLOCK_MASK));
+        }
+        else {
+            return block[field * (block.length / fieldCount) + (rel & BLOCK_MASK)];
+        }
+    }
+
+    private void setRaw(int rel, int field, double value) {
+        double[] block = getWritableBlock(rel >>> BLOCK_SHIFT);
+
+        if (block == null) {
+            mapped[rel >>> BLOCK_SHIFT].put(field * BLOCK_SIZE + (rel & BLOCK_MASK), value);
+        }
+        else {
+            block[field * (block.length / fieldCount) + (rel & BLOCK_MASK)] = value;
+        }
+    }
+}
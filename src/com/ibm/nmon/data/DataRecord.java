@@ -3,16 +3,31 @@ package com.ibm.nmon.data;
 import java.util.Map;
 
 /**
- * Holder for data from a specific time, identified by either a timestamp (TXXXX) or the
- * corresponding time in milliseconds. DataRecords can hold any amount of data as long as that data
- * is all from the same time.
+ * <p>
+ * Holder for data from a specific time, identified by either a timestamp (TXXXX) or the corresponding time in
+ * milliseconds. DataRecords can hold any amount of data as long as that data is all from the same time.
+ * </p>
+ *
+ * <p>
+ * Parsers build new records and then {@link DataSet#addRecord(DataRecord) add} them to a DataSet. At that point the
+ * values are moved into the DataSet's column storage and the record becomes a view of a single row in the DataSet.
+ * Records returned by a DataSet are always views. Updates to a view are written directly to the DataSet.
+ * </p>
  */
 public final class DataRecord implements Comparable<DataRecord> {
     private long time;
     private final String timestamp;
 
     // associate the DataType with the set of values for this record's timestamp
-    private final Map<DataType, double[]> values = new java.util.HashMap<DataType, double[]>();
+    // only used until the record is added to a DataSet
+    private Map<DataType, double[]> values = new java.util.HashMap<DataType, double[]>();
+
+    // the DataSet holding this record's values and the row for this record's time
+    private DataSet owner;
+    private int row;
+    // owner state when row was last looked up
+    private int ownerModCount;
+    private long ownerTimeAdjustment;
 
     public DataRecord(long time, String timestamp) {
         this.time = time;
@@ -24,38 +39,93 @@ public final class DataRecord implements Comparable<DataRecord> {
         this.timestamp = timestamp;
     }
 
+    // view of an existing row
+    DataRecord(DataSet owner, int row) {
+        this.time = owner.getTime(row);
+        this.timestamp = owner.getTimestamp(row);
+        this.values = null;
+
+        this.owner = owner;
+        this.row = row;
+        this.ownerModCount = owner.getModCount();
+        this.ownerTimeAdjustment = owner.getTimeAdjustment();
+    }
+
     public long getTime() {
-        return time;
+        if (owner == null) {
+            return time;
+        }
+        else {
+            return owner.getTime(getRow());
+        }
     }
 
     public String getTimestamp() {
         return timestamp;
     }
 
-    // only called by DataSet.adjustTimes
+    // only called by DataSet.addRecord
+    final boolean isOwnedBy(DataSet data) {
+        return owner == data;
+    }
 
-    final void adjustTime(long adjustmentMillis) {
-        if (adjustmentMillis == 0) {
-            return;
+    // only called by DataSet.addRecord
+    final void attach(DataSet newOwner, int newRow) {
+        if (owner == null) {
+            for (Map.Entry<DataType, double[]> entry : values.entrySet()) {
+                newOwner.getOrCreateColumn(entry.getKey()).put(newRow, entry.getValue());
+            }
+
+            values = null;
         }
         else {
-            time += adjustmentMillis;
+            // record from another DataSet; copy its data
+            int oldRow = getRow();
+
+            for (DataColumn column : owner.getColumns()) {
+                if (column.hasData(oldRow)) {
+                    newOwner.getOrCreateColumn(column.getType()).put(newRow, column.getRow(oldRow));
+                }
+            }
         }
+
+        this.time = newOwner.getTime(newRow);
+        this.owner = newOwner;
+        this.row = newRow;
+        this.ownerModCount = newOwner.getModCount();
+        this.ownerTimeAdjustment = newOwner.getTimeAdjustment();
+    }
+
+    // find this record's row again if rows have moved since it was last looked up
+    private int getRow() {
+        if (ownerModCount != owner.getModCount()) {
+            long adjusted = time + (owner.getTimeAdjustment() - ownerTimeAdjustment);
+            int newRow = owner.findRow(adjusted);
+
+            if (newRow < 0) {
+                throw new IllegalStateException("DataSet " + owner + " no longer contains data for timestamp "
+                        + timestamp);
+            }
+
+            time = adjusted;
+            row = newRow;
+            ownerModCount = owner.getModCount();
+            ownerTimeAdjustment = owner.getTimeAdjustment();
+        }
+
+        return row;
     }
 
-    /*
-     * Potential future bug here since setValue creates an array full of NaNs but addData uses
-     * ArrayPool (all zeros). The existing parsers use one or the other, and do not mix calls in the
-     * same parse.
-     * 
-     * More importantly, these functions DO NOT make any provisions for updates; DataRecords are
-     * assumed read only after parsing. If that is not the case, code needs to be added to create a
-     * new array so that _all_ the references to ArrayPool arrays are not changed.
-     */
     public void setValue(DataType type, String field, double value) {
         // check if type has field first
         int idx = type.getFieldIndex(field);
 
+        if (owner != null) {
+            DataColumn column = owner.getOrCreateColumn(type);
+            column.set(getRow(), column.getType().getFieldIndex(field), value);
+            return;
+        }
+
         double[] data = values.get(type);
 
         if (data == null) {
@@ -70,7 +140,7 @@ public final class DataRecord implements Comparable<DataRecord> {
     }
 
     public void addData(DataType type, double[] data) {
-        if (values.containsKey(type)) {
+        if (hasData(type)) {
             throw new IllegalArgumentException("DataType " + type.getId() + " already defined for timestamp "
                     + timestamp);
         }
@@ -80,53 +150,129 @@ public final class DataRecord implements Comparable<DataRecord> {
                         + " fields but there are only " + data.length + " values recorded for timestamp " + timestamp);
             }
 
-            values.put(type, ArrayPool.getArray(data));
+            if (owner == null) {
+                values.put(type, data);
+            }
+            else {
+                owner.getOrCreateColumn(type).put(getRow(), data);
+            }
         }
     }
 
     public boolean removeData(DataType type) {
-        return values.remove(type) != null;
+        if (owner == null) {
+            return values.remove(type) != null;
+        }
+        else {
+            DataColumn column = owner.getColumn(type);
+
+            return (column != null) && column.remove(getRow());
+        }
     }
 
     public double getData(DataType type, String fieldName) {
-        double[] data = values.get(type);
+        if (owner == null) {
+            double[] data = values.get(type);
 
-        if (data == null) {
-            throw new IllegalArgumentException("record does not contain any data for DataType " + type.getId());
+            if (data == null) {
+                throw new IllegalArgumentException("record does not contain any data for DataType " + type.getId());
+            }
+
+            int fieldIndex = type.getFieldIndex(fieldName);
+
+            // allow ArrayIndexOutOfBoundsException here because that implies the DataType has
+            // changed, which should not happen
+            return data[fieldIndex];
         }
+        else {
+            DataColumn column = owner.getColumn(type);
+            int row = getRow();
 
-        int fieldIndex = type.getFieldIndex(fieldName);
+            if ((column == null) || !column.hasData(row)) {
+                throw new IllegalArgumentException("record does not contain any data for DataType " + type.getId());
+            }
 
-        // allow ArrayIndexOutOfBoundsException here because that implies the DataType has
-        // changed, which should not happen
-        return data[fieldIndex];
+            return column.get(row, column.getType().getFieldIndex(fieldName));
+        }
     }
 
     /**
-     * Return the raw data for the given DataType. This array <em>is not</em> copied, so care must
-     * be taken to not update or otherwise invalidate the data.
+     * Get a single value by field {@link DataType#getFieldIndex(String) index} rather than by name.
+     */
+    public double getData(DataType type, int fieldIndex) {
+        if (owner == null) {
+            double[] data = values.get(type);
+
+            if (data == null) {
+                throw new IllegalArgumentException("record does not contain any data for DataType " + type.getId());
+            }
+
+            return data[fieldIndex];
+        }
+        else {
+            return owner.getData(getRow(), type, fieldIndex);
+        }
+    }
+
+    /**
+     * Return the raw data for the given DataType. Once this record has been added to a DataSet, this is a copy of the
+     * stored values, so changes to the array will not update the data. Use
+     * {@link #setValue(DataType, String, double)} instead.
      */
     public double[] getData(DataType type) {
-        double[] data = values.get(type);
+        if (owner == null) {
+            double[] data = values.get(type);
 
-        if (data == null) {
-            throw new IllegalArgumentException("record does not contain any data for DataType " + type.getId());
+            if (data == null) {
+                throw new IllegalArgumentException("record does not contain any data for DataType " + type.getId());
+            }
+
+            return data;
         }
+        else {
+            DataColumn column = owner.getColumn(type);
+            int row = getRow();
+
+            if ((column == null) || !column.hasData(row)) {
+                throw new IllegalArgumentException("record does not contain any data for DataType " + type.getId());
+            }
 
-        return data;
+            return column.getRow(row);
+        }
     }
 
     public boolean hasData(DataType type) {
-        return values.containsKey(type);
+        if (owner == null) {
+            return values.containsKey(type);
+        }
+        else {
+            DataColumn column = owner.getColumn(type);
+
+            return (column != null) && column.hasData(getRow());
+        }
     }
 
     @Override
     public String toString() {
-        return "{timestamp=" + getTimestamp() + ", dataTypes=" + values.keySet() + '}';
+        if (owner == null) {
+            return "{timestamp=" + getTimestamp() + ", dataTypes=" + values.keySet() + '}';
+        }
+        else {
+            java.util.List<DataType> types = new java.util.ArrayList<DataType>();
+            int row = getRow();
+
+            for (DataColumn column : owner.getColumns()) {
+                if (column.hasData(row)) {
+                    types.add(column.getType());
+                }
+            }
+
+            return "{timestamp=" + getTimestamp() + ", dataTypes=" + types + '}';
+        }
     }
 
     @Override
     public final int compareTo(DataRecord r) {
-        return (int) (time - r.time);
+        return (int) (getTime() - r.getTime());
     }
 }
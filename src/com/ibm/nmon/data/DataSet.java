@@ -1,5 +1,6 @@
 package com.ibm.nmon.data;
 
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.Set;
 
@@ -51,12 +52,34 @@ import com.ibm.nmon.interval.Interval;
  *   ...
  *   time n
  * </pre>
+ * 
+ * <p>
+ * Internally, data is stored by column rather than by record. Times are held in a single sorted array and each
+ * DataType has a column holding primitive values for every time it has data. DataRecords returned by this
+ * class are lightweight views onto a single row of those columns.
+ * </p>
  */
 public abstract class DataSet implements Comparable<DataSet> {
+    private static final int INITIAL_ROWS = 64;
+
     private final TreeMap<String, DataType> dataTypes = new TreeMap<String, DataType>();
 
-    // associate data with each timestamp
-    private final TreeMap<Long, DataRecord> data = new TreeMap<Long, DataRecord>();
+    // sorted time axis shared by all the columns; a row is an index into these arrays
+    // stored times do not include timeAdjustment
+    private long[] times = new long[INITIAL_ROWS];
+    private String[] timestamps = new String[INITIAL_ROWS];
+    private int size = 0;
+
+    // associate each DataType with its data
+    private final Map<DataType, DataColumn> columns = new java.util.HashMap<DataType, DataColumn>();
+
+    // if not null, column data is stored in this file rather than on the heap
+    private ScratchFile scratch;
+
+    // incremented whenever existing rows move so DataRecords know to find their row again
+    private int modCount = 0;
+    // total of all adjustTimes() calls; added to the stored times when they are read
+    private long timeAdjustment = 0;
 
     public abstract String getHostname();
 
@@ -76,10 +99,54 @@ public abstract class DataSet implements Comparable<DataSet> {
         }
     }
 
-    // callers are responsible fore removing the type with any associated DataRecords
+    // removes the type along with any associated data
     final void removeType(DataType type) {
         if (type != null) {
             dataTypes.remove(type.getId());
+            columns.remove(type);
+        }
+    }
+
+    // swap a type for an equivalent type with the same fields, keeping the existing data
+    final void replaceType(DataType oldType, DataType newType) {
+        DataColumn column = columns.remove(oldType);
+
+        dataTypes.remove(oldType.getId());
+        addType(newType);
+
+        if (column != null) {
+            column.setType(newType);
+            columns.put(newType, column);
+        }
+    }
+
+    /**
+     * Replace a type with one that has the same id and the same fields, followed by additional fields. Existing data is
+     * kept; the additional fields are <code>NaN</code> for every existing record.
+     */
+    public final void widenType(DataType oldType, DataType newType) {
+        if (!oldType.getId().equals(newType.getId()) || (newType.getFieldCount() < oldType.getFieldCount())
+                || !newType.getFields().subList(0, oldType.getFieldCount()).equals(oldType.getFields())) {
+            throw new IllegalArgumentException("DataType " + newType + " does not start with the fields of " + oldType);
+        }
+
+        DataColumn column = columns.remove(oldType);
+
+        dataTypes.remove(oldType.getId());
+        addType(newType);
+
+        if (column != null) {
+            DataColumn widened = getOrCreateColumn(newType);
+            double[] values = new double[newType.getFieldCount()];
+
+            java.util.Arrays.fill(values, Double.NaN);
+
+            for (int row = column.getFirstRow(); row < column.getEndRow(); row++) {
+                if (column.hasData(row)) {
+                    column.copyRow(row, values);
+                    widened.put(row, values);
+                }
+            }
         }
     }
 
@@ -102,9 +169,32 @@ public abstract class DataSet implements Comparable<DataSet> {
         return dataTypes.size();
     }
 
+    /**
+     * Add a record to this data set. Any values in the record are moved into this data set's storage and the record
+     * becomes a view of the data at its time. A record with the same time as an existing record replaces that
+     * record's data.
+     */
     public final void addRecord(DataRecord record) {
         if (record != null) {
-            data.put(record.getTime(), record);
+            if (record.isOwnedBy(this)) {
+                return;
+            }
+
+            long time = record.getTime();
+            int row = findRow(time);
+
+            if (row < 0) {
+                row = insertRow(-(row + 1), time, record.getTimestamp());
+            }
+            else {
+                for (DataColumn column : columns.values()) {
+                    column.remove(row);
+                }
+
+                timestamps[row] = record.getTimestamp();
+            }
+
+            record.attach(this, row);
         }
     }
 
@@ -112,36 +202,209 @@ public abstract class DataSet implements Comparable<DataSet> {
      * @return the number of DataRecords in this data set.
      */
     public final int getRecordCount() {
-        return data.size();
+        return size;
     }
 
     public final int getRecordCount(Interval interval) {
-        if (Interval.DEFAULT.equals(interval)) {
-            return data.size();
-        }
-        else {
-            return data.subMap(interval.getStart(), true, interval.getEnd(), true).size();
-        }
+        return getEndIndex(interval) - getStartIndex(interval);
     }
 
     public final DataRecord getRecord(long time) {
-        return data.get(time);
+        int row = findRow(time);
+
+        return row < 0 ? null : new DataRecord(this, row);
     }
 
     /**
      * @return all the DataRecords in this data set, sorted by time, earliest first.
      */
     public final Iterable<DataRecord> getRecords() {
-        return java.util.Collections.unmodifiableCollection(data.values());
+        return new RecordList(0, size);
     }
 
     public final Iterable<DataRecord> getRecords(Interval interval) {
+        return new RecordList(getStartIndex(interval), getEndIndex(interval));
+    }
+
+    /**
+     * <p>
+     * Get the index of the first record in the given interval. Together with {@link #getEndIndex(Interval)}, this
+     * allows data to be read by index rather than by iterating over DataRecords:
+     * </p>
+     * 
+     * <pre>
+     * for (int i = data.getStartIndex(interval); i &lt; data.getEndIndex(interval); i++) {
+     *     if (data.hasData(i, type)) {
+     *         double value = data.getData(i, type, field);
+     *     }
+     * }
+     * </pre>
+     * 
+     * <p>
+     * Indexes are only valid until more records are added to this data set.
+     * </p>
+     */
+    public final int getStartIndex(Interval interval) {
         if (Interval.DEFAULT.equals(interval)) {
-            return java.util.Collections.unmodifiableCollection(data.values());
+            return 0;
         }
         else {
-            return java.util.Collections.unmodifiableCollection(data.subMap(interval.getStart(), true,
-                    interval.getEnd(), true).values());
+            return getStartRow(interval);
+        }
+    }
+
+    /**
+     * @return one past the index of the last record in the given interval
+     */
+    public final int getEndIndex(Interval interval) {
+        if (Interval.DEFAULT.equals(interval)) {
+            return size;
+        }
+        else {
+            return getEndRow(interval);
+        }
+    }
+
+    /**
+     * @return the time of the record at the given index
+     */
+    public final long getTime(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index " + index + " is not valid; size is " + size);
+        }
+
+        return times[index] + timeAdjustment;
+    }
+
+    /**
+     * @return the timestamp (TXXXX) of the record at the given index
+     */
+    public final String getTimestamp(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index " + index + " is not valid; size is " + size);
+        }
+
+        return timestamps[index];
+    }
+
+    public final boolean hasData(int index, DataType type) {
+        DataColumn column = columns.get(type);
+
+        return (column != null) && column.hasData(index);
+    }
+
+    /**
+     * Get the value of a field for the record at the given index. Equivalent to
+     * <code>getRecord(getTime(index)).getData(type, fieldName)</code>.
+     */
+    public final double getData(int index, DataType type, String fieldName) {
+        DataColumn column = columns.get(type);
+
+        if ((column == null) || !column.hasData(index)) {
+            throw new IllegalArgumentException("record at index " + index + " does not contain any data for DataType "
+                    + type.getId());
+        }
+
+        return column.get(index, column.getType().getFieldIndex(fieldName));
+    }
+
+    /**
+     * Get the value of a field for the record at the given index. The field is identified by its
+     * {@link DataType#getFieldIndex(String) index}, which avoids a lookup by name for every value.
+     */
+    public final double getData(int index, DataType type, int fieldIndex) {
+        DataColumn column = columns.get(type);
+
+        if ((column == null) || !column.hasData(index)) {
+            throw new IllegalArgumentException("record at index " + index + " does not contain any data for DataType "
+                    + type.getId());
+        }
+
+        return column.get(index, getColumnFieldIndex(column, type, fieldIndex));
+    }
+
+    /**
+     * <p>
+     * Copy all the values for a single field in the given interval into an array. <code>values[0]</code> will hold
+     * the value for the record at {@link #getStartIndex(Interval) getStartIndex(interval)} and so on. Records without
+     * data for the type are set to <code>NaN</code>.
+     * </p>
+     * 
+     * @return the number of values copied, which is the same as {@link #getRecordCount(Interval)}
+     */
+    public final int copyColumn(DataType type, int fieldIndex, Interval interval, double[] values) {
+        int start = getStartIndex(interval);
+        int count = getEndIndex(interval) - start;
+
+        if (values.length < count) {
+            throw new IllegalArgumentException("array length " + values.length + " is too small for " + count
+                    + " values");
+        }
+
+        DataColumn column = columns.get(type);
+
+        if (column == null) {
+            java.util.Arrays.fill(values, 0, count, Double.NaN);
+        }
+        else {
+            column.copyField(getColumnFieldIndex(column, type, fieldIndex), start, count, values);
+        }
+
+        return count;
+    }
+
+    /**
+     * <p>
+     * Copy all the values for multiple fields in the given interval with a single pass over the data.
+     * <code>values[i]</code> receives the values for <code>fieldIndexes[i]</code>, in the same way as
+     * {@link #copyColumn(DataType, int, Interval, double[]) copyColumn()}.
+     * </p>
+     * 
+     * @return the number of values copied into each array, which is the same as {@link #getRecordCount(Interval)}
+     */
+    public final int copyColumns(DataType type, int[] fieldIndexes, Interval interval, double[][] values) {
+        int start = getStartIndex(interval);
+        int count = getEndIndex(interval) - start;
+
+        if (values.length < fieldIndexes.length) {
+            throw new IllegalArgumentException("array length " + values.length + " is too small for "
+                    + fieldIndexes.length + " fields");
+        }
+
+        for (int i = 0; i < fieldIndexes.length; i++) {
+            if (values[i].length < count) {
+                throw new IllegalArgumentException("array length " + values[i].length + " is too small for " + count
+                        + " values");
+            }
+        }
+
+        DataColumn column = columns.get(type);
+
+        if (column == null) {
+            for (int i = 0; i < fieldIndexes.length; i++) {
+                java.util.Arrays.fill(values[i], 0, count, Double.NaN);
+            }
+        }
+        else {
+            int[] fields = new int[fieldIndexes.length];
+
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = getColumnFieldIndex(column, type, fieldIndexes[i]);
+            }
+
+            column.copyFields(fields, start, count, values);
+        }
+
+        return count;
+    }
+
+    // types are equal by id, so the stored type may not have the same field order as the given one
+    private int getColumnFieldIndex(DataColumn column, DataType type, int fieldIndex) {
+        if (column.getType() == type) {
+            return fieldIndex;
+        }
+        else {
+            return column.getType().getFieldIndex(type.getField(fieldIndex));
         }
     }
 
@@ -149,35 +412,320 @@ public abstract class DataSet implements Comparable<DataSet> {
      * @return all the timestamps recorded by this data set.
      */
     public final Set<Long> getTimes() {
-        return java.util.Collections.unmodifiableSet(data.keySet());
+        return new TimeSet();
     }
 
     public final long getStartTime() {
-        return data.firstKey();
+        if (size == 0) {
+            throw new java.util.NoSuchElementException();
+        }
+
+        return times[0] + timeAdjustment;
     }
 
     public final long getEndTime() {
-        return data.size() == 0 ? Long.MIN_VALUE : data.lastKey();
+        return size == 0 ? Long.MIN_VALUE : times[size - 1] + timeAdjustment;
     }
 
+    /**
+     * Shift all the times in this data set by the given amount. This does not touch any data; the adjustment is
+     * applied whenever times are read.
+     */
     public final void adjustTimes(long adjustmentMillis) {
-        if (adjustmentMillis == 0) {
-            return;
+        // shifting every time by the same amount keeps the order, so no rows move
+        timeAdjustment += adjustmentMillis;
+    }
+
+    // convert a time to the stored time, saturating so open ended intervals still work
+    private long toStoredTime(long time) {
+        long stored = time - timeAdjustment;
+
+        // overflow when time and the adjustment have different signs and the result's sign differs from time
+        if (((time ^ timeAdjustment) & (time ^ stored)) < 0) {
+            return time < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        else {
+            return stored;
+        }
+    }
+
+    // first row at or after the interval start
+    private int getStartRow(Interval interval) {
+        int row = java.util.Arrays.binarySearch(times, 0, size, toStoredTime(interval.getStart()));
+
+        if (row < 0) {
+            return -(row + 1);
+        }
+        else {
+            // times are unique, so this is the first
+            return row;
+        }
+    }
+
+    // one past the last row at or before the interval end
+    private int getEndRow(Interval interval) {
+        int row = java.util.Arrays.binarySearch(times, 0, size, toStoredTime(interval.getEnd()));
+
+        if (row < 0) {
+            return -(row + 1);
+        }
+        else {
+            return row + 1;
+        }
+    }
+
+    /**
+     * @return the row for the given time or <code>(-(insertion point) - 1)</code> if there is no data at that time
+     */
+    final int findRow(long time) {
+        return java.util.Arrays.binarySearch(times, 0, size, toStoredTime(time));
+    }
+
+    final int getModCount() {
+        return modCount;
+    }
+
+    final long getTimeAdjustment() {
+        return timeAdjustment;
+    }
+
+    final DataColumn getColumn(DataType type) {
+        return columns.get(type);
+    }
+
+    final DataColumn getOrCreateColumn(DataType type) {
+        DataColumn column = columns.get(type);
+
+        if (column == null) {
+            column = new DataColumn(type, scratch);
+            columns.put(type, column);
+        }
+
+        return column;
+    }
+
+    final Iterable<DataColumn> getColumns() {
+        return columns.values();
+    }
+
+    // must be called before any data is added
+    final void setScratchFile(ScratchFile scratch) {
+        if (size != 0) {
+            throw new IllegalStateException("scratch file must be set before data is added");
+        }
+
+        this.scratch = scratch;
+    }
+
+    /**
+     * Release any storage that was allocated ahead of time for more records. Columns for short lived processes are
+     * trimmed to hold exactly the rows between their first and last samples. More data can still be added later.
+     */
+    public final void trimToSize() {
+        if (times.length > size) {
+            times = java.util.Arrays.copyOf(times, Math.max(size, 1));
+            timestamps = java.util.Arrays.copyOf(timestamps, Math.max(size, 1));
         }
 
-        // recreate the data using the new times
-        TreeMap<Long, DataRecord> newData = new TreeMap<Long, DataRecord>();
+        for (DataColumn column : columns.values()) {
+            column.trimToSize();
+        }
+    }
 
-        for (long time : data.keySet()) {
-            DataRecord record = data.get(time);
-            record.adjustTime(adjustmentMillis);
+    /**
+     * @return true if this data set's values are stored in a memory mapped file rather than on the heap
+     */
+    public final boolean isMapped() {
+        return scratch != null;
+    }
 
-            newData.put(time + adjustmentMillis, record);
+    /**
+     * Release the memory mapped file used by this data set, if any. Call this when the data set is no longer needed;
+     * existing values can still be read, but no more data can be added.
+     */
+    public final void close() {
+        if (scratch != null) {
+            scratch.close();
         }
+    }
+
+    private int insertRow(int row, long time, String timestamp) {
+        if (size == times.length) {
+            int newLength = times.length + (times.length >> 1) + 1;
+
+            times = java.util.Arrays.copyOf(times, newLength);
+            timestamps = java.util.Arrays.copyOf(timestamps, newLength);
+        }
+
+        if (row < size) {
+            System.arraycopy(times, row, times, row + 1, size - row);
+            System.arraycopy(timestamps, row, timestamps, row + 1, size - row);
+
+            for (DataColumn column : columns.values()) {
+                column.insertRow(row);
+            }
 
-        // data is final, so recopy it back
-        data.clear();
-        data.putAll(newData);
+            ++modCount;
+        }
+
+        times[row] = toStoredTime(time);
+        timestamps[row] = timestamp;
+        ++size;
+
+        return row;
+    }
+
+    /**
+     * Add all the times from another data set to this one. Existing data is moved as needed. Where both data sets
+     * have the same time, the existing timestamp is kept.
+     * 
+     * @return the row in this data set for each of the other data set's rows
+     */
+    final int[] mergeTimes(DataSet other) {
+        int[] otherRows = new int[other.size];
+
+        // convert the other data set's stored times to times stored in this one
+        long shift = other.timeAdjustment - timeAdjustment;
+
+        if ((size == 0) || ((other.size > 0) && ((other.times[0] + shift) > times[size - 1]))) {
+            // all the other times are later; just append them
+            if (size + other.size > times.length) {
+                int newLength = Math.max(size + other.size, times.length + (times.length >> 1) + 1);
+
+                times = java.util.Arrays.copyOf(times, newLength);
+                timestamps = java.util.Arrays.copyOf(timestamps, newLength);
+            }
+
+            System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+
+            for (int j = 0; j < other.size; j++) {
+                times[size + j] = other.times[j] + shift;
+                otherRows[j] = size + j;
+            }
+
+            size += other.size;
+
+            return otherRows;
+        }
+
+        int[] oldToNew = new int[size];
+
+        long[] mergedTimes = new long[Math.max(size + other.size, INITIAL_ROWS)];
+        String[] mergedTimestamps = new String[mergedTimes.length];
+
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        boolean moved = false;
+
+        while ((i < size) || (j < other.size)) {
+            if ((j == other.size) || ((i < size) && (times[i] < (other.times[j] + shift)))) {
+                moved |= (i != n);
+                oldToNew[i] = n;
+
+                mergedTimes[n] = times[i];
+                mergedTimestamps[n] = timestamps[i];
+                ++i;
+            }
+            else if ((i == size) || ((other.times[j] + shift) < times[i])) {
+                otherRows[j] = n;
+
+                mergedTimes[n] = other.times[j] + shift;
+                mergedTimestamps[n] = other.timestamps[j];
+                ++j;
+            }
+            else {
+                // same time in both
+                moved |= (i != n);
+                oldToNew[i] = n;
+                otherRows[j] = n;
+
+                mergedTimes[n] = times[i];
+                mergedTimestamps[n] = timestamps[i];
+                ++i;
+                ++j;
+            }
+
+            ++n;
+        }
+
+        if (moved) {
+            for (DataColumn column : columns.values()) {
+                column.remap(oldToNew);
+            }
+
+            ++modCount;
+        }
+
+        times = mergedTimes;
+        timestamps = mergedTimestamps;
+        size = n;
+
+        return otherRows;
+    }
+
+    // read only view of a range of rows
+    private final class RecordList extends java.util.AbstractList<DataRecord> implements java.util.RandomAccess {
+        private final int start;
+        private final int end;
+
+        RecordList(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public DataRecord get(int index) {
+            if ((index < 0) || (index >= (end - start))) {
+                throw new IndexOutOfBoundsException("index " + index + " is not valid; size is " + (end - start));
+            }
+
+            return new DataRecord(DataSet.this, start + index);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+
+    // read only view of the time axis
+    private final class TimeSet extends java.util.AbstractSet<Long> {
+        @Override
+        public java.util.Iterator<Long> iterator() {
+            return new java.util.Iterator<Long>() {
+                private int row = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return row < size;
+                }
+
+                @Override
+                public Long next() {
+                    if (row >= size) {
+                        throw new java.util.NoSuchElementException();
+                    }
+
+                    return times[row++] + timeAdjustment;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return (o instanceof Long) && (findRow((Long) o) >= 0);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
     }
 
     @Override
@@ -211,7 +759,7 @@ public abstract class DataSet implements Comparable<DataSet> {
         int compare = this.getHostname().compareTo(f.getHostname());
 
         if (compare == 0) {
-            if (this.data.isEmpty() && this.data.isEmpty()) {
+            if ((this.size == 0) && (f.size == 0)) {
                 return 0;
             }
             else if (this.getStartTime() == f.getStartTime()) {
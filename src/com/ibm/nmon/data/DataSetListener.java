@@ -7,5 +7,14 @@ public interface DataSetListener {
 
     public void dataChanged(DataSet data);
 
+    /**
+     * Called when new records were added to the end of a DataSet, for example when following a file that is still
+     * being written. Unlike {@link #dataChanged(DataSet)}, existing records are unchanged, so listeners can update
+     * incrementally.
+     * 
+     * @param startTime the time of the first appended record
+     */
+    public void dataAppended(DataSet data, long startTime);
+
     public void dataCleared();
 }
@@ -77,6 +77,10 @@ public class DataType {
         return orderedFields.get(index);
     }
 
+    /**
+     * Field indexes never change for a given DataType, so callers that read many values can look up the index once
+     * and use it with {@link DataRecord#getData(DataType, int)} or {@link DataSet#getData(int, DataType, int)}.
+     */
     public final int getFieldIndex(String name) {
         Integer i = fields.get(name);
 
@@ -0,0 +1,201 @@
+package com.ibm.nmon.data;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ibm.nmon.util.QuantileSketch;
+
+/**
+ * <p>
+ * Aggregated JMeter data that also keeps a {@link QuantileSketch} of one field, usually the response time, for every
+ * transaction at every second. Percentile DataTypes are calculated from the sketches.
+ * </p>
+ *
+ * <p>
+ * Since sketches can be merged exactly, data from multiple load drivers can be combined with
+ * {@link #mergePercentiles(JMeterDataSet)}. The percentiles are then the same as if all the samples had been in a single
+ * file, without keeping any of the samples themselves.
+ * </p>
+ */
+public final class JMeterDataSet extends BasicDataSet {
+    public static final double[] PERCENTILES = { 50, 90, 95, 99 };
+
+    private final String sketchField;
+
+    // transaction names, in the same order as the sketch arrays
+    private final List<String> transactions = new java.util.ArrayList<String>();
+    private final Map<String, Integer> transactionIndexes = new java.util.HashMap<String, Integer>();
+
+    private final TreeMap<Long, QuantileSketch[]> sketches = new TreeMap<Long, QuantileSketch[]>();
+
+    public JMeterDataSet(String sourceFile, String sketchField) {
+        super(sourceFile);
+
+        this.sketchField = sketchField;
+    }
+
+    public String getSketchField() {
+        return sketchField;
+    }
+
+    public Iterable<String> getTransactions() {
+        return java.util.Collections.unmodifiableList(transactions);
+    }
+
+    /**
+     * @return the sketch for the transaction at the given time or <code>null</code> if there is no data
+     */
+    public QuantileSketch getSketch(long time, String transaction) {
+        QuantileSketch[] byTransaction = sketches.get(time);
+        Integer idx = transactionIndexes.get(transaction);
+
+        if ((byTransaction == null) || (idx == null) || (idx >= byTransaction.length)) {
+            return null;
+        }
+        else {
+            return byTransaction[idx];
+        }
+    }
+
+    /**
+     * Add a transaction without any data. Percentile DataTypes list transactions in the order they are added.
+     *
+     * @return the transaction's index
+     */
+    public int addTransaction(String transaction) {
+        Integer idx = transactionIndexes.get(transaction);
+
+        if (idx == null) {
+            idx = transactions.size();
+
+            transactions.add(transaction);
+            transactionIndexes.put(transaction, idx);
+        }
+
+        return idx;
+    }
+
+    /**
+     * Merge a sketch into the data for the given time and transaction. The sketch may be changed by later merges.
+     */
+    public void addSketch(long time, String transaction, QuantileSketch sketch) {
+        int idx = addTransaction(transaction);
+
+        QuantileSketch[] byTransaction = sketches.get(time);
+
+        if (byTransaction == null) {
+            byTransaction = new QuantileSketch[transactions.size()];
+            sketches.put(time, byTransaction);
+        }
+        else if (idx >= byTransaction.length) {
+            byTransaction = java.util.Arrays.copyOf(byTransaction, transactions.size());
+            sketches.put(time, byTransaction);
+        }
+
+        if (byTransaction[idx] == null) {
+            byTransaction[idx] = sketch;
+        }
+        else {
+            byTransaction[idx].merge(sketch);
+        }
+    }
+
+    /**
+     * @return the id of the DataType holding the given percentile
+     */
+    public String getPercentileTypeId(double percentile) {
+        return sketchField + " p" + formatPercentile(percentile);
+    }
+
+    /**
+     * Create a DataType for each of the {@link #PERCENTILES} and add a record for each time with a sketch. Any existing
+     * percentile data is replaced.
+     */
+    public void calculatePercentiles() {
+        String[] fields = transactions.toArray(new String[transactions.size()]);
+        DataType[] types = new DataType[PERCENTILES.length];
+
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            String id = getPercentileTypeId(PERCENTILES[i]);
+            DataType existing = getType(id);
+
+            if (existing != null) {
+                removeType(existing);
+            }
+
+            types[i] = new DataType(id, sketchField + ' ' + formatPercentile(PERCENTILES[i]) + "th Percentile", fields);
+            addType(types[i]);
+        }
+
+        for (Map.Entry<Long, QuantileSketch[]> entry : sketches.entrySet()) {
+            long time = entry.getKey();
+            QuantileSketch[] byTransaction = entry.getValue();
+
+            int row = findRow(time);
+
+            if (row < 0) {
+                DataRecord record = new DataRecord(time, Long.toString(time));
+                addRecord(record);
+                row = findRow(time);
+            }
+
+            double[] values = new double[fields.length];
+
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                for (int j = 0; j < fields.length; j++) {
+                    QuantileSketch sketch = j < byTransaction.length ? byTransaction[j] : null;
+
+                    // use NaN as chart data when no values exist rather than 0
+                    values[j] = sketch == null ? Double.NaN : sketch.getQuantile(PERCENTILES[i] / 100);
+                }
+
+                getOrCreateColumn(types[i]).put(row, values);
+            }
+        }
+    }
+
+    /**
+     * Combine the sketches in this data set with the ones from another data set, for example from a different load
+     * driver, and calculate the percentiles for the combined data. The returned data set only contains percentile
+     * DataTypes.
+     */
+    public JMeterDataSet mergePercentiles(JMeterDataSet other) {
+        if (!sketchField.equals(other.sketchField)) {
+            throw new IllegalArgumentException("cannot merge percentiles for " + other.sketchField + " with "
+                    + sketchField);
+        }
+
+        JMeterDataSet merged = new JMeterDataSet(getSourceFile(), sketchField);
+        merged.setHostname(getHostname());
+
+        for (JMeterDataSet toMerge : new JMeterDataSet[] { this, other }) {
+            for (Map.Entry<Long, QuantileSketch[]> entry : toMerge.sketches.entrySet()) {
+                QuantileSketch[] byTransaction = entry.getValue();
+
+                for (int i = 0; i < byTransaction.length; i++) {
+                    if (byTransaction[i] != null) {
+                        // copy so the original sketches are never changed
+                        QuantileSketch copy = new QuantileSketch(byTransaction[i].getRelativeAccuracy());
+                        copy.merge(byTransaction[i]);
+
+                        merged.addSketch(entry.getKey(), toMerge.transactions.get(i), copy);
+                    }
+                }
+            }
+        }
+
+        merged.calculatePercentiles();
+
+        return merged;
+    }
+
+    private static String formatPercentile(double percentile) {
+        if (percentile == Math.rint(percentile)) {
+            return Integer.toString((int) percentile);
+        }
+        else {
+            return Double.toString(percentile);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.ibm.nmon.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Allocates blocks of doubles from a memory mapped temporary file so {@link DataColumn DataColumns} can hold their
+ * values outside of the Java heap.
+ * </p>
+ *
+ * <p>
+ * The file is mapped in large segments and blocks are sliced from the current segment. Released blocks are reused for
+ * later allocations of the same size. The file is deleted as soon as it is opened on platforms that allow it,
+ * otherwise when it is {@link #close() closed} or when the JVM exits.
+ * </p>
+ */
+final class ScratchFile {
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+
+    private MappedByteBuffer segment;
+    private long fileLength = 0;
+
+    private boolean closed = false;
+
+    private long allocatedBytes = 0;
+
+    // released blocks, by size in doubles
+    private final Map<Integer, List<DoubleBuffer>> free = new java.util.HashMap<Integer, List<DoubleBuffer>>();
+
+    @SuppressWarnings("resource")
+    ScratchFile(File directory, String name) throws IOException {
+        file = File.createTempFile("nmon_" + name.replaceAll("[^\\w\\-\\.]", "_") + '_', ".data", directory);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+
+        // the mapping stays valid after the file is deleted
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    synchronized DoubleBuffer allocate(int doubles) {
+        if (closed) {
+            throw new IllegalStateException(file.getAbsolutePath() + " is closed");
+        }
+
+        List<DoubleBuffer> reusable = free.get(doubles);
+
+        if ((reusable != null) && !reusable.isEmpty()) {
+            return reusable.remove(reusable.size() - 1);
+        }
+
+        int bytes = doubles * 8;
+        ByteBuffer region = null;
+
+        try {
+            if (bytes > SEGMENT_SIZE) {
+                // too big for a segment; map it directly
+                region = channel.map(FileChannel.MapMode.READ_WRITE, fileLength, bytes);
+                fileLength += bytes;
+            }
+            else {
+                if ((segment == null) || (segment.remaining() < bytes)) {
+                    segment = channel.map(FileChannel.MapMode.READ_WRITE, fileLength, SEGMENT_SIZE);
+                    fileLength += SEGMENT_SIZE;
+                }
+
+                region = segment.slice();
+                // cast for Java 7 compatibility; later versions override these methods
+                ((Buffer) region).limit(bytes);
+                ((Buffer) segment).position(segment.position() + bytes);
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("cannot map " + bytes + " bytes at offset " + fileLength + " in "
+                    + file.getAbsolutePath(), ioe);
+        }
+
+        allocatedBytes += bytes;
+
+        return region.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    synchronized void release(DoubleBuffer block) {
+        if (closed) {
+            return;
+        }
+
+        List<DoubleBuffer> reusable = free.get(block.capacity());
+
+        if (reusable == null) {
+            reusable = new java.util.ArrayList<DoubleBuffer>();
+            free.put(block.capacity(), reusable);
+        }
+
+        reusable.add(block);
+    }
+
+    /**
+     * Close the file and delete it if that was not possible when it was opened. No more blocks can be allocated. Blocks
+     * already allocated stay readable; their memory is unmapped when they are garbage collected.
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        segment = null;
+        free.clear();
+
+        try {
+            channel.close();
+        }
+        catch (IOException ioe) {
+            // ignore; nothing more will be written
+        }
+
+        // Windows does not allow deleting open files; if the file is still mapped, deleteOnExit() is the fallback
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * @return the total size of all blocks allocated from this file
+     */
+    synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath();
+    }
+}
@@ -2,6 +2,9 @@ package com.ibm.nmon.data;
 
 import org.slf4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
+
 import java.util.Set;
 import java.util.Map;
 import java.util.TreeMap;
@@ -24,6 +27,9 @@ public final class SystemDataSet extends ProcessDataSet {
 
     private String typeIdPrefix = "TOP";
 
+    // processes by name and pid so merges do not have to search all the processes
+    private final Map<String, Process> processesByNameAndId = new java.util.HashMap<String, Process>();
+
     public SystemDataSet(String hostname) {
         if ((hostname == null) || "".equals(hostname)) {
             throw new IllegalArgumentException("hostname cannot be " + "null");
@@ -32,6 +38,17 @@ public final class SystemDataSet extends ProcessDataSet {
         this.hostname = hostname;
     }
 
+    /**
+     * Create a data set that stores its values in a memory mapped file in the given directory rather than on the heap.
+     * Times and DataTypes are still kept on the heap. Use this when the total amount of data is larger than the
+     * available heap.
+     */
+    public SystemDataSet(String hostname, File scratchDirectory) throws IOException {
+        this(hostname);
+
+        setScratchFile(new ScratchFile(scratchDirectory, hostname));
+    }
+
     public final String getHostname() {
         return hostname;
     }
@@ -111,9 +128,29 @@ public final class SystemDataSet extends ProcessDataSet {
             end = start + 1000;
         }
 
+        // more data from a file that is still being written; extend its interval
+        for (java.util.Iterator<Map.Entry<Interval, String>> i = sourceFiles.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Interval, String> entry = i.next();
+
+            if (entry.getValue().equals(sourceFile)) {
+                Interval existing = entry.getKey();
+                i.remove();
+
+                sourceFiles.put(new Interval(Math.min(start, existing.getStart()), Math.max(end, existing.getEnd())),
+                        sourceFile);
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("data appended from {} to data for {} in {}ms ", new Object[] { sourceFile,
+                            getHostname(), (System.nanoTime() - startT) / 1000000.0d });
+                }
+
+                return;
+            }
+        }
+
         sourceFiles.put(new Interval(start, end), sourceFile);
 
-        if (newData.getClass().equals(BasicDataSet.class)) {
+        if (newData instanceof BasicDataSet) {
             metadata.put(start, ((BasicDataSet) newData).getMetadata());
         }
         else if (newData.getClass().equals(NMONDataSet.class)) {
@@ -146,6 +183,22 @@ public final class SystemDataSet extends ProcessDataSet {
         }
     }
 
+    /**
+     * Replace all the data for the DataTypes in the given data set. This is used for data that is recalculated as more
+     * files are added, like percentiles combined from multiple files. No source file is recorded.
+     */
+    public void replaceTypes(DataSet newData) {
+        for (DataType newType : newData.getTypes()) {
+            DataType existing = getType(newType.getId());
+
+            if (existing != null) {
+                removeType(existing);
+            }
+        }
+
+        merge(newData);
+    }
+
     private void merge(DataSet newData) {
         if (newData == null) {
             throw new IllegalArgumentException("DataSet cannot be null");
@@ -155,15 +208,9 @@ public final class SystemDataSet extends ProcessDataSet {
             return;
         }
 
-        Set<Long> combinedTimes = null;
-
-        // minor optimization - if this data set is empty, only addNewType will be called below and
-        // combinedTimes will not be needed but initialize it here to avoid doing that once per type
-        // when it is needed
-        if (getRecordCount() != 0) {
-            combinedTimes = new java.util.HashSet<Long>(getTimes());
-            combinedTimes.addAll(newData.getTimes());
-        }
+        // add all the new times up front so existing data only has to be moved once
+        // rowMap holds the row in this data set for each row in the new data
+        int[] rowMap = mergeTimes(newData);
 
         for (DataType newType : newData.getTypes()) {
             if (newType instanceof ProcessDataType) {
@@ -172,62 +219,80 @@ public final class SystemDataSet extends ProcessDataSet {
                 // assume a process with the same name and pid is the same for merging purposes
                 ProcessDataType newProcessType = (ProcessDataType) newType;
                 Process newProcess = newProcessType.getProcess();
-                Process existingProcess = null;
-
-                for (Process toSearch : getProcesses()) {
-                    if (newProcess.getName().equals(toSearch.getName()) && (newProcess.getId() == toSearch.getId())) {
-                        existingProcess = toSearch;
-                        break;
-                    }
-                }
+                String key = getProcessKey(newProcess);
+                Process existingProcess = processesByNameAndId.get(key);
 
                 if (existingProcess != null) {
-                    addProcessData(newData, newProcessType, existingProcess);
+                    processesByNameAndId.put(key, addProcessData(newData, newProcessType, existingProcess, rowMap));
                 }
                 else {
+                    processesByNameAndId.put(key, newProcess);
                     addProcess(newProcess);
                     addType(newProcessType);
-                    addDataForType(newData, newProcessType);
+                    addDataForType(newData, newProcessType, newProcessType, rowMap);
                 }
             }
             else { // not a process
                 if (!containsType(newType.getId())) {
                     // new type - add it to the data
                     addType(newType);
-                    addDataForType(newData, newType);
+                    addDataForType(newData, newType, newType, rowMap);
                 }
                 else {
-                    mergeDataForType(newData, newType, combinedTimes);
+                    mergeDataForType(newData, newType, rowMap);
                 }
             }
         }
+
+        trimToSize();
     }
 
-    private void addDataForType(DataSet data, DataType type) {
+    private void addDataForType(DataSet data, DataType newType, DataType type, int[] rowMap) {
+        DataColumn newColumn = data.getColumn(newType);
+
+        if (newColumn == null) {
+            return;
+        }
+
         long start = System.nanoTime();
         int n = 0;
 
-        for (DataRecord newRecord : data.getRecords()) {
-            long time = newRecord.getTime();
-            DataRecord recordToUpdate = getRecord(time);
+        DataColumn column = getOrCreateColumn(type);
 
-            if (recordToUpdate == null) {
-                recordToUpdate = new DataRecord(time, newRecord.getTimestamp());
-                addRecord(recordToUpdate);
-            }
+        // fields may be in a different order in the new data
+        int[] fieldMap = new int[newType.getFieldCount()];
+        boolean sameOrder = true;
+
+        for (int i = 0; i < fieldMap.length; i++) {
+            fieldMap[i] = column.getType().getFieldIndex(newType.getField(i));
+            sameOrder &= (fieldMap[i] == i);
+        }
+
+        double[] newValues = new double[newType.getFieldCount()];
+        double[] values = sameOrder ? newValues : new double[column.getFieldCount()];
 
-            if (recordToUpdate.hasData(type)) {
-                LOGGER.warn("not overwriting existing {} data at time {}", type, newRecord.getTimestamp());
+        for (int newRow = newColumn.getFirstRow(); newRow < newColumn.getEndRow(); newRow++) {
+            if (!newColumn.hasData(newRow)) {
+                // dangerous to log since this can potentially log a huge amount for process data
+                continue;
             }
-            else if (newRecord.hasData(type)) {
-                recordToUpdate.addData(type, newRecord.getData(type));
-                ++n;
+
+            int row = rowMap[newRow];
+
+            if (column.hasData(row)) {
+                LOGGER.warn("not overwriting existing {} data at time {}", type, getTimestamp(row));
             }
             else {
-                // dangerous since this can potentially log a huge amount for process data
-                // if (LOGGER.isTraceEnabled()) {
-                // LOGGER.trace("no data for {} at time {}", type.id,
-                // existingRecord.getTimestamp()); }
+                newColumn.copyRow(newRow, newValues);
+
+                if (!sameOrder) {
+                    for (int i = 0; i < fieldMap.length; i++) {
+                        values[fieldMap[i]] = newValues[i];
+                    }
+                }
+
+                column.put(row, values);
+                ++n;
             }
         }
 
@@ -237,10 +302,12 @@ public final class SystemDataSet extends ProcessDataSet {
         }
     }
 
-    private void addProcessData(DataSet data, ProcessDataType processType, Process existingProcess) {
-        long start = System.nanoTime();
-        int n = 0;
+    private static String getProcessKey(Process process) {
+        return process.getId() + " " + process.getName();
+    }
 
+    // returns the existing process, which may have a new start time
+    private Process addProcessData(DataSet data, ProcessDataType processType, Process existingProcess, int[] rowMap) {
         Process newProcess = processType.getProcess();
 
         long newStartTime = Math.min(newProcess.getStartTime(), existingProcess.getStartTime());
@@ -248,39 +315,13 @@ public final class SystemDataSet extends ProcessDataSet {
         Process updatedProcess = changeStartTime(existingProcess, newStartTime);
         ProcessDataType updatedProcessType = getType(updatedProcess);
 
-        for (DataRecord newRecord : data.getRecords()) {
-            long time = newRecord.getTime();
-            DataRecord recordToUpdate = getRecord(time);
-
-            if (recordToUpdate == null) {
-                recordToUpdate = new DataRecord(time, newRecord.getTimestamp());
-                addRecord(recordToUpdate);
-            }
-
-            if (recordToUpdate.hasData(updatedProcessType)) {
-                LOGGER.warn("not overwriting existing {} data at time {}", updatedProcessType,
-                        newRecord.getTimestamp());
-            }
-            else if (newRecord.hasData(processType)) {
-                // note processType since the new records have not been updated
-                recordToUpdate.addData(updatedProcessType, newRecord.getData(processType));
-                ++n;
-            }
-            else {
-                // dangerous since this can potentially log a huge amount
-                // if (LOGGER.isTraceEnabled()) {
-                // LOGGER.trace("no data for {} at time {}", type.id,
-                // existingRecord.getTimestamp()); }
-            }
-        }
+        // note processType for the new data since it has not been updated
+        addDataForType(data, processType, updatedProcessType, rowMap);
 
-        if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("{} of {} process data records for {} {} added in {}ms ", new Object[] { n,
-                    data.getRecordCount(), data, updatedProcessType, (System.nanoTime() - start) / 1000000.0d });
-        }
+        return updatedProcess;
     }
 
-    private void mergeDataForType(DataSet newData, DataType newType, Set<Long> combinedTimes) {
+    private void mergeDataForType(DataSet newData, DataType newType, int[] rowMap) {
         DataType existingType = getType(newType.getId());
 
         // union of the fields ...
@@ -291,7 +332,7 @@ public final class SystemDataSet extends ProcessDataSet {
         // just add the records without overwriting the existing
         if ((combinedFields.size() == existingType.getFieldCount())
                 && (combinedFields.size() == newType.getFieldCount())) {
-            addDataForType(newData, newType);
+            addDataForType(newData, newType, existingType, rowMap);
             return;
         }
         // otherwise, actually merge the data
@@ -310,72 +351,84 @@ public final class SystemDataSet extends ProcessDataSet {
                     combinedFields.toArray(new String[0]));
         }
 
+        DataColumn existingColumn = getColumn(existingType);
+        DataColumn newColumn = newData.getColumn(newType);
+
         // data set now only contains the combined type
         removeType(existingType);
         addType(combinedType);
 
-        int fieldCount = combinedFields.size();
+        DataColumn combinedColumn = getOrCreateColumn(combinedType);
+        int n = 0;
+
+        // existing data first, with NaN for any fields only in the new data
+        if (existingColumn != null) {
+            int[] fieldMap = new int[existingType.getFieldCount()];
 
-        // for every record, re-add the field values when available
-        for (long time : combinedTimes) {
-            DataRecord existingRecord = getRecord(time);
-            DataRecord newRecord = newData.getRecord(time);
+            for (int i = 0; i < fieldMap.length; i++) {
+                fieldMap[i] = combinedType.getFieldIndex(existingType.getField(i));
+            }
+
+            double[] existingValues = new double[existingType.getFieldCount()];
+            double[] combinedValues = new double[combinedType.getFieldCount()];
+
+            for (int row = existingColumn.getFirstRow(); row < existingColumn.getEndRow(); row++) {
+                if (existingColumn.hasData(row)) {
+                    existingColumn.copyRow(row, existingValues);
+                    java.util.Arrays.fill(combinedValues, Double.NaN);
+
+                    for (int i = 0; i < fieldMap.length; i++) {
+                        combinedValues[fieldMap[i]] = existingValues[i];
+                    }
+
+                    combinedColumn.put(row, combinedValues);
+                    ++n;
+                }
+            }
+        }
 
-            boolean hasExistingData = (existingRecord != null) && existingRecord.hasData(existingType);
-            boolean hasNewData = (newRecord != null) && newRecord.hasData(newType);
+        // then new data, without overwriting any existing fields
+        if (newColumn != null) {
+            int[] fieldMap = new int[newType.getFieldCount()];
+            boolean[] inExisting = new boolean[fieldMap.length];
 
-            if (hasExistingData || hasNewData) {
-                double[] combinedData = new double[fieldCount];
-                int n = 0;
+            for (int i = 0; i < fieldMap.length; i++) {
+                fieldMap[i] = combinedType.getFieldIndex(newType.getField(i));
+                inExisting[i] = existingType.hasField(newType.getField(i));
+            }
+
+            for (int newRow = newColumn.getFirstRow(); newRow < newColumn.getEndRow(); newRow++) {
+                if (!newColumn.hasData(newRow)) {
+                    continue;
+                }
 
-                for (String field : combinedFields) {
-                    if (newType.hasField(field)) {
+                int row = rowMap[newRow];
+                boolean hasExistingData = combinedColumn.hasData(row);
+                boolean overwrite = false;
+
+                for (int i = 0; i < fieldMap.length; i++) {
+                    if (hasExistingData && inExisting[i]) {
                         // existingType has the same field and has data for this time.
                         // Use that data and do not overwrite with new data
-                        if (hasExistingData && existingType.hasField(field)) {
-                            combinedData[n] = existingRecord.getData(existingType, field);
-
-                            if (hasNewData) {
-                                LOGGER.warn("not overwriting existing {} data at time {}", newType,
-                                        existingRecord.getTimestamp());
-                            }
-                        }
-                        else if (hasNewData) {
-                            combinedData[n] = newRecord.getData(newType, field);
-                        }
-                        else {
-                            combinedData[n] = Double.NaN;
-                        }
+                        overwrite = true;
                     }
                     else {
-                        if (hasExistingData) {
-                            combinedData[n] = existingRecord.getData(existingType, field);
-                        }
-                        else {
-                            combinedData[n] = Double.NaN;
-                        }
+                        // set() fills missing fields with NaN
+                        combinedColumn.set(row, fieldMap[i], newColumn.get(newRow, i));
                     }
-
-                    ++n;
                 }
 
-                if (existingRecord == null) {
-                    DataRecord combinedRecord = new DataRecord(newRecord.getTime(), newRecord.getTimestamp());
-                    combinedRecord.addData(combinedType, combinedData);
-                    addRecord(combinedRecord);
-                }
-                else {
-                    existingRecord.removeData(existingType);
-                    existingRecord.addData(combinedType, combinedData);
+                if (overwrite) {
+                    LOGGER.warn("not overwriting existing {} data at time {}", newType, getTimestamp(row));
                 }
+
+                ++n;
             }
-            // else no data at this time from either new or existing,
-            // just leave the record empty for this type
         }
 
         if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("{} data records for {} {} merged in {}ms ", new Object[] { combinedTimes.size(), newData,
-                    combinedType, (System.nanoTime() - start) / 1000000.0d });
+            LOGGER.trace("{} data records for {} {} merged in {}ms ", new Object[] { n, newData, combinedType,
+                    (System.nanoTime() - start) / 1000000.0d });
         }
     }
 
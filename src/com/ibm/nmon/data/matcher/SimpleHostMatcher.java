@@ -32,7 +32,7 @@ abstract class SimpleHostMatcher implements HostMatcher {
     protected final String getMetadata(DataSet data, String key) {
         String value = null;
 
-        if (data.getClass().equals(BasicDataSet.class)) {
+        if (data instanceof BasicDataSet) {
             value = ((BasicDataSet) data).getMetadata(key);
         }
         else if (data.getClass().equals(NMONDataSet.class)) {
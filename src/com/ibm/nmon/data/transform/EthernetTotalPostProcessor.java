@@ -1,5 +1,7 @@
 package com.ibm.nmon.data.transform;
 
+import java.util.List;
+
 import com.ibm.nmon.data.DataSet;
 import com.ibm.nmon.data.DataType;
 import com.ibm.nmon.data.DataRecord;
@@ -13,12 +15,33 @@ import com.ibm.nmon.util.DataHelper;
 public final class EthernetTotalPostProcessor implements DataPostProcessor {
     private final String typePrefix;
 
+    // type ids, so they are not rebuilt for every record
+    private final String ethernetId;
+    private final String errorId;
+    private final String packetId;
+    private final String sizeId;
+
+    // the types the field indexes were looked up for
+    private DataType indexedNet;
+    private DataType indexedError;
+    private DataType indexedPacket;
+    private DataType indexedSize;
+
+    // for each Ethernet interface, the index of each field read from the net, error, packet and size types, in that
+    // order; only looked up again when the types change, not for every record
+    private int[] indexes;
+
     public EthernetTotalPostProcessor(String typePrefix) {
         if ((typePrefix == null) || typePrefix.equals("")) {
             throw new IllegalArgumentException("typePrefix cannot be null");
         }
 
         this.typePrefix = typePrefix;
+
+        this.ethernetId = typePrefix + "ETOTAL";
+        this.errorId = typePrefix + "ERROR";
+        this.packetId = typePrefix + "PACKET";
+        this.sizeId = typePrefix + "SIZE";
     }
 
     @Override
@@ -29,9 +52,9 @@ public final class EthernetTotalPostProcessor implements DataPostProcessor {
             return;
         }
 
-        DataType error = data.getType(typePrefix + "ERROR");
-        DataType packet = data.getType(typePrefix + "PACKET");
-        DataType size = data.getType(typePrefix + "SIZE");
+        DataType error = data.getType(errorId);
+        DataType packet = data.getType(packetId);
+        DataType size = data.getType(sizeId);
 
         boolean hasErrors = error != null;
         boolean hasPackets = packet != null;
@@ -63,7 +86,7 @@ public final class EthernetTotalPostProcessor implements DataPostProcessor {
             ethernetFields[n++] = "total-size";
         }
 
-        data.addType(new DataType(typePrefix + "ETOTAL", typePrefix + " Ethernet grand totals", ethernetFields));
+        data.addType(new DataType(ethernetId, typePrefix + " Ethernet grand totals", ethernetFields));
     }
 
     @Override
@@ -78,38 +101,44 @@ public final class EthernetTotalPostProcessor implements DataPostProcessor {
             return;
         }
 
-        DataType ethernet = data.getType(typePrefix + "ETOTAL");
+        DataType ethernet = data.getType(ethernetId);
 
-        DataType error = data.getType(typePrefix + "ERROR");
-        DataType packet = data.getType(typePrefix + "PACKET");
-        DataType size = data.getType(typePrefix + "SIZE");
+        DataType error = data.getType(errorId);
+        DataType packet = data.getType(packetId);
+        DataType size = data.getType(sizeId);
 
         boolean hasErrors = error != null;
         boolean hasPackets = packet != null;
         boolean hasSize = size != null;
 
+        int[] indexes = getIndexes(net, error, packet, size);
+
         double[] ethernetData = new double[ethernet.getFieldCount()];
 
-        int n = 0;
+        if (indexes.length == 0) {
+            record.addData(ethernet, ethernetData);
+            return;
+        }
 
-        for (String iface : DataHelper.getInterfaces(net)) {
-            n = 0;
+        double[] netData = record.getData(net);
+        double[] errorData = hasErrors ? record.getData(error) : null;
+        double[] packetData = hasPackets ? record.getData(packet) : null;
+        double[] sizeData = hasSize ? record.getData(size) : null;
 
-            if (!iface.startsWith("eth") && !iface.startsWith("en")) {
-                continue;
-            }
+        for (int i = 0; i < indexes.length;) {
+            int n = 0;
 
-            double read = record.getData(net, iface + "-read-KB/s");
-            double write = record.getData(net, iface + "-write-KB/s");
+            double read = netData[indexes[i++]];
+            double write = netData[indexes[i++]];
 
             ethernetData[n++] += read;
             ethernetData[n++] += write;
             ethernetData[n++] += read + write;
 
             if (hasErrors) {
-                double ierrs = record.getData(error, iface + "-ierrs");
-                double oerrs = record.getData(error, iface + "-oerrs");
-                double collisions = record.getData(error, iface + "-collisions");
+                double ierrs = errorData[indexes[i++]];
+                double oerrs = errorData[indexes[i++]];
+                double collisions = errorData[indexes[i++]];
 
                 ethernetData[n++] += ierrs;
                 ethernetData[n++] += oerrs;
@@ -117,16 +146,16 @@ public final class EthernetTotalPostProcessor implements DataPostProcessor {
                 ethernetData[n++] += ierrs + oerrs + collisions;
             }
             if (hasPackets) {
-                read = record.getData(packet, iface + "-reads/s");
-                write = record.getData(packet, iface + "-writes/s");
+                read = packetData[indexes[i++]];
+                write = packetData[indexes[i++]];
 
                 ethernetData[n++] += read;
                 ethernetData[n++] += write;
                 ethernetData[n++] += read + write;
             }
             if (hasSize) {
-                read = record.getData(size, iface + "-readsize");
-                write = record.getData(size, iface + "-writesize");
+                read = sizeData[indexes[i++]];
+                write = sizeData[indexes[i++]];
 
                 ethernetData[n++] += read;
                 ethernetData[n++] += write;
@@ -136,4 +165,48 @@ public final class EthernetTotalPostProcessor implements DataPostProcessor {
 
         record.addData(ethernet, ethernetData);
     }
+
+    private int[] getIndexes(DataType net, DataType error, DataType packet, DataType size) {
+        if ((indexes == null) || (net != indexedNet) || (error != indexedError) || (packet != indexedPacket)
+                || (size != indexedSize)) {
+            List<Integer> temp = new java.util.ArrayList<Integer>();
+
+            // getFieldIndex() throws an exception if any field is missing
+            for (String iface : DataHelper.getInterfaces(net)) {
+                if (!iface.startsWith("eth") && !iface.startsWith("en")) {
+                    continue;
+                }
+
+                temp.add(net.getFieldIndex(iface + "-read-KB/s"));
+                temp.add(net.getFieldIndex(iface + "-write-KB/s"));
+
+                if (error != null) {
+                    temp.add(error.getFieldIndex(iface + "-ierrs"));
+                    temp.add(error.getFieldIndex(iface + "-oerrs"));
+                    temp.add(error.getFieldIndex(iface + "-collisions"));
+                }
+                if (packet != null) {
+                    temp.add(packet.getFieldIndex(iface + "-reads/s"));
+                    temp.add(packet.getFieldIndex(iface + "-writes/s"));
+                }
+                if (size != null) {
+                    temp.add(size.getFieldIndex(iface + "-readsize"));
+                    temp.add(size.getFieldIndex(iface + "-writesize"));
+                }
+            }
+
+            indexes = new int[temp.size()];
+
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = temp.get(i);
+            }
+
+            indexedNet = net;
+            indexedError = error;
+            indexedPacket = packet;
+            indexedSize = size;
+        }
+
+        return indexes;
+    }
 }
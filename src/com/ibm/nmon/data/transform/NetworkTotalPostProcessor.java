@@ -1,5 +1,6 @@
 package com.ibm.nmon.data.transform;
 
+import java.util.List;
 import java.util.Set;
 
 import com.ibm.nmon.data.DataSet;
@@ -16,12 +17,33 @@ import com.ibm.nmon.util.DataHelper;
 public final class NetworkTotalPostProcessor implements DataPostProcessor {
     private final String typePrefix;
 
+    // type ids, so they are not rebuilt for every record
+    private final String totalId;
+    private final String errorId;
+    private final String packetId;
+    private final String sizeId;
+
+    // the types the field indexes were looked up for
+    private DataType indexedNet;
+    private DataType indexedError;
+    private DataType indexedPacket;
+    private DataType indexedSize;
+
+    // for each interface, the index of each field read from the net, error, packet and size types, in that order
+    // only looked up again when the types change, not for every record
+    private int[] indexes;
+
     public NetworkTotalPostProcessor(String typePrefix) {
         if ((typePrefix == null) || typePrefix.equals("")) {
             throw new IllegalArgumentException("typePrefix cannot be null");
         }
 
         this.typePrefix = typePrefix;
+
+        this.totalId = typePrefix + "TOTAL";
+        this.errorId = typePrefix + "ERROR";
+        this.packetId = typePrefix + "PACKET";
+        this.sizeId = typePrefix + "SIZE";
     }
 
     @Override
@@ -32,9 +54,9 @@ public final class NetworkTotalPostProcessor implements DataPostProcessor {
             return;
         }
 
-        DataType error = data.getType(typePrefix + "ERROR");
-        DataType packet = data.getType(typePrefix + "PACKET");
-        DataType size = data.getType(typePrefix + "SIZE");
+        DataType error = data.getType(errorId);
+        DataType packet = data.getType(packetId);
+        DataType size = data.getType(sizeId);
 
         boolean hasErrors = error != null;
         boolean hasPackets = packet != null;
@@ -61,7 +83,7 @@ public final class NetworkTotalPostProcessor implements DataPostProcessor {
             }
         }
 
-        data.addType(new DataType(typePrefix + "TOTAL", typePrefix + " Totals", totalFields));
+        data.addType(new DataType(totalId, typePrefix + " Totals", totalFields));
     }
 
     @Override
@@ -76,49 +98,84 @@ public final class NetworkTotalPostProcessor implements DataPostProcessor {
             return;
         }
 
-        DataType total = data.getType(typePrefix + "TOTAL");
+        DataType total = data.getType(totalId);
 
-        DataType error = data.getType(typePrefix + "ERROR");
-        DataType packet = data.getType(typePrefix + "PACKET");
-        DataType size = data.getType(typePrefix + "SIZE");
+        DataType error = data.getType(errorId);
+        DataType packet = data.getType(packetId);
+        DataType size = data.getType(sizeId);
 
         boolean hasErrors = error != null;
         boolean hasPackets = packet != null;
         boolean hasSize = size != null;
 
-        Set<String> ifaces = DataHelper.getInterfaces(net);
+        int[] indexes = getIndexes(net, error, packet, size);
+
+        double[] netData = record.getData(net);
+        double[] errorData = hasErrors ? record.getData(error) : null;
+        double[] packetData = hasPackets ? record.getData(packet) : null;
+        double[] sizeData = hasSize ? record.getData(size) : null;
 
         double[] totalData = new double[total.getFieldCount()];
 
         int n = 0;
 
-        for (String iface : ifaces) {
-            double read = record.getData(net, iface + "-read-KB/s");
-            double write = record.getData(net, iface + "-write-KB/s");
-
-            totalData[n++] = read + write;
+        for (int i = 0; i < indexes.length;) {
+            // read + write
+            totalData[n++] = netData[indexes[i++]] + netData[indexes[i++]];
 
             if (hasErrors) {
-                double ierrs = record.getData(error, iface + "-ierrs");
-                double oerrs = record.getData(error, iface + "-oerrs");
-                double collisions = record.getData(error, iface + "-collisions");
-
-                totalData[n++] = ierrs + oerrs + collisions;
+                // ierrs + oerrs + collisions
+                totalData[n++] = errorData[indexes[i++]] + errorData[indexes[i++]] + errorData[indexes[i++]];
             }
             if (hasPackets) {
-                read = record.getData(packet, iface + "-reads/s");
-                write = record.getData(packet, iface + "-writes/s");
-
-                totalData[n++] = read + write;
+                totalData[n++] = packetData[indexes[i++]] + packetData[indexes[i++]];
             }
             if (hasSize) {
-                read = record.getData(size, iface + "-readsize");
-                write = record.getData(size, iface + "-writesize");
-
-                totalData[n++] = read + write;
+                totalData[n++] = sizeData[indexes[i++]] + sizeData[indexes[i++]];
             }
         }
 
         record.addData(total, totalData);
     }
+
+    private int[] getIndexes(DataType net, DataType error, DataType packet, DataType size) {
+        if ((indexes == null) || (net != indexedNet) || (error != indexedError) || (packet != indexedPacket)
+                || (size != indexedSize)) {
+            Set<String> ifaces = DataHelper.getInterfaces(net);
+            List<Integer> temp = new java.util.ArrayList<Integer>(ifaces.size() * 9);
+
+            // getFieldIndex() throws an exception if any field is missing
+            for (String iface : ifaces) {
+                temp.add(net.getFieldIndex(iface + "-read-KB/s"));
+                temp.add(net.getFieldIndex(iface + "-write-KB/s"));
+
+                if (error != null) {
+                    temp.add(error.getFieldIndex(iface + "-ierrs"));
+                    temp.add(error.getFieldIndex(iface + "-oerrs"));
+                    temp.add(error.getFieldIndex(iface + "-collisions"));
+                }
+                if (packet != null) {
+                    temp.add(packet.getFieldIndex(iface + "-reads/s"));
+                    temp.add(packet.getFieldIndex(iface + "-writes/s"));
+                }
+                if (size != null) {
+                    temp.add(size.getFieldIndex(iface + "-readsize"));
+                    temp.add(size.getFieldIndex(iface + "-writesize"));
+                }
+            }
+
+            indexes = new int[temp.size()];
+
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = temp.get(i);
+            }
+
+            indexedNet = net;
+            indexedError = error;
+            indexedPacket = packet;
+            indexedSize = size;
+        }
+
+        return indexes;
+    }
 }
@@ -20,10 +20,11 @@ import com.ibm.nmon.data.SubDataType;
  * <p>
  */
 public class WindowsBytesTransform implements DataTransform {
-    private static final Matcher VALID_TYPES = Pattern.compile(
-            "LogicalDisk.*|PhysicalDisk.*|Network Interface.*|Memory|System").matcher("");
+    // Patterns, not Matchers, since transforms for different files can be used on multiple threads
+    private static final Pattern VALID_TYPES = Pattern
+            .compile("LogicalDisk.*|PhysicalDisk.*|Network Interface.*|Memory|System");
     // match all Bytes, but not KBytes or MBytes
-    private static final Matcher VALID_FIELDS = Pattern.compile("(.*?[^KM])?Bytes(.*)").matcher("");
+    private static final Pattern VALID_FIELDS = Pattern.compile("(.*?[^KM])?Bytes(.*)");
 
     private Map<String, Set<Integer>> changedFields = new java.util.HashMap<String, Set<Integer>>();
 
@@ -32,16 +33,10 @@ public class WindowsBytesTransform implements DataTransform {
         Set<Integer> changes = new java.util.HashSet<Integer>(fields.length);
 
         for (int i = 0; i < fields.length; i++) {
-            VALID_FIELDS.reset(fields[i]);
-
-            if (VALID_FIELDS.matches()) {
-                if ("Memory".equals(id)) {
-                    fields[i] = VALID_FIELDS.replaceAll("$1MB$2");
-                }
-                else {
-                    fields[i] = VALID_FIELDS.replaceAll("$1KB$2");
-                }
+            String field = transformField(id, fields[i]);
 
+            if (!field.equals(fields[i])) {
+                fields[i] = field;
                 changes.add(i);
             }
         }
@@ -56,6 +51,25 @@ public class WindowsBytesTransform implements DataTransform {
         }
     }
 
+    /**
+     * @return the name the given field will have after the transform or the same String if it is not changed
+     */
+    public String transformField(String typeId, String field) {
+        Matcher matcher = VALID_FIELDS.matcher(field);
+
+        if (matcher.matches()) {
+            if ("Memory".equals(typeId)) {
+                return matcher.replaceAll("$1MB$2");
+            }
+            else {
+                return matcher.replaceAll("$1KB$2");
+            }
+        }
+        else {
+            return field;
+        }
+    }
+
     @Override
     public double[] transform(DataType type, double[] data) {
         Set<Integer> changes = changedFields.get(type.getName());
@@ -78,7 +92,7 @@ public class WindowsBytesTransform implements DataTransform {
 
     @Override
     public boolean isValidFor(String typeId, String subId) {
-        return VALID_TYPES.reset(typeId).matches();
+        return VALID_TYPES.matcher(typeId).matches();
     }
 
     public void reset() {
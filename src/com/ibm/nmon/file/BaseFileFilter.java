@@ -3,10 +3,20 @@ package com.ibm.nmon.file;
 import java.io.FileFilter;
 import java.io.File;
 
+import com.ibm.nmon.util.FileHelper;
+
 abstract class BaseFileFilter implements FileFilter {
     @Override
     public final boolean accept(File pathname) {
-        return accept(pathname.getName());
+        String name = pathname.getName();
+
+        // zip archives could contain any type of file; gzipped files are the same type as the uncompressed file
+        if (FileHelper.isArchive(name)) {
+            return true;
+        }
+        else {
+            return accept(FileHelper.getUncompressedName(name));
+        }
     }
 
     public abstract boolean accept(String pathname);
@@ -101,6 +101,11 @@ public abstract class AnalysisSetTableModel extends ChoosableColumnTableModel im
         fireTableDataChanged();
     }
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {
+        dataChanged(data);
+    }
+
     @Override
     public void dataCleared() {
         keys.clear();
@@ -3,6 +3,7 @@ package com.ibm.nmon.gui.analysis;
 import java.util.BitSet;
 import java.util.List;
 
+import com.ibm.nmon.analysis.AnalysisRecord;
 import com.ibm.nmon.analysis.AnalysisSet;
 
 import com.ibm.nmon.analysis.Statistic;
@@ -13,7 +14,8 @@ import com.ibm.nmon.gui.main.NMONVisualizerGui;
 
 /**
  * Table model that displays a selectable metric for each measurement in an AnalysisSet. Data for
- * all data sets is displayed; each data set is a separate column.
+ * all data sets is displayed; each data set is a separate column. If percentiles are calculated
+ * from sketches, percentile statistics also have a column for all the data sets combined.
  */
 public final class ByDataSetTableModel extends AnalysisSetTableModel {
     private static final long serialVersionUID = 8726311839297203648L;
@@ -22,16 +24,19 @@ public final class ByDataSetTableModel extends AnalysisSetTableModel {
 
     private final List<String> columns;
 
+    // true if the last column is the percentile over all data sets
+    private boolean hasAllSystems;
+
     public ByDataSetTableModel(NMONVisualizerGui gui, AnalysisSet analysisSet) {
         super(gui, analysisSet);
 
-        columns = new java.util.ArrayList<String>(2 + gui.getDataSetCount());
+        columns = new java.util.ArrayList<String>(3 + gui.getDataSetCount());
+
+        stat = Statistic.AVERAGE;
 
         rebuildColumns();
         buildColumnNameMap();
 
-        stat = Statistic.AVERAGE;
-
         // alert the owning table that it has columns so it can be sized in the column model
         fireTableStructureChanged();
     }
@@ -90,6 +95,17 @@ public final class ByDataSetTableModel extends AnalysisSetTableModel {
         else if (columnIndex == 1) {
             return analysisSet.getField(key);
         }
+        else if (hasAllSystems && (columnIndex == (columns.size() - 1))) {
+            List<AnalysisRecord> records = new java.util.ArrayList<AnalysisRecord>(gui.getDataSetCount());
+
+            for (DataSet data : gui.getDataSets()) {
+                records.add(gui.getAnalysis(data));
+            }
+
+            // merge the sketches from every data set rather than combining all the data
+            return AnalysisRecord.getPercentile(records, analysisSet.getType(key), analysisSet.getField(key),
+                    stat.getPercentile());
+        }
         else {
             int n = 2;
 
@@ -111,8 +127,16 @@ public final class ByDataSetTableModel extends AnalysisSetTableModel {
     }
 
     public void setStatistic(Statistic stat) {
+        boolean hadAllSystems = hasAllSystems;
+
         this.stat = stat;
-        fireTableDataChanged();
+
+        if (hadAllSystems != showAllSystems()) {
+            rebuildColumns();
+        }
+        else {
+            fireTableDataChanged();
+        }
     }
 
     @Override
@@ -142,6 +166,12 @@ public final class ByDataSetTableModel extends AnalysisSetTableModel {
             columns.add(data.getHostname());
         }
 
+        hasAllSystems = showAllSystems();
+
+        if (hasAllSystems) {
+            columns.add("All Systems");
+        }
+
         BitSet oldEnabled = enabledColumns;
 
         enabledColumns = new BitSet(columns.size());
@@ -165,4 +195,10 @@ public final class ByDataSetTableModel extends AnalysisSetTableModel {
 
         fireTableStructureChanged();
     }
+
+    // only sketches can be merged, so exact percentiles and other statistics are not combined
+    private boolean showAllSystems() {
+        return !Double.isNaN(stat.getPercentile()) && !"".equals(gui.getProperty("percentileAccuracy"))
+                && (gui.getDataSetCount() > 1);
+    }
 }
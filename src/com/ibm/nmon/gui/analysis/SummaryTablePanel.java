@@ -380,6 +380,11 @@ public final class SummaryTablePanel extends JPanel
         model.addElement(Statistic.GRANULARITY_MAXIMUM.getName(gui.getGranularity()));
         model.addElement(Statistic.STD_DEV);
         model.addElement(Statistic.MEDIAN);
+        model.addElement(Statistic.PERCENTILE_90);
+        model.addElement(Statistic.PERCENTILE_95);
+        model.addElement(Statistic.PERCENTILE_99);
+        model.addElement(Statistic.PERCENTILE_99_9);
+        model.addElement(Statistic.PERCENTILE);
         model.addElement(Statistic.SUM);
         model.addElement(Statistic.COUNT);
 
@@ -112,6 +112,17 @@ public class BaseChartPanel extends ChartPanel implements PropertyChangeListener
         }
     }
 
+    /**
+     * Notify listeners that the data in the current chart changed, so that any tables showing the chart's dataset are
+     * updated. This is only needed when the chart is changed directly rather than replaced with
+     * {@link #setChart(JFreeChart) setChart()}.
+     */
+    public final void chartDataChanged() {
+        if (getChart() != null) {
+            firePropertyChange("chart", null, this);
+        }
+    }
+
     public void clearChart() {
         if (getChart() != null) {
             setChart(null);
@@ -11,6 +11,7 @@ import com.ibm.nmon.NMONVisualizerApp;
 import com.ibm.nmon.interval.Interval;
 
 import com.ibm.nmon.analysis.AnalysisRecord;
+import com.ibm.nmon.analysis.IntervalIndex;
 import com.ibm.nmon.chart.definition.*;
 
 import com.ibm.nmon.data.DataSet;
@@ -110,10 +111,15 @@ public class ChartFactory {
                 // TODO AnalysisRecord cache needed here?
                 List<AnalysisRecord> analysis = new java.util.ArrayList<AnalysisRecord>();
 
+                // share the index, if any, so the data is not scanned for each interval
+                AnalysisRecord current = app.getAnalysis(data);
+                IntervalIndex index = current == null ? null : current.getIndex();
+
                 for (Interval i : app.getIntervalManager().getIntervals()) {
                     AnalysisRecord record = new AnalysisRecord(data);
                     record.setInterval(i);
                     record.setGranularity(intervalChartBuilder.getGranularity());
+                    record.setIndex(index);
 
                     analysis.add(record);
                 }
@@ -165,4 +171,25 @@ public class ChartFactory {
 
         return chart;
     }
+
+    /**
+     * Add data appended to one of the DataSets in a chart created by
+     * {@link #createChart(BaseChartDefinition, Iterable) createChart()}. Only line charts can be updated; other
+     * charts summarize all the data and must be created again.
+     * 
+     * @param chart the chart to update
+     * @param definition the definition used to create the chart
+     * @param data the data that was appended to
+     * @param startTime the time of the first appended record
+     * @return <code>false</code> if the chart could not be updated and must be created again
+     * @see LineChartBuilder#appendLine(JFreeChart, LineChartDefinition, DataSet, long)
+     */
+    public boolean appendData(JFreeChart chart, BaseChartDefinition definition, DataSet data, long startTime) {
+        if (definition.getClass().equals(LineChartDefinition.class)) {
+            return lineChartBuilder.appendLine(chart, (LineChartDefinition) definition, data, startTime);
+        }
+        else {
+            return false;
+        }
+    }
 }
@@ -35,6 +35,8 @@ public final class DataTypeChartPanel extends LineChartPanel implements Interval
     private final LineChartBuilder chartBuilder;
 
     private ExactDataDefinition definition;
+    // the definition for the current chart, needed to append data to it
+    private LineChartDefinition chartDefinition;
 
     public DataTypeChartPanel(NMONVisualizerGui gui) {
         super(gui, gui.getMainFrame());
@@ -58,6 +60,33 @@ public final class DataTypeChartPanel extends LineChartPanel implements Interval
         return definition == null ? null : definition.getDataSet();
     }
 
+    /**
+     * Create the chart again, after the current data has changed.
+     */
+    public void refreshChart() {
+        if ((definition != null) && (getChart() != null)) {
+            displayChart();
+        }
+    }
+
+    /**
+     * Add data appended to the current data to the existing chart, creating the chart again only if the new data
+     * cannot be added to it.
+     * 
+     * @param startTime the time of the first appended record
+     */
+    public void dataAppended(long startTime) {
+        if ((definition != null) && (getChart() != null)) {
+            if (chartBuilder.appendLinesForData(getChart(), chartDefinition, definition, definition.getDataSet(),
+                    NamingMode.FIELD, startTime)) {
+                chartDataChanged();
+            }
+            else {
+                displayChart();
+            }
+        }
+    }
+
     @Override
     public void setEnabled(boolean enabled) {
         if (isEnabled() != enabled) {
@@ -193,7 +222,7 @@ public final class DataTypeChartPanel extends LineChartPanel implements Interval
                 }
             }
 
-            LineChartDefinition chartDefinition = new LineChartDefinition("", type + fieldLabel);
+            chartDefinition = new LineChartDefinition("", type + fieldLabel);
             chartDefinition.setYAxisLabel(axisLabel);
             chartDefinition.setUsePercentYAxis(percent);
 
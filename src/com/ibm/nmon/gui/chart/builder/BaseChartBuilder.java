@@ -96,7 +96,14 @@ abstract class BaseChartBuilder<C extends BaseChartDefinition> {
         chart.setSubtitles(java.util.Collections.singletonList(new TextTitle()));
 
         formatChart();
+        applyPlugins();
+    }
 
+    /**
+     * Call any {@link ChartBuilderPlugin plugins} on the current chart. Subclasses that change existing charts call this
+     * again so settings that depend on the data, like axis ranges, are updated.
+     */
+    protected final void applyPlugins() {
         if (plugins != null) {
             for (ChartBuilderPlugin plugin : plugins) {
                 plugin.configureChart(chart);
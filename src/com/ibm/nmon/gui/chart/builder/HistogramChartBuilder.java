@@ -1,7 +1,5 @@
 package com.ibm.nmon.gui.chart.builder;
 
-import java.util.List;
-
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.labels.StandardXYToolTipGenerator;
@@ -14,7 +12,6 @@ import org.jfree.data.statistics.HistogramDataset;
 import org.jfree.data.statistics.HistogramType;
 
 import com.ibm.nmon.data.DataSet;
-import com.ibm.nmon.data.DataRecord;
 import com.ibm.nmon.data.DataType;
 import com.ibm.nmon.data.DataTuple;
 
@@ -149,23 +146,23 @@ public final class HistogramChartBuilder extends BaseChartBuilder<HistogramChart
                         String fieldName = definition.getHistogramNamingMode().getName(dataDefinition, data, type,
                                 field, getInterval(), getGranularity());
 
-                        List<Double> values = new java.util.ArrayList<Double>(data.getRecordCount());
-
                         // Use the analysis record's internal Interval is used rather than this
                         // class' record. Assume this class' interval and the record's are
                         // synchronized by the caller.
+                        int startIdx = data.getStartIndex(analysis.getInterval());
+                        int endIdx = data.getEndIndex(analysis.getInterval());
 
-                        for (DataRecord record : data.getRecords(analysis.getInterval())) {
-                            if (record.hasData(type)) {
-                                values.add(record.getData(type)[type.getFieldIndex(field)]);
+                        double[] toAdd = new double[endIdx - startIdx];
+                        int n = 0;
+
+                        for (int i = startIdx; i < endIdx; i++) {
+                            if (data.hasData(i, type)) {
+                                toAdd[n++] = data.getData(i, type, field);
                             }
                         }
 
-                        // convert to double for HistogramDataset
-                        double[] toAdd = new double[values.size()];
-
-                        for (int i = 0; i < toAdd.length; i++) {
-                            toAdd[i] = values.get(i);
+                        if (n < toAdd.length) {
+                            toAdd = java.util.Arrays.copyOf(toAdd, n);
                         }
 
                         if (definition.getXAxisRange() == null) {
@@ -22,7 +22,6 @@ import org.jfree.data.time.FixedMillisecond;
 import org.jfree.data.xy.XYDataset;
 
 import com.ibm.nmon.data.DataSet;
-import com.ibm.nmon.data.DataRecord;
 import com.ibm.nmon.data.DataType;
 import com.ibm.nmon.data.DataTuple;
 
@@ -186,28 +185,260 @@ public class LineChartBuilder extends BaseChartBuilder<LineChartDefinition> {
                             lineNamingMode.getName(definition, data, type, field, getInterval(), getGranularity()));
                 }
 
-                addData(definition, dataset, data, type, fields, fieldNames);
+                addData(definition, dataset, data, type, fields, fieldNames, Long.MIN_VALUE);
             }
         }
     }
 
+    /**
+     * <p>
+     * Add data appended to a DataSet to a chart that was built by {@link #addLine(DataSet)}, without building the
+     * chart again. Only the values after the last complete granularity period before <code>startTime</code> are
+     * recalculated, so the chart ends up the same as a new one.
+     * </p>
+     * 
+     * <p>
+     * This method cannot be called while a chart is being built. The chart is not changed if the new data cannot be
+     * appended exactly; for example, if it adds a line that was not in the chart.
+     * </p>
+     * 
+     * @return <code>false</code> if the chart must be built again instead
+     */
+    public boolean appendLine(JFreeChart chart, LineChartDefinition definition, DataSet data, long startTime) {
+        return appendData(chart, definition, definition.getData(), data, definition.getLineNamingMode(), startTime);
+    }
+
+    /**
+     * Add data appended to a DataSet to a chart that was built by
+     * {@link #addLinesForData(DataDefinition, DataSet, NamingMode)}, without building the chart again.
+     * 
+     * @return <code>false</code> if the chart must be built again instead
+     * @see #appendLine(JFreeChart, LineChartDefinition, DataSet, long)
+     */
+    public boolean appendLinesForData(JFreeChart chart, LineChartDefinition chartDefinition,
+            DataDefinition definition, DataSet data, NamingMode lineNamingMode, long startTime) {
+        return appendData(chart, chartDefinition, java.util.Collections.singletonList(definition), data,
+                lineNamingMode, startTime);
+    }
+
+    private boolean appendData(JFreeChart chart, LineChartDefinition chartDefinition,
+            Iterable<? extends DataDefinition> dataDefinitions, DataSet data, NamingMode lineNamingMode, long startTime) {
+        if (this.chart != null) {
+            throw new IllegalStateException("cannot append data while a chart is being built");
+        }
+
+        long start = System.nanoTime();
+
+        this.chart = chart;
+        this.definition = chartDefinition;
+
+        try {
+            XYPlot plot = chart.getXYPlot();
+
+            // calculate all the new values before changing the chart, so it is unchanged if any line cannot be updated
+            List<DataTupleXYDataset> datasets = new java.util.ArrayList<DataTupleXYDataset>();
+            List<List<String>> seriesKeys = new java.util.ArrayList<List<String>>();
+            List<Long> restartTimes = new java.util.ArrayList<Long>();
+            List<DataTupleXYDataset> replacements = new java.util.ArrayList<DataTupleXYDataset>();
+
+            for (DataDefinition dataDefinition : dataDefinitions) {
+                if (!dataDefinition.matchesHost(data)) {
+                    continue;
+                }
+
+                DataTupleXYDataset dataset = (DataTupleXYDataset) plot
+                        .getDataset(dataDefinition.usesSecondaryYAxis() ? 1 : 0);
+
+                for (DataType type : dataDefinition.getMatchingTypes(data)) {
+                    List<String> fields = dataDefinition.getMatchingFields(type);
+                    List<String> fieldNames = new java.util.ArrayList<String>(fields.size());
+
+                    for (String field : fields) {
+                        fieldNames.add(
+                                lineNamingMode.getName(dataDefinition, data, type, field, getInterval(),
+                                        getGranularity()));
+                    }
+
+                    List<String> existing = new java.util.ArrayList<String>(fields.size());
+                    long restartTime = getRestartTime(dataset, data, type, fields, fieldNames, startTime, existing);
+
+                    if (restartTime == Long.MIN_VALUE) {
+                        return false;
+                    }
+
+                    DataTupleXYDataset replacement = new DataTupleXYDataset(false);
+                    addData(dataDefinition, replacement, data, type, fields, fieldNames, restartTime);
+
+                    // a new line would change the order of the lines and their colors
+                    for (int i = 0; i < replacement.getSeriesCount(); i++) {
+                        if (!existing.contains(replacement.getSeriesKey(i))) {
+                            return false;
+                        }
+                    }
+
+                    datasets.add(dataset);
+                    seriesKeys.add(existing);
+                    restartTimes.add(restartTime);
+                    replacements.add(replacement);
+                }
+            }
+
+            for (int i = 0; i < datasets.size(); i++) {
+                datasets.get(i).replaceValuesAfter(restartTimes.get(i), seriesKeys.get(i), replacements.get(i));
+            }
+
+            updateChart();
+            applyPlugins();
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("{}: appended data after {} to chart '{}' in {}ms", data, new java.util.Date(startTime),
+                        chartDefinition.getTitle(), (System.nanoTime() - start) / 1000000.0d);
+            }
+
+            return true;
+        }
+        finally {
+            this.chart = null;
+            this.definition = null;
+        }
+    }
+
+    /**
+     * Find the time the lines for the given type can be recalculated from. Every value in a line, except the last,
+     * ends a complete granularity period, so calculating again from the second to last value before
+     * <code>startTime</code> gives the same result as building the whole line. The lines for the type must already be
+     * in the chart and have a value at that time or before, so they are not removed by
+     * {@link DataTupleXYDataset#replaceValuesAfter(long, List, org.jfree.data.time.TimeTableXYDataset)}.
+     * 
+     * @param existing filled with the names of the lines already in the chart
+     * @return <code>Long.MIN_VALUE</code> if there is no such time
+     */
+    private static long getRestartTime(DataTupleXYDataset dataset, DataSet data, DataType type, List<String> fields,
+            List<String> fieldNames, long startTime, List<String> existing) {
+        List<Integer> series = new java.util.ArrayList<Integer>(fieldNames.size());
+
+        for (int i = 0; i < fieldNames.size(); i++) {
+            int index = dataset.indexOf(fieldNames.get(i));
+
+            if (index != -1) {
+                // lines from other data sets can have the same name
+                if (!dataset.getTuple(index, 0).equals(new DataTuple(data, type, fields.get(i)))) {
+                    return Long.MIN_VALUE;
+                }
+
+                series.add(index);
+                existing.add(fieldNames.get(i));
+            }
+        }
+
+        if (series.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+
+        // the first time each line has a value, so no line is removed entirely
+        long[] firstTimes = new long[series.size()];
+        java.util.Arrays.fill(firstTimes, Long.MAX_VALUE);
+
+        for (int i = 0; i < dataset.getItemCount(); i++) {
+            boolean done = true;
+
+            for (int j = 0; j < firstTimes.length; j++) {
+                if (firstTimes[j] == Long.MAX_VALUE) {
+                    if (!Double.isNaN(dataset.getYValue(series.get(j), i))) {
+                        firstTimes[j] = dataset.getTimePeriod(i).getStart().getTime();
+                    }
+                    else {
+                        done = false;
+                    }
+                }
+            }
+
+            if (done) {
+                break;
+            }
+        }
+
+        long latestFirstTime = Long.MIN_VALUE;
+
+        for (long firstTime : firstTimes) {
+            latestFirstTime = Math.max(latestFirstTime, firstTime);
+        }
+
+        boolean lastValue = true;
+
+        for (int i = dataset.getItemCount() - 1; i >= 0; i--) {
+            long time = dataset.getTimePeriod(i).getStart().getTime();
+
+            if (time < latestFirstTime) {
+                break;
+            }
+
+            for (int j : series) {
+                if (!Double.isNaN(dataset.getYValue(j, i))) {
+                    // the last value for the type can be a partial period
+                    if (lastValue) {
+                        lastValue = false;
+                    }
+                    else if (time < startTime) {
+                        return time;
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        return Long.MIN_VALUE;
+    }
+
+    // restartTime is the time of a value already in the dataset; only values after it are added
     private void addData(DataDefinition dataDefinition, DataTupleXYDataset dataset, DataSet data, DataType type,
-            List<String> fields, List<String> fieldNames) {
+            List<String> fields, List<String> fieldNames, long restartTime) {
         long start = System.nanoTime();
 
         double[] totals = new double[fields.size()];
         // use NaN as chart data when no values are defined rather than 0
         java.util.Arrays.fill(totals, Double.NaN);
 
+        // look up field indexes once; -1 if the type does not have the field
+        int[] fieldIndexes = new int[fields.size()];
+
+        for (int i = 0; i < fields.size(); i++) {
+            fieldIndexes[i] = type.hasField(fields.get(i)) ? type.getFieldIndex(fields.get(i)) : -1;
+        }
+
         int n = 0;
 
         long lastOutputTime = Math.max(getInterval().getStart(), data.getStartTime());
 
-        for (DataRecord record : data.getRecords(getInterval())) {
-            if ((record != null) && record.hasData(type)) {
+        int index = data.getStartIndex(getInterval());
+        int end = data.getEndIndex(getInterval());
+
+        if (restartTime != Long.MIN_VALUE) {
+            lastOutputTime = restartTime;
+
+            // binary search for the first record after the restart time
+            int high = end;
+
+            while (index < high) {
+                int middle = (index + high) >>> 1;
+
+                if (data.getTime(middle) <= restartTime) {
+                    index = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+        }
+
+        for (; index < end; index++) {
+            long time = data.getTime(index);
+
+            if (data.hasData(index, type)) {
                 for (int i = 0; i < fields.size(); i++) {
-                    if (type.hasField(fields.get(i))) {
-                        double value = record.getData(type, fields.get(i));
+                    if (fieldIndexes[i] != -1) {
+                        double value = data.getData(index, type, fieldIndexes[i]);
 
                         if (!Double.isNaN(value)) {
                             if (Double.isNaN(totals[i])) {
@@ -253,13 +484,13 @@ public class LineChartBuilder extends BaseChartBuilder<LineChartDefinition> {
             }
             // else no data for this type at this time but may still need to output
 
-            if ((n > 0) && ((record.getTime() - lastOutputTime) >= getGranularity())) {
-                FixedMillisecond graphTime = new FixedMillisecond(record.getTime());
+            if ((n > 0) && ((time - lastOutputTime) >= getGranularity())) {
+                FixedMillisecond graphTime = new FixedMillisecond(time);
 
                 for (int i = 0; i < fields.size(); i++) {
                     if (logger.isTraceEnabled()) {
-                        logger.trace(new java.util.Date(record.getTime()) + "\t" + type + "\t" + totals[i] + "\t"
-                                + totals[i] / n + "\t" + n + "\t" + (record.getTime() - lastOutputTime));
+                        logger.trace(new java.util.Date(time) + "\t" + type + "\t" + totals[i] + "\t"
+                                + totals[i] / n + "\t" + n + "\t" + (time - lastOutputTime));
                     }
 
                     if (!Double.isNaN(totals[i])) {
@@ -279,7 +510,7 @@ public class LineChartBuilder extends BaseChartBuilder<LineChartDefinition> {
                     totals[i] = Double.NaN;
                 }
 
-                lastOutputTime = record.getTime();
+                lastOutputTime = time;
                 n = 0;
             }
         }
@@ -2,6 +2,7 @@ package com.ibm.nmon.gui.chart.data;
 
 import java.util.List;
 
+import org.jfree.data.time.TimePeriod;
 import org.jfree.data.time.TimeTableXYDataset;
 
 import com.ibm.nmon.data.DataTuple;
@@ -127,6 +128,41 @@ public final class DataTupleXYDataset extends TimeTableXYDataset implements Data
         return tuples.contains(tuple);
     }
 
+    /**
+     * Replace all the values after the given time for the given series with the values from another dataset. The
+     * series must already exist in this dataset and have a value at or before <code>time</code>, so the order of the
+     * series, and the tuples associated with them, does not change.
+     */
+    public void replaceValuesAfter(long time, List<String> seriesKeys, TimeTableXYDataset replacement) {
+        // remove from the end; rows without any values left are removed too
+        for (int i = getItemCount() - 1; i >= 0; i--) {
+            TimePeriod period = getTimePeriod(i);
+
+            if (period.getStart().getTime() <= time) {
+                break;
+            }
+
+            for (String key : seriesKeys) {
+                remove(period, key, false);
+            }
+        }
+
+        for (int i = 0; i < replacement.getItemCount(); i++) {
+            TimePeriod period = replacement.getTimePeriod(i);
+
+            for (int j = 0; j < replacement.getSeriesCount(); j++) {
+                double value = replacement.getYValue(j, i);
+
+                if (!Double.isNaN(value)) {
+                    add(period, value, replacement.getSeriesKey(j), false);
+                }
+            }
+        }
+
+        graphData = null;
+        fireDatasetChanged();
+    }
+
     public DataTupleXYDataset merge(DataTupleXYDataset other) {
         DataTupleXYDataset toReturn = new DataTupleXYDataset(this.stacked || other.stacked);
 
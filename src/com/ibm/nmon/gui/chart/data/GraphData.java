@@ -1,8 +1,6 @@
 package com.ibm.nmon.gui.chart.data;
 
-import java.util.List;
-
-import com.ibm.nmon.analysis.AnalysisRecord;
+import com.ibm.nmon.analysis.ValueStatistics;
 
 final class GraphData {
     int count = 0;
@@ -30,7 +28,8 @@ final class GraphData {
 
             int itemCount = callback.getItemCount(i);
 
-            List<Double> allValues = new java.util.ArrayList<Double>(itemCount);
+            double[] values = new double[itemCount];
+            int count = 0;
 
             for (int j = 0; j < itemCount; j++) {
                 double value = callback.getValue(i, j);
@@ -39,39 +38,25 @@ final class GraphData {
                     continue;
                 }
 
-                data.sum += value;
-
-                if (value > data.maximum) {
-                    data.maximum = value;
-                }
-
-                if (value < data.minimum) {
-                    data.minimum = value;
-                }
-
-                allValues.add(value);
+                values[count++] = value;
             }
 
-            if (allValues.size() > 0) {
-                data.count = allValues.size();
-                data.average = data.sum / data.count;
+            if (count > 0) {
+                ValueStatistics statistics = ValueStatistics.calculate(values, count);
 
-                java.util.Collections.sort(allValues);
+                data.count = statistics.getCount();
+                data.sum = statistics.getSum();
+                data.average = statistics.getAverage();
+                data.weightedAverage = statistics.getWeightedAverage();
 
-                data.median = AnalysisRecord.calculatePercentile(.5, allValues);
-                data.percentile95 = AnalysisRecord.calculatePercentile(.95, allValues);
-                data.percentile99 = AnalysisRecord.calculatePercentile(.99, allValues);
+                data.median = statistics.getPercentile(.5);
+                data.percentile95 = statistics.getPercentile(.95);
+                data.percentile99 = statistics.getPercentile(.99);
 
-                double sumSqs = 0;
-                double sumSqDiffs = 0;
-
-                for (double value : allValues) {
-                    sumSqs += value * value;
-                    sumSqDiffs += Math.pow(value - data.average, 2);
-                }
+                data.minimum = statistics.getMinimum();
+                data.maximum = statistics.getMaximum();
 
-                data.weightedAverage = sumSqs / data.sum;
-                data.standardDeviation = Math.sqrt(sumSqDiffs / data.count);
+                data.standardDeviation = statistics.getStandardDeviation();
             }
             else {
                 // file has data, but not for the given interval
@@ -0,0 +1,63 @@
+package com.ibm.nmon.gui.file;
+
+import java.awt.event.ActionListener;
+import java.awt.event.ActionEvent;
+
+import javax.swing.JFileChooser;
+
+import com.ibm.nmon.file.CombinedFileFilter;
+import com.ibm.nmon.file.SwingAndIOFileFilter;
+import com.ibm.nmon.gui.main.NMONVisualizerGui;
+import com.ibm.nmon.gui.util.TimeZoneComboBox;
+
+import java.io.File;
+
+/**
+ * Creates a JFileChooser so the user can select an NMON file that is still being written. The file is parsed and then
+ * {@link com.ibm.nmon.NMONVisualizerApp#follow(String, java.util.TimeZone) followed} on a background thread; new data
+ * is added as it is written.
+ */
+public final class FileFollowAction implements ActionListener {
+    private final JFileChooser chooser;
+    private final NMONVisualizerGui gui;
+
+    private final TimeZoneComboBox timeZones;
+
+    public FileFollowAction(NMONVisualizerGui gui) {
+        this.gui = gui;
+
+        String directory = gui.getPreferences().get("lastDirectory", null);
+
+        chooser = new JFileChooser(directory);
+        chooser.setMultiSelectionEnabled(false);
+        chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        chooser.setDialogTitle("Select NMON File to Follow");
+
+        // first filter is always NMON
+        for (SwingAndIOFileFilter filter : CombinedFileFilter.getInstance(false).getFilters()) {
+            chooser.setFileFilter(filter);
+            break;
+        }
+
+        timeZones = new TimeZoneComboBox(gui.getDisplayTimeZone());
+
+        GUIFileChooser.addComponentToChooser(chooser, "Time Zone:", timeZones);
+    }
+
+    public void actionPerformed(ActionEvent event) {
+        if (chooser.showDialog(gui.getMainFrame(), "Follow") != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        File selected = chooser.getSelectedFile();
+
+        if (selected == null) {
+            return;
+        }
+
+        gui.getPreferences().put("lastDirectory", selected.getParentFile().getAbsolutePath());
+
+        // parse on a background thread; errors are reported there
+        gui.followInBackground(selected.getAbsolutePath(), timeZones.getSelectedTimeZone());
+    }
+}
@@ -7,10 +7,15 @@ import java.util.TimeZone;
 
 import javax.swing.SwingUtilities;
 
+import com.ibm.nmon.file.CombinedFileFilter;
+
 import com.ibm.nmon.gui.main.NMONVisualizerGui;
 
 import com.ibm.nmon.gui.util.ItemProgressDialog;
 
+import com.ibm.nmon.parser.ParseListener;
+
+import com.ibm.nmon.util.FileHelper;
 import com.ibm.nmon.util.ParserLog;
 
 /**
@@ -29,10 +34,11 @@ public final class ParserRunner implements Runnable {
 
     public ParserRunner(NMONVisualizerGui gui, List<String> toParse, TimeZone timeZone) {
         this.gui = gui;
-        this.toParse = toParse;
+        // expand zip archives here so the progress bar counts each file
+        this.toParse = FileHelper.expandArchives(toParse, CombinedFileFilter.getInstance(false));
         this.timeZone = timeZone;
 
-        progress = new ItemProgressDialog(gui.getMainFrame(), "Parsing Files...", toParse.size());
+        progress = new ItemProgressDialog(gui.getMainFrame(), "Parsing Files...", this.toParse.size());
 
         // used linked map so errors are presented in the order parsed
         errors = new java.util.LinkedHashMap<String, String>();
@@ -49,51 +55,42 @@ public final class ParserRunner implements Runnable {
         // i.e. dispose call at the end of run will not be called until after all the progress bar
         // updates are completed
 
-        ParserLog log = ParserLog.getInstance();
-
-        for (int i = 0; i < toParse.size(); i++) {
-            final String filename = toParse.get(i).replace('\\', '/');
-
-            log.setCurrentFilename(filename);
-
-            SwingUtilities.invokeLater(new Runnable() {
-                public void run() {
-                    String name = filename;
-                    int idx = name.lastIndexOf('/');
-
-                    if (idx != -1) {
-                        name = name.substring(idx + 1);
+        try {
+            // files are parsed in parallel but completed in order
+            gui.parseAll(toParse, timeZone, new ParseListener() {
+                @Override
+                public void parseComplete(final String filename, String messages) {
+                    if (messages != null) {
+                        errors.put(filename, messages);
                     }
 
-                    progress.setCurrentItem(name);
+                    // update the progress bar on each file
+                    // wait here because parsing the very first file hits JIT, GC and object creation
+                    // keep the parser from getting ahead of the UI so the user does not see a 'flash' of
+                    // progress
+                    try {
+                        SwingUtilities.invokeAndWait(new Runnable() {
+                            public void run() {
+                                String name = filename;
+                                int idx = name.lastIndexOf('/');
+
+                                if (idx != -1) {
+                                    name = name.substring(idx + 1);
+                                }
+
+                                progress.setCurrentItem(name);
+                                progress.updateProgress();
+                            }
+                        });
+                    }
+                    catch (Exception e) {
+                        // ignore
+                    }
                 }
             });
-
-            try {
-                gui.parse(filename, timeZone);
-            }
-            catch (Exception e) {
-                log.getLogger().error("could not parse " + filename, e);
-            }
-
-            if (log.hasData()) {
-                errors.put(log.getCurrentFilename(), log.getMessages());
-            }
-
-            // update the progress bar on each file
-            // wait here because parsing the very first file hits JIT, GC and object creation
-            // keep the parser from getting ahead of the UI so the user does not see a 'flash' of
-            // progress
-            try {
-                SwingUtilities.invokeAndWait(new Runnable() {
-                    public void run() {
-                        progress.updateProgress();
-                    }
-                });
-            }
-            catch (Exception e) {
-                // ignore
-            }
+        }
+        catch (InterruptedException ie) {
+            ParserLog.getInstance().getLogger().error("parsing interrupted", ie);
         }
 
         // close progress when done
@@ -201,6 +201,10 @@ abstract class BaseIntervalPanel extends JPanel implements DataSetListener, Prop
         setTimes(getDefaultStartTime(), getDefaultEndTime());
     }
 
+    public final void dataAppended(DataSet data, long startTime) {
+        dataChanged(data);
+    }
+
     public final void dataCleared() {
         setTimes(getDefaultStartTime(), getDefaultEndTime());
     }
@@ -90,6 +90,10 @@ public final class IntervalPicker extends JPanel implements DataSetListener {
         updateOnDataChange();
     }
 
+    public void dataAppended(DataSet data, long startTime) {
+        dataChanged(data);
+    }
+
     public void dataCleared() {
         updateOnDataChange();
     }
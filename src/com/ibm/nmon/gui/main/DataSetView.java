@@ -158,6 +158,15 @@ final class DataSetView extends ChartSplitPane {
         }
     }
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {
+        ReportPanel forData = reportPanels.get(data.getHostname());
+
+        if (forData != null) {
+            forData.dataAppended(data, startTime);
+        }
+    }
+
     @Override
     public void dataCleared() {
         for (ReportPanel report : reportPanels.values()) {
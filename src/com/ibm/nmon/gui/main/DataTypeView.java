@@ -81,7 +81,22 @@ final class DataTypeView extends ChartSplitPane {
     }
 
     @Override
-    public void dataChanged(DataSet data) {}
+    public void dataChanged(DataSet data) {
+        DataSet current = chartPanel.getData();
+
+        if ((current != null) && current.equals(data)) {
+            chartPanel.refreshChart();
+        }
+    }
+
+    @Override
+    public void dataAppended(DataSet data, long startTime) {
+        DataSet current = chartPanel.getData();
+
+        if ((current != null) && current.equals(data)) {
+            chartPanel.dataAppended(startTime);
+        }
+    }
 
     @Override
     public void dataCleared() {
@@ -17,6 +17,7 @@ import com.ibm.nmon.data.DataSetListener;
 import com.ibm.nmon.data.transform.name.HostRenamerFactory;
 import com.ibm.nmon.data.transform.name.HostRenamer;
 import com.ibm.nmon.gui.Styles;
+import com.ibm.nmon.gui.file.FileFollowAction;
 import com.ibm.nmon.gui.file.FileLoadAction;
 import com.ibm.nmon.gui.file.GUIFileChooser;
 import com.ibm.nmon.gui.chart.annotate.AnnotationCache;
@@ -84,6 +85,12 @@ final class MainMenu extends JMenuBar implements IntervalListener, DataSetListen
 
         menu.add(item);
 
+        item = new JMenuItem("Follow...");
+        item.setMnemonic('f');
+        item.addActionListener(new FileFollowAction(gui));
+
+        menu.add(item);
+
         menu.addSeparator();
 
         item = new JMenuItem("Remove All");
@@ -797,6 +804,10 @@ final class MainMenu extends JMenuBar implements IntervalListener, DataSetListen
         changeDefaultIntervalName();
     }
 
+    public void dataAppended(DataSet data, long startTime) {
+        dataChanged(data);
+    }
+
     public void dataCleared() {
         // File -> Remove All
         JMenuItem item = this.getMenu(0).getItem(2);
@@ -124,6 +124,11 @@ public final class NMONVisualizerGui extends NMONVisualizerApp {
     private final ReportCache reportCache;
     private ChartFormatter chartFormatter;
 
+    // how often to check followed files for new data
+    private static final int FOLLOW_INTERVAL = 10000;
+    // followed files are parsed and updated on this thread, never on the Swing thread
+    private final java.util.concurrent.ScheduledExecutorService follower;
+
     public NMONVisualizerGui() throws Exception {
         super();
 
@@ -210,6 +215,50 @@ public final class NMONVisualizerGui extends NMONVisualizerApp {
 
         mainFrame.pack();
         positionMainFrame();
+
+        follower = java.util.concurrent.Executors
+                .newSingleThreadScheduledExecutor(new java.util.concurrent.ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Follower");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        follower.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                updateFollowedFiles();
+            }
+        }, FOLLOW_INTERVAL, FOLLOW_INTERVAL, java.util.concurrent.TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start {@link #follow(String, java.util.TimeZone) following} a file on a background thread. The initial parse
+     * can take a long time for large files, so it is not done on the Swing thread. Errors are shown to the user.
+     */
+    public final void followInBackground(final String fileToFollow, final java.util.TimeZone timeZone) {
+        follower.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    follow(fileToFollow, timeZone);
+                }
+                catch (final Exception e) {
+                    logger.error("cannot follow " + fileToFollow, e);
+
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            JOptionPane.showMessageDialog(mainFrame, "Cannot follow "
+                                    + new File(fileToFollow).getName() + ":\n" + e.getMessage(), "Follow Error",
+                                    JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                }
+            }
+        });
     }
 
     /**
@@ -368,6 +417,8 @@ public final class NMONVisualizerGui extends NMONVisualizerApp {
             getPreferences().put("showStatusBar", getProperty("showStatusBar"));
             getPreferences().put("lineChartLegend", getProperty("lineChartLegend"));
 
+            follower.shutdownNow();
+
             logViewer.dispose();
             mainFrame.dispose();
 
@@ -594,6 +645,54 @@ public final class NMONVisualizerGui extends NMONVisualizerApp {
         }
     }
 
+    @Override
+    protected void fireDataAppended(final DataSet data, final long startTime) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            super.fireDataAppended(data, startTime);
+        }
+        else {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    NMONVisualizerGui.super.fireDataAppended(data, startTime);
+                }
+            });
+        }
+    }
+
+    /**
+     * Run all data changes on the Swing thread so that charts and tables, which read the data sets without locking,
+     * never see a data set that is being merged. Parsing is still done on the calling thread.
+     */
+    @Override
+    protected <T> T runDataChange(java.util.concurrent.Callable<T> change) throws Exception {
+        if (SwingUtilities.isEventDispatchThread()) {
+            return change.call();
+        }
+        else {
+            java.util.concurrent.FutureTask<T> task = new java.util.concurrent.FutureTask<T>(change);
+
+            SwingUtilities.invokeAndWait(task);
+
+            try {
+                return task.get();
+            }
+            catch (java.util.concurrent.ExecutionException ee) {
+                Throwable cause = ee.getCause();
+
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                else {
+                    throw ee;
+                }
+            }
+        }
+    }
+
     private WindowAdapter windowManager = new WindowAdapter() {
         @Override
         public void windowOpened(WindowEvent e) {
@@ -227,6 +227,12 @@ final class SummaryView extends ChartSplitPane implements IntervalListener {
         allIntervalsReport.resetReport();
     }
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {
+        singleIntervalReport.dataAppended(data, startTime);
+        allIntervalsReport.dataAppended(data, startTime);
+    }
+
     @Override
     public void dataCleared() {
         singleIntervalReport.clearData();
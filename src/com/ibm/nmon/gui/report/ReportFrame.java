@@ -249,6 +249,12 @@ public final class ReportFrame extends JFrame implements DataSetListener, Proper
         ((ReportSystemsListModel) systems.getModel()).dataChanged();
     }
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {
+        dataChanged(data);
+        reportSplitPane.dataAppended(data, startTime);
+    }
+
     @Override
     public void dataCleared() {
         if (systems.getSelectedIndex() == 0) {
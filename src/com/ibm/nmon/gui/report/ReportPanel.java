@@ -233,6 +233,39 @@ public final class ReportPanel extends JTabbedPane implements PropertyChangeList
         resetReport();
     }
 
+    /**
+     * Add data appended to one of the report's DataSets to the existing charts. Charts that cannot be updated in place
+     * are marked as invalid, as in {@link #resetReport()}.
+     * 
+     * @param startTime the time of the first appended record
+     */
+    public void dataAppended(DataSet data, long startTime) {
+        if ((chartNeedsUpdate == null) || !dataSets.contains(data)) {
+            return;
+        }
+
+        int selected = getSelectedIndex();
+
+        for (int i = 0; i < chartsInUse.size(); i++) {
+            if (chartNeedsUpdate.get(i)) {
+                continue;
+            }
+
+            BaseChartPanel chartPanel = getChartPanel(i);
+            JFreeChart chart = chartPanel.getChart();
+
+            if ((chart == null) || !chartFactory.appendData(chart, chartsInUse.get(i), data, startTime)) {
+                chartNeedsUpdate.set(i);
+            }
+            else if (i == selected) {
+                // update the data table
+                chartPanel.chartDataChanged();
+            }
+        }
+
+        updateChart();
+    }
+
     // mark all charts as invalid; update the current one
     public void resetReport() {
         if (chartNeedsUpdate != null) {
@@ -119,6 +119,13 @@ final class ReportSplitPane extends ChartSplitPane {
     @Override
     public void dataChanged(DataSet data) {}
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {
+        if (reportPanel != null) {
+            reportPanel.dataAppended(data, startTime);
+        }
+    }
+
     @Override
     public void dataCleared() {}
 
@@ -134,6 +134,11 @@ public final class SystemTimeTableModel extends AbstractTableModel implements Da
         fireTableDataChanged();
     }
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {
+        dataChanged(data);
+    }
+
     public void dataCleared() {
         updateCounts();
         fireTableDataChanged();
@@ -184,6 +184,11 @@ public final class TreePanel extends JScrollPane implements DataSetListener {
         dataAdded(data);
     }
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {
+        dataChanged(data);
+    }
+
     @Override
     public final void dataCleared() {
         DefaultMutableTreeNode root = (DefaultMutableTreeNode) ((DefaultTreeModel) tree.getModel()).getRoot();
@@ -115,6 +115,9 @@ public final class HostnameComboBoxModel extends AbstractListModel<String> imple
     @Override
     public void dataChanged(DataSet data) {}
 
+    @Override
+    public void dataAppended(DataSet data, long startTime) {}
+
     @Override
     public void dataCleared() {
         hosts.clear();
@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 
 import com.ibm.nmon.parser.util.XMLParserHelper;
 import com.ibm.nmon.util.DataHelper;
+import com.ibm.nmon.util.FileHelper;
 
 import java.io.IOException;
 
@@ -23,7 +24,7 @@ public abstract class BasicXMLParser {
     protected boolean skip = false;
 
     protected final void parse(String filename) throws IOException {
-        in = new LineNumberReader(new java.io.FileReader(filename));
+        in = new LineNumberReader(FileHelper.openReader(filename));
         parse();
     }
 
@@ -0,0 +1,53 @@
+package com.ibm.nmon.parser;
+
+/**
+ * <p>
+ * Limits the data kept by a parser. Parsers check each DataType and field as it is defined in the file, so rejected
+ * data is skipped without being parsed or stored.
+ * </p>
+ *
+ * <p>
+ * Type ids and fields are the ones the parsed data set will contain, i.e. after any transforms are applied. Parsers
+ * also keep data that is needed to build types that are accepted, for example the individual network interfaces used
+ * to calculate network totals. Process data is accepted or rejected as a whole since individual processes are not known
+ * until the data is parsed.
+ * </p>
+ *
+ * <p>
+ * Parsers may be used on multiple threads, so implementations must be thread safe.
+ * </p>
+ */
+public interface DataTypeFilter {
+    public boolean accept(String typeId);
+
+    /**
+     * Only called for types that are {@link #accept(String) accepted}.
+     */
+    public boolean accept(String typeId, String field);
+
+    public boolean acceptProcesses();
+
+    /**
+     * Accepts all data.
+     */
+    public static final DataTypeFilter ALL = new DataTypeFilter() {
+        @Override
+        public boolean accept(String typeId) {
+            return true;
+        }
+
+        @Override
+        public boolean accept(String typeId, String field) {
+            return true;
+        }
+
+        @Override
+        public boolean acceptProcesses() {
+            return true;
+        }
+
+        public String toString() {
+            return "$ALL";
+        };
+    };
+}
@@ -9,7 +9,6 @@ import java.io.IOException;
 import java.io.File;
 
 import java.io.LineNumberReader;
-import java.io.FileReader;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -22,6 +21,7 @@ import com.ibm.nmon.data.DataType;
 import com.ibm.nmon.data.SubDataType;
 
 import com.ibm.nmon.util.DataHelper;
+import com.ibm.nmon.util.FileHelper;
 
 /**
  * A parser for FIO output. This class assumes log files with names in the form of <code>id_datetime_type.log</code>.
@@ -29,7 +29,8 @@ import com.ibm.nmon.util.DataHelper;
 public final class FIOParser {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(FIOParser.class);
 
-    private static final SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyyddMM_HHmmss");
+    // not static since SimpleDateFormat is not thread safe
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyyddMM_HHmmss");
 
     private static final Pattern DATA_SPLITTER = Pattern.compile(",\\s?");
 
@@ -52,7 +53,8 @@ public final class FIOParser {
     }
 
     public BasicDataSet parse(String filepath, TimeZone timeZone) throws IOException {
-        File file = new File(filepath);
+        // .gz is not part of the file name format
+        File file = new File(FileHelper.getUncompressedName(filepath));
         String filename = file.getName();
 
         int end = filename.indexOf("_");
@@ -78,7 +80,7 @@ public final class FIOParser {
         long baseTime = 0;
 
         try {
-            baseTime = TIMESTAMP_FORMAT.parse(timestamp).getTime();
+            baseTime = timestampFormat.parse(timestamp).getTime();
         }
         catch (ParseException e) {
             throw new IllegalArgumentException(
@@ -100,7 +102,7 @@ public final class FIOParser {
         LineNumberReader in = null;
 
         try {
-            in = new LineNumberReader(new FileReader(file));
+            in = new LineNumberReader(FileHelper.openReader(filepath));
 
             String line = null;
             DataRecord currentRecord = null;
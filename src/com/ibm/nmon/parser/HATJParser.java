@@ -12,6 +12,7 @@ import com.ibm.nmon.data.BasicDataSet;
 import com.ibm.nmon.data.DataType;
 import com.ibm.nmon.data.DataRecord;
 import com.ibm.nmon.util.DataHelper;
+import com.ibm.nmon.util.FileHelper;
 
 public final class HATJParser {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(NMONParser.class);
@@ -63,7 +64,7 @@ public final class HATJParser {
         LineNumberReader in = null;
 
         try {
-            in = new LineNumberReader(new java.io.FileReader(filename));
+            in = new LineNumberReader(FileHelper.openReader(filename));
             String line = in.readLine();
 
             if (line == null) {
@@ -27,6 +27,7 @@ import com.ibm.nmon.data.SubDataType;
 import com.ibm.nmon.util.DataHelper;
 
 import com.ibm.nmon.util.TimeHelper;
+import com.ibm.nmon.util.FileHelper;
 import static com.ibm.nmon.util.TimeHelper.TIMESTAMP_FORMAT_ISO;
 
 public final class IOStatParser {
@@ -82,8 +83,20 @@ public final class IOStatParser {
     // cache data type field arrays since there will be a subtype created for each disk / device
     private Map<String, String[]> typeFieldsCache = new java.util.HashMap<String, String[]>();
 
+    private DataTypeFilter filter = DataTypeFilter.ALL;
+    // ids of types rejected by the filter
+    private final Set<String> skippedTypes = new java.util.HashSet<String>();
+
     // private String[] disk_metrics;
 
+    /**
+     * Only parse the data accepted by the given filter. The filter applies to all files parsed after this call.
+     * Filtering is done by type; all the fields of an accepted type are kept.
+     */
+    public void setFilter(DataTypeFilter filter) {
+        this.filter = filter == null ? DataTypeFilter.ALL : filter;
+    }
+
     public BasicDataSet parse(File file, TimeZone timeZone) throws IOException, ParseException {
         return parse(file.getAbsolutePath(), timeZone);
     }
@@ -95,7 +108,7 @@ public final class IOStatParser {
         data.setHostname(DEFAULT_HOSTNAME);
 
         try {
-            in = new LineNumberReader(new java.io.FileReader(filename));
+            in = new LineNumberReader(FileHelper.openReader(filename));
 
             String line = null;
 
@@ -260,6 +273,7 @@ public final class IOStatParser {
                 firstRecord = true;
 
                 typeFieldsCache.clear();
+                skippedTypes.clear();
             }
         }
     }
@@ -288,13 +302,13 @@ public final class IOStatParser {
     // split that into two DataTypes
     private void parseAIXTTYAndCPUHeader(String[] rawFields) {
         List<String> fields = new java.util.ArrayList<String>();
+        DataType tty = null;
 
         // i = 0 => tty:
         for (int i = 1; i < rawFields.length; i++) {
             if ("avg-cpu".equals(rawFields[i])) {
                 // TTY data complete
-                DataType tty = new DataType("IOStat" + " TTY", "IOStat" + " Terminal", fields.toArray(new String[0]));
-                data.addType(tty);
+                tty = new DataType("IOStat" + " TTY", "IOStat" + " Terminal", fields.toArray(new String[0]));
                 fields.clear();
             }
             else if ("time".equals(rawFields[i])) {
@@ -319,7 +333,16 @@ public final class IOStatParser {
 
         DataType cpu = new DataType("IOStat" + " CPU", "IOStat" + " CPU" + " Utilization",
                 fields.toArray(new String[0]));
-        data.addType(cpu);
+
+        // both types come from the same line, so keep both if either is needed
+        if (filter.accept(tty.getId()) || filter.accept(cpu.getId())) {
+            data.addType(tty);
+            data.addType(cpu);
+        }
+        else {
+            skippedTypes.add(tty.getId());
+            skippedTypes.add(cpu.getId());
+        }
     }
 
     // parse tty and CPU utilization data into different data types
@@ -332,6 +355,10 @@ public final class IOStatParser {
         DataType dataType = data.getType("IOStat" + " CPU");
 
         if (dataType == null) {
+            if (skippedTypes.contains("IOStat" + " CPU")) {
+                return;
+            }
+
             parseAIXTTYAndCPUHeader(typeFields);
         }
 
@@ -372,6 +399,10 @@ public final class IOStatParser {
         DataType dataType = data.getType("IOStat" + " " + values[1]);
 
         if (dataType == null) {
+            if (!isTypeNeeded("IOStat" + " " + values[1])) {
+                return;
+            }
+
             // typeFields will be [, Kbps, tps, Kb_read, Kb_wrtn, time]; skip first empty value and time
             String[] fields = new String[typeFields.length - 2];
 
@@ -466,6 +497,10 @@ public final class IOStatParser {
         DataType cpu = data.getType("IOStat" + " CPU");
 
         if (cpu == null) {
+            if (!isTypeNeeded("IOStat" + " CPU")) {
+                return;
+            }
+
             // create CPU data type
             // subtract 2 since avg-cpu (first column) is not a field
             // also ignore %idle (the last column)
@@ -497,6 +532,10 @@ public final class IOStatParser {
 
         DataType dataType = getDataType(type, values[0], typeFields, isAIX);
 
+        if (dataType == null) {
+            return;
+        }
+
         // first field is the subtype; ignore AIX time data
         int dataLength = values.length - (isAIX ? 2 : 1);
         int fieldCount = dataType.getFieldCount();
@@ -571,13 +610,17 @@ public final class IOStatParser {
         currentRecord.addData(dataType, data);
     }
 
-    // create a data subtype for each disk, adapter, etc
+    // create a data subtype for each disk, adapter, etc; null if the type is not needed
     private DataType getDataType(String type, String subtype, String[] typeFields, boolean isAIX) {
-        DataType dataType = data.getType(SubDataType.buildId("IOStat " + type, subtype));
+        String id = SubDataType.buildId("IOStat " + type, subtype);
+        DataType dataType = data.getType(id);
 
         if (dataType != null) {
             return dataType;
         }
+        else if (!isTypeNeeded(id)) {
+            return null;
+        }
 
         String[] fieldsArray = typeFieldsCache.get(type);
 
@@ -620,6 +663,22 @@ public final class IOStatParser {
         return dataType;
     }
 
+    // types are checked once; all the data for a rejected type is skipped
+    private boolean isTypeNeeded(String id) {
+        if (skippedTypes.contains(id)) {
+            return false;
+        }
+        else if (filter.accept(id)) {
+            return true;
+        }
+        else {
+            skippedTypes.add(id);
+            LOGGER.trace("skipping data type {}", id);
+
+            return false;
+        }
+    }
+
     private void createCurrentRecord(String timeToParse) throws ParseException {
         long time = dateFormat.parse(timeToParse).getTime() + dateOffset;
 
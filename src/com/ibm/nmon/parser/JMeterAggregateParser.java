@@ -3,27 +3,34 @@ package com.ibm.nmon.parser;
 import org.slf4j.Logger;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.LineNumberReader;
 import java.io.IOException;
 
 import java.text.ParseException;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import java.util.regex.Pattern;
-
 import com.ibm.nmon.data.BasicDataSet;
 import com.ibm.nmon.data.DataRecord;
 import com.ibm.nmon.data.DataType;
+import com.ibm.nmon.data.JMeterDataSet;
+
+import com.ibm.nmon.parser.util.NumberParser;
 
 import com.ibm.nmon.util.DataHelper;
+import com.ibm.nmon.util.FileHelper;
+import com.ibm.nmon.util.QuantileSketch;
 
 public final class JMeterAggregateParser {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(JMeterAggregateParser.class);
 
-    private static final Pattern DATA_SPLITTER = Pattern.compile(",");
+    // response times are summarized with a sketch so percentiles can be calculated
+    private static final String SKETCH_FIELD = "elapsed";
+
+    // JTL records are close to time order, so only keep this many seconds of data open for aggregation
+    private static final int WINDOW_SECONDS = 300;
 
     private static final Set<String> REQUIRED_FIELDS;
     private static final Set<String> IGNORED_FIELDS;
@@ -42,12 +49,26 @@ public final class JMeterAggregateParser {
     private int successIndex = -1;
     private int hostnameIndex = -1;
     private int responseCodeIndex = -1;
+    // index into the aggregated values, not the raw data
+    private int sketchIndex = -1;
 
-    private final Set<String> transactionNames = new java.util.HashSet<String>();
+    // transactions are numbered in the order they are found; aggregated values are indexed by this number
+    private final List<String> transactionNames = new java.util.ArrayList<String>();
+    private final Map<String, Integer> transactionOrdinals = new java.util.HashMap<String, Integer>();
 
     // map the average, max or sum aggregation action to the actual parsed fields
     private char[] fieldActions;
 
+    // ring buffer of the seconds still being aggregated, starting at windowStart
+    private SecondAggregate[] window;
+    private long windowStart;
+
+    // one type per field, listing the transactions in ordinal order; null until the first second is flushed
+    private DataType[] types;
+    // pivoted values for a single second; one transaction sized array per field / data type
+    private double[][] fieldsByTransaction;
+    private int flushedSeconds = 0;
+
     public BasicDataSet parse(File file) throws IOException, ParseException {
         return parse(file.getAbsolutePath());
     }
@@ -55,22 +76,34 @@ public final class JMeterAggregateParser {
     public BasicDataSet parse(String filename) throws IOException, ParseException {
         long start = System.nanoTime();
 
-        dataSet = new BasicDataSet(filename);
-        dataSet.setMetadata("hostname", "JMeter");
-
         try {
-            in = new LineNumberReader(new FileReader(filename));
+            in = new LineNumberReader(FileHelper.openReader(filename));
 
             String line = in.readLine();
 
-            Map<String, Integer> fieldIndexes = parseHeader(DATA_SPLITTER.split(line));
+            Map<String, Integer> fieldIndexes = parseHeader(NumberParser.split(line, ','));
+
+            if (sketchIndex == -1) {
+                dataSet = new BasicDataSet(filename);
+            }
+            else {
+                dataSet = new JMeterDataSet(filename, SKETCH_FIELD);
+            }
+
+            dataSet.setMetadata("hostname", "JMeter");
+
+            parseData(fieldIndexes, in);
 
-            // for every millisecond, there will be one or more double[] for each transaction
-            Map<Long, Map<String, TransactionAggregate>> dataByMilli = parseData(fieldIndexes, in);
+            // types only have to be created here if there was no data
+            if ((types == null) || (types[0].getFieldCount() < transactionNames.size())) {
+                widenTypes(fieldIndexes);
+            }
 
-            LOGGER.debug("parsed {} lines into {} seconds of data", in.getLineNumber(), dataByMilli.size());
+            if (sketchIndex != -1) {
+                ((JMeterDataSet) dataSet).calculatePercentiles();
+            }
 
-            convertData(dataByMilli, fieldIndexes);
+            LOGGER.debug("parsed {} lines into {} seconds of data", in.getLineNumber(), flushedSeconds);
 
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Parse" + " complete for {} in {}ms", dataSet.getSourceFile(),
@@ -89,9 +122,17 @@ public final class JMeterAggregateParser {
             successIndex = -1;
             hostnameIndex = -1;
             responseCodeIndex = -1;
+            sketchIndex = -1;
 
             transactionNames.clear();
+            transactionOrdinals.clear();
             fieldActions = null;
+
+            window = null;
+            windowStart = 0;
+            types = null;
+            fieldsByTransaction = null;
+            flushedSeconds = 0;
         }
     }
 
@@ -141,6 +182,10 @@ public final class JMeterAggregateParser {
         int n = 0;
 
         for (String field : fieldIndexes.keySet()) {
+            if (SKETCH_FIELD.equals(field)) {
+                sketchIndex = n;
+            }
+
             // max, sum and average actions on aggregated data, respectively
             if (MAX_FIELDS.contains(field)) {
                 fieldActions[n] = 'm';
@@ -158,23 +203,27 @@ public final class JMeterAggregateParser {
         return fieldIndexes;
     }
 
-    // map every time to a set of TransactionAggregates
-    private Map<Long, Map<String, TransactionAggregate>> parseData(Map<String, Integer> fieldIndexes,
-            LineNumberReader in) throws IOException {
+    // aggregate every record into its second, flushing seconds that have left the window
+    private void parseData(Map<String, Integer> fieldIndexes, LineNumberReader in) throws IOException {
         int actualFields = fieldIndexes.size();
         int expectedFields = actualFields + 2 + (successIndex == -1 ? 0 : 1) + (hostnameIndex == -1 ? 0 : 1)
                 + (successIndex == -1 ? 0 : 1);
 
+        // field indexes as an array so the map is not iterated for every record
+        int[] indexes = new int[actualFields];
+        int n = 0;
+
+        for (int idx : fieldIndexes.values()) {
+            indexes[n++] = idx;
+        }
+
         Set<String> hostnames = new java.util.HashSet<String>();
 
-        // since multiple threads can be running, it is possible to have multiple entries at the same
-        // millisecond
-        // for every timestamp, store that data for each transaction name and aggregate it
-        Map<Long, Map<String, TransactionAggregate>> dataBySecond = new java.util.HashMap<Long, Map<String, TransactionAggregate>>();
+        double[] values = new double[actualFields];
         String line = null;
 
-        while ((line = in.readLine()) != null) {
-            String[] data = DATA_SPLITTER.split(line);
+        records: while ((line = in.readLine()) != null) {
+            String[] data = NumberParser.split(line, ',');
 
             if (data.length < expectedFields) {
                 LOGGER.warn("skipping invalid data record '{}' at line {}; " + "expected at least {} fields", line,
@@ -187,7 +236,6 @@ public final class JMeterAggregateParser {
             }
 
             long time = 0;
-            double[] values = new double[actualFields];
 
             // round time to the nearest second
             try {
@@ -199,119 +247,184 @@ public final class JMeterAggregateParser {
                 continue;
             }
 
-            String transactionName = data[labelIndex];
-            transactionNames.add(transactionName);
+            if ((window != null) && ((time / 1000) < windowStart)) {
+                // the second has already been added to the data set and averages cannot be updated without counts
+                LOGGER.warn("skipping data record '{}' at line {}; " + "it is more than {} seconds older than the "
+                        + "latest record", line, in.getLineNumber(), WINDOW_SECONDS);
+                continue;
+            }
 
-            int n = 0;
+            for (int i = 0; i < actualFields; i++) {
+                int idx = indexes[i];
 
-            for (int idx : fieldIndexes.values()) {
                 if (idx == successIndex) { // convert success to 0 or 1 so throughput can be calculated from
                     // successes
-                    values[n++] = Boolean.parseBoolean(data[idx]) ? 1 : 0;
+                    values[i] = Boolean.parseBoolean(data[idx]) ? 1 : 0;
                 }
                 else {
                     try {
-                        values[n++] = Double.parseDouble(data[idx]);
+                        values[i] = NumberParser.parseDouble(data[idx]);
                     }
                     catch (NumberFormatException nfe) {
                         if (idx == responseCodeIndex) {
-                            values[n] = 500;
+                            values[i] = 500;
                             continue;
                         }
+
                         LOGGER.warn("skipping invalid data record '{}' at line {}; " + "invalid number '{}'", line,
                                 in.getLineNumber(), data[idx]);
-                        break;
+                        continue records;
                     }
                 }
             }
 
-            Map<String, TransactionAggregate> timeData = dataBySecond.get(time);
-
-            if (timeData == null) { // new time; add current values
-                timeData = new java.util.HashMap<String, TransactionAggregate>(transactionNames.size());
+            String transactionName = data[labelIndex];
+            Integer ordinal = transactionOrdinals.get(transactionName);
 
-                timeData.put(transactionName, new TransactionAggregate(values));
-                dataBySecond.put(time, timeData);
+            if (ordinal == null) {
+                ordinal = transactionOrdinals.size();
+                transactionOrdinals.put(transactionName, ordinal);
+                transactionNames.add(transactionName);
             }
-            else {
-                TransactionAggregate a = timeData.get(transactionName);
 
-                if (a == null) { // existing time, new transaction; add current values
-                    timeData.put(transactionName, new TransactionAggregate(values));
-                }
-                else { // update aggregated data with new values
-                    a.aggregate(values);
-                }
-            }
+            getSecond(time, fieldIndexes).aggregate(ordinal, values);
         }
 
+        // everything left in the window is complete
+        flushWindow(windowStart + WINDOW_SECONDS, fieldIndexes);
+
         if (!hostnames.isEmpty()) {
             dataSet.setMetadata("loadDrivers", hostnames.toString());
         }
-
-        return dataBySecond;
     }
 
-    private void convertData(Map<Long, Map<String, TransactionAggregate>> dataByMilli,
-            Map<String, Integer> fieldIndexes) {
-        String[] transactions = transactionNames.toArray(new String[transactionNames.size()]);
-        int actualFields = fieldIndexes.size();
-        // deal with memory savings now that all names are known
-        for (int i = 0; i < transactions.length; i++) {
-            transactions[i] = DataHelper.newString(transactions[i]);
+    // get the aggregate for the given time, moving the window forward if needed
+    private SecondAggregate getSecond(long time, Map<String, Integer> fieldIndexes) {
+        long second = time / 1000;
+
+        if (window == null) {
+            window = new SecondAggregate[WINDOW_SECONDS];
+            // the window always ends at the latest second, so earlier records in the first few minutes are kept
+            windowStart = second - WINDOW_SECONDS + 1;
         }
 
-        // create a data type for each field in the CSV
-        // every type will have the transaction names as fields
-        for (String field : fieldIndexes.keySet()) {
-            field = DataHelper.newString(field);
-            dataSet.addType(new DataType(field, field, transactions));
+        if (second >= (windowStart + WINDOW_SECONDS)) {
+            flushWindow(second - WINDOW_SECONDS + 1, fieldIndexes);
         }
 
-        // for every millisecond of data, get each transaction
-        // for every transaction, calculated the aggregated value
-        for (Map.Entry<Long, Map<String, TransactionAggregate>> forSecond : dataByMilli.entrySet()) {
-            long time = forSecond.getKey();
-            // pivot data into a transaction sized array for each field / data type
-            double[][] fieldsByTransaction = new double[actualFields][];
+        int slot = (int) (((second % WINDOW_SECONDS) + WINDOW_SECONDS) % WINDOW_SECONDS);
+        SecondAggregate aggregate = window[slot];
+
+        if (aggregate == null) {
+            aggregate = new SecondAggregate(time, transactionOrdinals.size());
+            window[slot] = aggregate;
+        }
+
+        return aggregate;
+    }
+
+    // add all the seconds before newStart to the data set, in time order, and move the start of the window there
+    private void flushWindow(long newStart, Map<String, Integer> fieldIndexes) {
+        if (window == null) {
+            return;
+        }
+
+        for (long second = windowStart; (second < newStart) && (second < (windowStart + WINDOW_SECONDS)); second++) {
+            int slot = (int) (((second % WINDOW_SECONDS) + WINDOW_SECONDS) % WINDOW_SECONDS);
+            SecondAggregate aggregate = window[slot];
+
+            if (aggregate != null) {
+                addSecond(aggregate, fieldIndexes);
 
-            for (int i = 0; i < fieldsByTransaction.length; i++) {
-                fieldsByTransaction[i] = new double[transactions.length];
+                window[slot] = null;
             }
+        }
 
-            Map<String, TransactionAggregate> byTransaction = forSecond.getValue();
+        windowStart = newStart;
+    }
 
-            // missing transactions at each time will happen so iterate over array instead of values
-            for (int i = 0; i < transactions.length; i++) {
-                TransactionAggregate a = byTransaction.get(transactions[i]);
+    private void addSecond(SecondAggregate aggregate, Map<String, Integer> fieldIndexes) {
+        aggregate.trimToSize();
 
-                // actually pivot the data; note j, then i in array assignment
-                if (a == null) {
-                    // use NaN as chart data when no values exist rather than 0
-                    for (int j = 0; j < actualFields; j++) {
-                        fieldsByTransaction[j][i] = Double.NaN;
-                    }
-                }
-                else {
-                    double[] data = a.getAggregated();
+        // the types must list every transaction in this second
+        if ((types == null) || (types[0].getFieldCount() < aggregate.getTransactionCount())) {
+            widenTypes(fieldIndexes);
+        }
 
-                    for (int j = 0; j < actualFields; j++) {
-                        fieldsByTransaction[j][i] += data[j];
-                    }
+        int transactionCount = types[0].getFieldCount();
+
+        // pivot data into a transaction sized array for each field / data type
+        for (int i = 0; i < transactionCount; i++) {
+            aggregate.copyAggregated(i, fieldsByTransaction, i);
+        }
+
+        DataRecord record = new DataRecord(aggregate.time, Long.toString(aggregate.time));
+
+        for (int j = 0; j < types.length; j++) {
+            // values are copied into the data set so the arrays can be reused
+            record.addData(types[j], fieldsByTransaction[j]);
+        }
+
+        dataSet.addRecord(record);
+
+        if (sketchIndex != -1) {
+            for (int i = 0; i < transactionCount; i++) {
+                QuantileSketch sketch = aggregate.getSketch(i);
+
+                if (sketch != null) {
+                    ((JMeterDataSet) dataSet).addSketch(aggregate.time, transactionNames.get(i), sketch);
                 }
             }
+        }
+
+        ++flushedSeconds;
+    }
+
+    // create a data type for each field in the CSV, with every transaction found so far as the fields
+    // JTL files rarely add transactions after the first few minutes, so existing types are only widened a few times
+    private void widenTypes(Map<String, Integer> fieldIndexes) {
+        if (transactionNames.isEmpty()) {
+            return;
+        }
+
+        int oldCount = types == null ? 0 : types[0].getFieldCount();
 
-            DataRecord record = new DataRecord(time, Long.toString(time));
+        // deal with memory savings as the transactions are added to the types
+        for (int i = oldCount; i < transactionNames.size(); i++) {
+            transactionNames.set(i, DataHelper.newString(transactionNames.get(i)));
 
-            int n = 0;
+            if (sketchIndex != -1) {
+                // percentiles list transactions in the same order as the other types
+                ((JMeterDataSet) dataSet).addTransaction(transactionNames.get(i));
+            }
+        }
 
-            for (String field : fieldIndexes.keySet()) {
-                // iteration order == array index because fieldIndexes is a LinkedHashMap
-                record.addData(dataSet.getType(field), fieldsByTransaction[n++]);
+        String[] transactions = transactionNames.toArray(new String[transactionNames.size()]);
+        DataType[] newTypes = new DataType[fieldIndexes.size()];
+        int n = 0;
+
+        for (String field : fieldIndexes.keySet()) {
+            // iteration order == array index because fieldIndexes is a LinkedHashMap
+            field = DataHelper.newString(field);
+            newTypes[n] = new DataType(field, field, transactions);
+
+            if (types == null) {
+                dataSet.addType(newTypes[n]);
+            }
+            else {
+                dataSet.widenType(types[n], newTypes[n]);
             }
 
-            dataSet.addRecord(record);
+            ++n;
+        }
+
+        if (types != null) {
+            LOGGER.debug("added {} transactions to the data types after {} seconds", transactions.length - oldCount,
+                    flushedSeconds);
         }
+
+        types = newTypes;
+        fieldsByTransaction = new double[newTypes.length][transactions.length];
     }
 
     static {
@@ -358,41 +471,127 @@ public final class JMeterAggregateParser {
         }
     }
 
-    // for each transaction, at each time, hold a running aggregation of the data
-    private final class TransactionAggregate {
-        private final double[] data;
-        private int count;
+    // for a single second, hold a running aggregation of the data for each transaction, indexed by ordinal
+    private final class SecondAggregate {
+        private final long time;
+
+        // transaction major, i.e. ordinal * fieldActions.length + field
+        private double[] data;
+        private int[] counts;
+        // null if there is no field to sketch
+        private QuantileSketch[] sketches;
+
+        SecondAggregate(long time, int transactionCount) {
+            this.time = time;
+
+            int capacity = Math.max(transactionCount, 4);
 
-        TransactionAggregate(double[] data) {
-            this.data = data;
-            this.count = 1;
+            this.data = new double[capacity * fieldActions.length];
+            this.counts = new int[capacity];
+
+            if (sketchIndex != -1) {
+                this.sketches = new QuantileSketch[capacity];
+            }
         }
 
-        void aggregate(double[] toAggregate) {
-            for (int i = 0; i < data.length; i++) {
-                if (fieldActions[i] == 'm') {
-                    if (toAggregate[i] > data[i]) {
-                        data[i] = toAggregate[i];
+        void aggregate(int ordinal, double[] toAggregate) {
+            if (ordinal >= counts.length) {
+                int capacity = Math.max(ordinal + 1, counts.length * 2);
+
+                data = java.util.Arrays.copyOf(data, capacity * fieldActions.length);
+                counts = java.util.Arrays.copyOf(counts, capacity);
+
+                if (sketches != null) {
+                    sketches = java.util.Arrays.copyOf(sketches, capacity);
+                }
+            }
+
+            if (sketches != null) {
+                if (sketches[ordinal] == null) {
+                    sketches[ordinal] = new QuantileSketch();
+                }
+
+                sketches[ordinal].add(toAggregate[sketchIndex]);
+            }
+
+            int offset = ordinal * fieldActions.length;
+
+            if (counts[ordinal] == 0) {
+                System.arraycopy(toAggregate, 0, data, offset, fieldActions.length);
+            }
+            else {
+                for (int i = 0; i < fieldActions.length; i++) {
+                    if (fieldActions[i] == 'm') {
+                        if (toAggregate[i] > data[offset + i]) {
+                            data[offset + i] = toAggregate[i];
+                        }
+                        // else ignore
                     }
-                    // else ignore
+                    else { // sum or average
+                        data[offset + i] += toAggregate[i];
+                    }
+                }
+            }
+
+            ++counts[ordinal];
+        }
+
+        // only keep space for the transactions that have data
+        void trimToSize() {
+            int size = counts.length;
+
+            while ((size > 0) && (counts[size - 1] == 0)) {
+                --size;
+            }
+
+            if (size < counts.length) {
+                data = java.util.Arrays.copyOf(data, size * fieldActions.length);
+                counts = java.util.Arrays.copyOf(counts, size);
+            }
+
+            if (sketches != null) {
+                if (size < sketches.length) {
+                    sketches = java.util.Arrays.copyOf(sketches, size);
                 }
-                else { // sum or average
-                    data[i] += toAggregate[i];
+
+                for (QuantileSketch sketch : sketches) {
+                    if (sketch != null) {
+                        sketch.trimToSize();
+                    }
                 }
             }
-            ++count;
         }
 
-        // note cannot be called more than once!
-        double[] getAggregated() {
-            for (int i = 0; i < data.length; i++) {
-                if (fieldActions[i] == 'a') {
-                    data[i] /= count;
+        // highest ordinal with data + 1, after trimToSize()
+        int getTransactionCount() {
+            return counts.length;
+        }
+
+        QuantileSketch getSketch(int ordinal) {
+            return ((sketches == null) || (ordinal >= sketches.length)) ? null : sketches[ordinal];
+        }
+
+        // copy the aggregated values for a transaction into column i of the given arrays
+        void copyAggregated(int ordinal, double[][] fieldsByTransaction, int i) {
+            if ((ordinal >= counts.length) || (counts[ordinal] == 0)) {
+                // use NaN as chart data when no values exist rather than 0
+                for (int j = 0; j < fieldActions.length; j++) {
+                    fieldsByTransaction[j][i] = Double.NaN;
                 }
-                // else leave sum and max as-is
             }
+            else {
+                int offset = ordinal * fieldActions.length;
 
-            return data;
+                for (int j = 0; j < fieldActions.length; j++) {
+                    if (fieldActions[j] == 'a') {
+                        fieldsByTransaction[j][i] = data[offset + j] / counts[ordinal];
+                    }
+                    else {
+                        // sum and max as-is
+                        fieldsByTransaction[j][i] = data[offset + j];
+                    }
+                }
+            }
         }
     }
 }
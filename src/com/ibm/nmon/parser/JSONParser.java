@@ -4,17 +4,23 @@ import org.slf4j.Logger;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SimpleTimeZone;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonEOFException;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import com.ibm.nmon.data.BasicDataSet;
@@ -22,6 +28,22 @@ import com.ibm.nmon.data.DataType;
 import com.ibm.nmon.data.DataRecord;
 import com.ibm.nmon.data.SubDataType;
 
+import com.ibm.nmon.util.FileHelper;
+
+/**
+ * <p>
+ * Parses JSON performance data. The file is read as a stream of tokens and each element of the <code>data</code> array
+ * is added to the data set as soon as it is read, so memory use does not depend on the size of the file. This requires
+ * <code>whenPattern</code> and <code>types</code> to be defined before <code>data</code>. If they are not, the data
+ * array is read into memory first.
+ * </p>
+ *
+ * <p>
+ * Newline delimited JSON is also supported. Data elements can follow the root object as separate objects, one per line,
+ * so data can be appended to an existing file. In this case the root object does not need a <code>data</code> field. An
+ * incomplete object at the end of the file is assumed to still be being written and is ignored.
+ * </p>
+ */
 public final class JSONParser {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(JSONParser.class);
 
@@ -30,6 +52,14 @@ public final class JSONParser {
     private BasicDataSet data = null;
     private SimpleDateFormat format = null;
 
+    // primary type ids, i.e. the fields in each data element that contain values
+    private final Set<String> typeIds = new java.util.HashSet<String>();
+
+    // values for the data element currently being parsed; either double[] or Map<String, double[]> for subtypes
+    private final Map<String, Object> values = new java.util.HashMap<String, Object>();
+
+    private int dataCount = 0;
+
     public BasicDataSet parse(File file) throws IOException, ParseException {
         return parse(file.getAbsolutePath());
     }
@@ -37,36 +67,149 @@ public final class JSONParser {
     public BasicDataSet parse(String filename) throws IOException, JsonParseException {
         long start = System.nanoTime();
 
-        try {
-            Map<String, Object> root = MAPPER.readValue(new java.io.File(filename),
-                    new TypeReference<Map<String, Object>>() {});
+        CountingInputStream in = new CountingInputStream(FileHelper.openStream(filename));
+        JsonParser parser = null;
 
+        try {
+            parser = MAPPER.getFactory().createParser(in);
             data = new BasicDataSet(filename);
 
-            Object temp = root.get("hostname");
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("root JSON value must be an object");
+            }
+
+            String hostname = null;
+            Object whenPattern = null;
+            Object timezone = null;
+            boolean hasTypes = false;
+            boolean hasData = false;
+
+            // data that was defined before whenPattern or types
+            JsonNode deferredData = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
 
-            if (temp == null) {
+                if ("hostname".equals(field)) {
+                    hostname = parser.getValueAsString();
+                }
+                else if ("whenPattern".equals(field)) {
+                    whenPattern = parser.readValueAs(Object.class);
+                }
+                else if ("timezone".equals(field)) {
+                    timezone = parser.readValueAs(Object.class);
+                }
+                else if ("metadata".equals(field)) {
+                    Map<String, String> metadata = parser.readValueAs(new TypeReference<Map<String, String>>() {});
+                    parseMetadata(metadata);
+                }
+                else if ("types".equals(field)) {
+                    List<Map<String, Object>> types = parser
+                            .readValueAs(new TypeReference<List<Map<String, Object>>>() {});
+                    parseTypes(types);
+                    hasTypes = true;
+                }
+                else if ("data".equals(field)) {
+                    hasData = parser.getCurrentToken() != JsonToken.VALUE_NULL;
+
+                    if (!hasData) {
+                        continue;
+                    }
+                    else if (hasTypes && (whenPattern != null)) {
+                        if (format == null) {
+                            format = parseDateFormat(whenPattern, timezone);
+                        }
+
+                        parseData(parser);
+                    }
+                    else {
+                        deferredData = parser.readValueAsTree();
+                    }
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (hostname == null) {
                 throw new IOException("field 'hostname' not found");
             }
 
-            data.setHostname((String) temp);
+            data.setHostname(hostname);
+
+            if (format == null) {
+                format = parseDateFormat(whenPattern, timezone);
+            }
+
+            if (!hasTypes) {
+                throw new IOException("'types' must be defined");
+            }
 
-            format = parseDateFormat(root.get("whenPattern"), root.get("timezone"));
+            if (deferredData != null) {
+                JsonParser deferred = MAPPER.treeAsTokens(deferredData);
 
-            parseMetadata(root.get("metadata"));
-            parseTypes(root.get("types"));
-            parseData(root.get("data"));
+                try {
+                    deferred.nextToken();
+                    parseData(deferred);
+                }
+                finally {
+                    deferred.close();
+                }
+            }
+
+            // newline delimited data elements after the root object
+            try {
+                JsonToken token = null;
+
+                while ((token = parser.nextToken()) != null) {
+                    if (token == JsonToken.START_OBJECT) {
+                        parseDatum(parser);
+                        hasData = true;
+                    }
+                    else {
+                        throw new IOException("data element must be an object, not " + token);
+                    }
+                }
+            }
+            catch (JsonParseException jpe) {
+                // only ignore errors caused by reaching the end of the file
+                if ((jpe instanceof JsonEOFException)
+                        || (in.ended && (parser.getCurrentLocation().getByteOffset() >= in.count))) {
+                    LOGGER.warn("ignoring incomplete data element at the end of '{}'", filename);
+                }
+                else {
+                    throw jpe;
+                }
+            }
+
+            if (!hasData) {
+                throw new IOException("'data' must be defined");
+            }
+
+            if (dataCount == 0) {
+                throw new IOException("at least one 'data' element must be defined");
+            }
 
             return data;
         }
         finally {
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Parse complete for {} in {}ms", data.getSourceFile(),
+                LOGGER.debug("Parse complete for {} in {}ms", data == null ? filename : data.getSourceFile(),
                         (System.nanoTime() - start) / 1000000.0d);
             }
 
+            if (parser != null) {
+                parser.close();
+            }
+
+            in.close();
+
             data = null;
             format = null;
+            typeIds.clear();
+            values.clear();
+            dataCount = 0;
         }
     }
 
@@ -106,11 +249,8 @@ public final class JSONParser {
         return format;
     }
 
-    private void parseMetadata(Object rawMetadata) {
-        if (rawMetadata != null) {
-            @SuppressWarnings("unchecked")
-            Map<String, String> metadata = (Map<String, String>) rawMetadata;
-
+    private void parseMetadata(Map<String, String> metadata) {
+        if (metadata != null) {
             for (String name : metadata.keySet()) {
                 data.setMetadata(name, metadata.get(name));
             }
@@ -118,13 +258,11 @@ public final class JSONParser {
     }
 
     @SuppressWarnings("unchecked")
-    private void parseTypes(Object rawTypes) throws IOException {
-        if (rawTypes == null) {
+    private void parseTypes(List<Map<String, Object>> types) throws IOException {
+        if (types == null) {
             throw new IOException("'types' must be defined");
         }
 
-        List<Map<String, Object>> types = (List<Map<String, Object>>) rawTypes;
-
         if (types.size() == 0) {
             throw new IOException("at least one 'type' must be defined");
         }
@@ -171,53 +309,132 @@ public final class JSONParser {
                 DataType dataType = new DataType(typeId, typeName, fieldsArray);
                 data.addType(dataType);
             }
+
+            typeIds.add(typeId);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void parseData(Object rawData) throws IOException {
-        if (rawData == null) {
-            throw new IOException("'data' must be defined");
+    // parser must be positioned at the start of the data array
+    private void parseData(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("'data' must be an array");
         }
 
-        List<Map<String, Object>> dataToParse = (List<Map<String, Object>>) rawData;
+        JsonToken token = null;
 
-        if ((dataToParse.size() == 0)) {
-            throw new IOException("at least one 'data' element must be defined");
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.START_OBJECT) {
+                parseDatum(parser);
+            }
+            else {
+                throw new IOException("data element must be an object, not " + token);
+            }
         }
+    }
 
-        for (Map<String, Object> datum : dataToParse) {
-            Object temp = datum.get("when");
+    // parser must be positioned at the start of the data element
+    private void parseDatum(JsonParser parser) throws IOException {
+        String timestamp = null;
+        values.clear();
 
-            if (temp == null) {
-                LOGGER.warn("'when' not defined for data record; it will be ignored. Previous time was '{}'",
-                        data.getRecordCount() == 0 ? "<null>" : format.format(new java.util.Date(data.getEndTime())));
-                continue;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+
+            if ("when".equals(field)) {
+                timestamp = parser.getValueAsString();
             }
+            else if (typeIds.contains(field)) {
+                if (token == JsonToken.START_ARRAY) {
+                    values.put(field, parseValues(parser));
+                }
+                else if (token == JsonToken.START_OBJECT) {
+                    Map<String, double[]> subtypes = new java.util.HashMap<String, double[]>();
 
-            long time = 0;
-            String timestamp = (String) temp;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String subtypeId = parser.getCurrentName();
 
-            try {
-                time = format.parse(timestamp).getTime();
+                        if (parser.nextToken() == JsonToken.START_ARRAY) {
+                            subtypes.put(subtypeId, parseValues(parser));
+                        }
+                        else {
+                            throw new IOException("values for subtype '" + subtypeId + "' of '" + field
+                                    + "' must be an array");
+                        }
+                    }
+
+                    values.put(field, subtypes);
+                }
+                else {
+                    // invalid, but keep the key so the warning is logged below
+                    values.put(field, Boolean.FALSE);
+                    parser.skipChildren();
+                }
             }
-            catch (ParseException pe) {
-                LOGGER.warn("cannot parse 'when' value '{}'; the data record will be ignored", temp);
-                continue;
+            else {
+                parser.skipChildren();
             }
+        }
+
+        ++dataCount;
+
+        if (timestamp == null) {
+            LOGGER.warn("'when' not defined for data record; it will be ignored. Previous time was '{}'",
+                    data.getRecordCount() == 0 ? "<null>" : format.format(new java.util.Date(data.getEndTime())));
+            return;
+        }
+
+        long time = 0;
+
+        try {
+            time = format.parse(timestamp).getTime();
+        }
+        catch (ParseException pe) {
+            LOGGER.warn("cannot parse 'when' value '{}'; the data record will be ignored", timestamp);
+            return;
+        }
+
+        DataRecord record = new DataRecord(time, timestamp);
+
+        for (DataType type : data.getTypes()) {
+            addTypeData(type, record);
+        }
+
+        data.addRecord(record);
+    }
+
+    // parser must be positioned at the start of the array; null values are converted to NaN
+    private double[] parseValues(JsonParser parser) throws IOException {
+        double[] doubleValues = new double[16];
+        int size = 0;
+
+        JsonToken token = null;
+
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            double value = 0;
 
-            DataRecord record = new DataRecord(time, timestamp);
+            if ((token == JsonToken.VALUE_NUMBER_INT) || (token == JsonToken.VALUE_NUMBER_FLOAT)) {
+                value = parser.getDoubleValue();
+            }
+            else if (token == JsonToken.VALUE_NULL) {
+                value = Double.NaN;
+            }
+            else {
+                throw new IOException("invalid value '" + parser.getText() + "' at "
+                        + parser.getCurrentLocation().getLineNr() + "; values must be numbers or null");
+            }
 
-            for (DataType type : data.getTypes()) {
-                parseTypeData(datum, type, record);
+            if (size == doubleValues.length) {
+                doubleValues = java.util.Arrays.copyOf(doubleValues, size * 2);
             }
 
-            data.addRecord(record);
+            doubleValues[size++] = value;
         }
+
+        return size == doubleValues.length ? doubleValues : java.util.Arrays.copyOf(doubleValues, size);
     }
 
-    @SuppressWarnings("unchecked")
-    private void parseTypeData(Map<String, Object> datum, DataType type, DataRecord record) {
+    private void addTypeData(DataType type, DataRecord record) {
         String typeId = type.getId();
         boolean isSubType = false;
 
@@ -226,7 +443,7 @@ public final class JSONParser {
             isSubType = true;
         }
 
-        Object temp = datum.get(typeId);
+        Object temp = values.get(typeId);
 
         if (temp == null) {
             LOGGER.warn("no data for type '{}' at time {}", typeId,
@@ -236,32 +453,18 @@ public final class JSONParser {
 
         if (isSubType) {
             if (temp instanceof Map) {
-                Map<String, Object> map = (Map<String, Object>) temp;
+                @SuppressWarnings("unchecked")
+                Map<String, double[]> map = (Map<String, double[]>) temp;
 
                 String subtypeId = ((SubDataType) type).getSubId();
-                temp = map.get(subtypeId);
+                double[] doubleValues = map.get(subtypeId);
 
-                if (temp == null) {
+                if (doubleValues == null) {
                     LOGGER.warn("no data for subtype '{}' at time {}", subtypeId,
                             format.format(new java.util.Date(record.getTime())));
                     return;
                 }
                 else {
-                    List<Number> values = (List<Number>) temp;
-
-                    double[] doubleValues = new double[values.size()];
-
-                    for (int i = 0; i < doubleValues.length; i++) {
-                        Number value = values.get(i);
-
-                        if (value == null) {
-                            doubleValues[i] = Double.NaN;
-                        }
-                        else {
-                            doubleValues[i] = value.doubleValue();
-                        }
-                    }
-
                     record.addData(type, doubleValues);
                 }
             }
@@ -271,28 +474,51 @@ public final class JSONParser {
             }
         }
         else {
-            if (temp instanceof List) {
-                List<Number> values = (List<Number>) temp;
+            if (temp instanceof double[]) {
+                record.addData(type, (double[]) temp);
+            }
+            else {
+                LOGGER.warn("unknown JSON object for type '{}' at time {}; it must be an array", typeId,
+                        format.format(new java.util.Date(record.getTime())));
+            }
+        }
+    }
 
-                double[] doubleValues = new double[values.size()];
+    // tracks how many bytes the JSON parser has read so errors at the end of the file can be detected
+    private static final class CountingInputStream extends java.io.FilterInputStream {
+        private long count = 0;
+        private boolean ended = false;
 
-                for (int i = 0; i < doubleValues.length; i++) {
-                    Number value = values.get(i);
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
 
-                    if (value == null) {
-                        doubleValues[i] = Double.NaN;
-                    }
-                    else {
-                        doubleValues[i] = value.doubleValue();
-                    }
-                }
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
 
-                record.addData(type, doubleValues);
+            if (b == -1) {
+                ended = true;
             }
             else {
-                LOGGER.warn("unknown JSON object for type '{}' at time {}; it must be an array", typeId,
-                        format.format(new java.util.Date(record.getTime())));
+                ++count;
             }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+
+            if (read == -1) {
+                ended = true;
+            }
+            else {
+                count += read;
+            }
+
+            return read;
         }
     }
 }
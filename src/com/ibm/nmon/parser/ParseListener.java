@@ -0,0 +1,13 @@
+package com.ibm.nmon.parser;
+
+/**
+ * Listener for files parsed by {@link com.ibm.nmon.NMONVisualizerApp#parseAll(java.util.Collection,
+ * java.util.TimeZone, ParseListener) NMONVisualizerApp.parseAll()}. Events are sent on the thread that called
+ * <code>parseAll()</code>, in the same order as the files were given.
+ */
+public interface ParseListener {
+    /**
+     * @param errors any messages logged while parsing the file or <code>null</code> if there were none
+     */
+    public void parseComplete(String fileToParse, String errors);
+}
@@ -4,9 +4,7 @@ import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.io.File;
-import java.io.FileReader;
 import java.io.LineNumberReader;
-import java.text.SimpleDateFormat;
 import java.text.ParseException;
 import java.util.List;
 import java.util.Map;
@@ -23,23 +21,27 @@ import com.ibm.nmon.data.Process;
 import com.ibm.nmon.data.transform.WindowsBytesTransform;
 import com.ibm.nmon.data.transform.WindowsNetworkPostProcessor;
 import com.ibm.nmon.data.transform.WindowsProcessPostProcessor;
+import com.ibm.nmon.parser.util.NumberParser;
 import com.ibm.nmon.util.DataHelper;
+import com.ibm.nmon.util.TimeCodec;
+import com.ibm.nmon.util.FileHelper;
 
 public final class PerfmonParser {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(PerfmonParser.class);
 
-    private static final SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
+    // MM/dd/yyyy HH:mm:ss
+    private final TimeCodec timestampFormat = new TimeCodec("MM/dd/yyyy", ' ', true);
 
     // older versions of Windows output CSV without "
-    private static final Pattern DATA_SPLITTER = Pattern.compile(",");
-    private static final Pattern DATA_SPLITTER_QUOTES = Pattern.compile("\",\"");
+    private static final String DATA_DELIMITER = ",";
+    private static final String DATA_DELIMITER_QUOTES = "\",\"";
 
     private static final Pattern SUBCATEGORY_SPLITTER = Pattern.compile(":");
     // "\\hostname\category (optional subcategory)\metric"
-    // note storing a matcher vs a pattern is _NOT_ thread safe
+    // note storing a matcher vs a pattern is _NOT_ thread safe; this is an instance field so each parser has its own
     // first group is non-greedy (.*?) to allow proper parsing of strings like
     // \\SYSTEM\Paging File(\??\D:\pagefile.sys)\% Usage
-    private static final Matcher METRIC_MATCHER = Pattern.compile("\\\\\\\\(.*?)\\\\(.*)\\\\(.*)\"?").matcher("");
+    private final Matcher metricMatcher = Pattern.compile("\\\\\\\\(.*?)\\\\(.*)\\\\(.*)\"?").matcher("");
 
     private LineNumberReader in = null;
 
@@ -47,11 +49,35 @@ public final class PerfmonParser {
 
     private final WindowsBytesTransform bytesTransform = new WindowsBytesTransform();
 
-    // builders for each column
-    private DataTypeBuilder[] buildersByColumn;
     // builders by type id
     private Map<String, DataTypeBuilder> buildersById = new java.util.HashMap<String, DataTypeBuilder>();
 
+    private DataTypeFilter filter = DataTypeFilter.ALL;
+    private boolean scaleProcessesByCPU = false;
+
+    // the parse plan, compiled from the header
+    // every builder with at least one column, in the order their DataTypes are built
+    private DataTypeBuilder[] slots;
+    // for each column, the index into slots and the index of the field in that slot's values; slot -1 => skip
+    private int[] columnSlots;
+    private int[] columnFields;
+    // values for each slot; reused for every row since DataSet copies the values
+    private double[][] slotValues;
+
+    // the current line, split into columns without creating any Strings
+    private String delimiter;
+    private String line;
+    private int[] columnStarts;
+    private int[] columnEnds;
+    private int columnCount;
+
+    /**
+     * Only parse the data accepted by the given filter. The filter applies to all files parsed after this call.
+     */
+    public void setFilter(DataTypeFilter filter) {
+        this.filter = filter == null ? DataTypeFilter.ALL : filter;
+    }
+
     public PerfmonDataSet parse(File file, boolean scaleProcessesByCPU) throws IOException, ParseException {
         return parse(file.getAbsolutePath(), scaleProcessesByCPU);
     }
@@ -59,27 +85,39 @@ public final class PerfmonParser {
     public PerfmonDataSet parse(String filename, boolean scaleProcessesByCPU) throws IOException, ParseException {
         long start = System.nanoTime();
 
+        this.scaleProcessesByCPU = scaleProcessesByCPU;
+
         data = new PerfmonDataSet(filename);
         data.setMetadata("OS", "Perfmon");
 
         try {
-            in = new LineNumberReader(new FileReader(filename));
+            in = new LineNumberReader(FileHelper.openReader(filename));
 
-            String line = in.readLine();
+            line = in.readLine();
 
             // assume all columns will be quoted if the first one is
-            Pattern splitter = null;
             if (line.startsWith("\"")) {
-                splitter = DATA_SPLITTER_QUOTES;
+                delimiter = DATA_DELIMITER_QUOTES;
             }
             else {
-                splitter = DATA_SPLITTER;
+                delimiter = DATA_DELIMITER;
+            }
+
+            columnStarts = new int[256];
+            columnEnds = new int[256];
+
+            split();
+
+            String[] header = new String[columnCount];
+
+            for (int i = 0; i < columnCount; i++) {
+                header[i] = getColumn(i);
             }
 
-            parseHeader(splitter.split(line));
+            parseHeader(header);
 
             while ((line = in.readLine()) != null) {
-                parseData(splitter.split(line));
+                parseData();
             }
 
             long postProcessStart = System.nanoTime();
@@ -126,14 +164,24 @@ public final class PerfmonParser {
             // columnTypes.clear();
             buildersById.clear();
             // processes.clear();
-            buildersByColumn = null;
+
+            slots = null;
+            columnSlots = null;
+            columnFields = null;
+            slotValues = null;
+
+            delimiter = null;
+            line = null;
+            columnStarts = null;
+            columnEnds = null;
+            columnCount = 0;
 
             bytesTransform.reset();
         }
     }
 
     private void parseHeader(String[] header) {
-        buildersByColumn = new DataTypeBuilder[header.length];
+        DataTypeBuilder[] buildersByColumn = new DataTypeBuilder[header.length];
 
         // remove trailing " or ,
         String lastData = header[header.length - 1];
@@ -151,7 +199,7 @@ public final class PerfmonParser {
         if (idx == -1) {
             LOGGER.warn("version header '{0}' is not in the right format, the time zone will default to UTC",
                     header[0]);
-            TIMESTAMP_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
+            timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
         }
         else {
             String temp = header[0].substring(idx + 1, header[0].length() - 1);
@@ -160,12 +208,12 @@ public final class PerfmonParser {
                 // timezone format in negative minutes from UTC
                 double offset = Integer.parseInt(temp) / -60.0d;
 
-                TIMESTAMP_FORMAT.setTimeZone(new java.util.SimpleTimeZone((int) (offset * 3600000), temp));
+                timestampFormat.setTimeZone(new java.util.SimpleTimeZone((int) (offset * 3600000), temp));
             }
             catch (NumberFormatException nfe) {
                 LOGGER.warn("version header '{0}' is not in the right format, the time zone will default to UTC",
                         header[0]);
-                TIMESTAMP_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
+                timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
             }
         }
 
@@ -174,27 +222,27 @@ public final class PerfmonParser {
         buildersByColumn[0] = null;
 
         // read the first column to get the hostname
-        METRIC_MATCHER.reset(header[1]);
+        metricMatcher.reset(header[1]);
 
-        if (METRIC_MATCHER.matches()) {
+        if (metricMatcher.matches()) {
             // assume hostname does not change
-            data.setHostname(METRIC_MATCHER.group(1).toLowerCase());
+            data.setHostname(metricMatcher.group(1).toLowerCase());
         }
         else {
             throw new IllegalArgumentException("hostname not found in '" + header[1] + "'");
         }
 
         for (int i = 1; i < header.length; i++) {
-            METRIC_MATCHER.reset(header[i]);
+            metricMatcher.reset(header[i]);
 
-            if (!METRIC_MATCHER.matches()) {
+            if (!metricMatcher.matches()) {
                 LOGGER.warn("'{}' is not a valid header column", header[i]);
                 buildersByColumn[i] = null;
                 continue;
             }
 
             // looking for type id (sub type id)
-            String toParse = METRIC_MATCHER.group(2);
+            String toParse = metricMatcher.group(2);
 
             String uniqueId = null;
             String id = null;
@@ -221,7 +269,14 @@ public final class PerfmonParser {
                 id = uniqueId = DataHelper.newString(toParse);
             }
 
-            String field = parseField(id, METRIC_MATCHER.group(3));
+            String field = parseField(id, metricMatcher.group(3));
+
+            boolean isProcess = data.getTypeIdPrefix().equals(id);
+
+            if (!isColumnNeeded(id, subId, uniqueId, field)) {
+                buildersByColumn[i] = null;
+                continue;
+            }
 
             DataTypeBuilder builder = buildersById.get(uniqueId);
 
@@ -230,7 +285,7 @@ public final class PerfmonParser {
                 buildersById.put(uniqueId, builder);
             }
 
-            if (data.getTypeIdPrefix().equals(id)) { // Process
+            if (isProcess) {
                 // skip Total and Idle processes
                 if ("Idle".equals(subId) || "Total".equals(subId)) {
                     buildersByColumn[i] = null;
@@ -250,79 +305,165 @@ public final class PerfmonParser {
                 builder.addField(field);
             }
         }
+
+        compilePlan(buildersByColumn);
+    }
+
+    // is the column accepted by the filter or needed to build another type that is?
+    private boolean isColumnNeeded(String id, String subId, String uniqueId, String field) {
+        if (data.getTypeIdPrefix().equals(id)) {
+            // processes are filtered as a whole
+            return filter.acceptProcesses();
+        }
+
+        // field name after the transforms in DataTypeBuilder.build()
+        if (bytesTransform.isValidFor(id, subId)) {
+            if (("LogicalDisk".equals(id) || "PhysicalDisk".equals(id)) && "% Free Space".equals(field)) {
+                field = "% Used Space";
+            }
+
+            field = bytesTransform.transformField(id, field);
+        }
+
+        if (filter.accept(uniqueId) && filter.accept(uniqueId, field)) {
+            return true;
+        }
+        else if ("Network Interface".equals(id)) {
+            // the total is calculated from all the interfaces; see WindowsNetworkPostProcessor
+            String total = SubDataType.buildId(id, "Total");
+
+            return filter.accept(total) && filter.accept(total, field);
+        }
+        else if ("Processor".equals(id) && !"Total".equals(subId)) {
+            // the number of active processors is used to scale process data; see WindowsProcessPostProcessor
+            return scaleProcessesByCPU && filter.acceptProcesses();
+        }
+        else {
+            return false;
+        }
+    }
+
+    // compile the parse plan; build order must match the iteration order of a HashMap keyed by unique type id, with
+    // ids added in column order, so artificial process ids are assigned in the same order as in earlier versions
+    private void compilePlan(DataTypeBuilder[] buildersByColumn) {
+        Map<String, DataTypeBuilder> buildOrder = new java.util.HashMap<String, DataTypeBuilder>();
+
+        for (int i = 1; i < buildersByColumn.length; i++) {
+            DataTypeBuilder builder = buildersByColumn[i];
+
+            if ((builder != null) && !buildOrder.containsKey(builder.unique)) {
+                buildOrder.put(builder.unique, builder);
+            }
+        }
+
+        slots = buildOrder.values().toArray(new DataTypeBuilder[buildOrder.size()]);
+        slotValues = new double[slots.length][];
+
+        Map<DataTypeBuilder, Integer> slotsByBuilder = new java.util.IdentityHashMap<DataTypeBuilder, Integer>();
+
+        for (int i = 0; i < slots.length; i++) {
+            slotsByBuilder.put(slots[i], i);
+            slotValues[i] = new double[slots[i].fields.size()];
+        }
+
+        columnSlots = new int[buildersByColumn.length];
+        columnFields = new int[buildersByColumn.length];
+
+        int[] nextField = new int[slots.length];
+
+        for (int i = 0; i < buildersByColumn.length; i++) {
+            DataTypeBuilder builder = buildersByColumn[i];
+
+            if (builder == null) {
+                columnSlots[i] = -1;
+            }
+            else {
+                int slot = slotsByBuilder.get(builder);
+
+                columnSlots[i] = slot;
+                columnFields[i] = nextField[slot]++;
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            int used = 0;
+
+            for (int slot : columnSlots) {
+                if (slot != -1) {
+                    ++used;
+                }
+            }
+
+            LOGGER.debug("parsing {} of {} columns into {} types", new Object[] { used, columnSlots.length - 1,
+                    slots.length });
+        }
     }
 
-    private void parseData(String[] rawData) {
-        if (rawData.length != buildersByColumn.length) {
+    private void parseData() {
+        split();
+
+        if (columnCount != columnSlots.length) {
             LOGGER.warn("invalid number of data columns at line {}, this data will be skipped", in.getLineNumber());
             return;
         }
 
         // remove trailing " or ,
-        String lastData = rawData[rawData.length - 1];
+        int last = columnCount - 1;
 
-        if (lastData.endsWith("\"")) {
-            rawData[rawData.length - 1] = lastData.substring(0, lastData.length() - 1);
-        }
-        else if (lastData.endsWith(",")) {
-            rawData[rawData.length - 1] = lastData.substring(0, lastData.length() - 2);
+        if (columnEnds[last] > columnStarts[last]) {
+            char c = line.charAt(columnEnds[last] - 1);
+
+            if (c == '"') {
+                columnEnds[last] -= 1;
+            }
+            else if (c == ',') {
+                columnEnds[last] = Math.max(columnStarts[last], columnEnds[last] - 2);
+            }
         }
 
         // remove leading " on timestamp
-        String timestamp = DataHelper.newString(rawData[0].substring(1));
+        String timestamp = DataHelper.newString(line.substring(columnStarts[0] + 1, columnEnds[0]));
         long time = 0;
 
         try {
-            time = TIMESTAMP_FORMAT.parse(timestamp).getTime();
+            time = timestampFormat.parse(timestamp);
         }
         catch (ParseException pe) {
             LOGGER.warn("invalid timestamp format at line {}, this data will be skipped", in.getLineNumber());
             return;
         }
 
-        Map<String, DataHolder> dataByType = new java.util.HashMap<String, DataHolder>();
+        for (int i = 1; i < columnCount; i++) {
+            int slot = columnSlots[i];
 
-        for (int i = 1; i < rawData.length; i++) {
-            DataTypeBuilder builder = buildersByColumn[i];
-
-            if (builder == null) {
+            if (slot == -1) {
                 continue;
             }
-            else {
-                DataHolder holder = dataByType.get(builder.unique);
-
-                if (holder == null) {
-                    holder = new DataHolder(builder.fields.size());
 
-                    dataByType.put(builder.unique, holder);
-                }
+            double value = Double.NaN;
 
-                try {
-                    holder.add(parseDouble(rawData[i]));
-                }
-                catch (NumberFormatException nfe) {
-                    LOGGER.warn("invalid double '{}' at line {}, column {}; it will be NaN", rawData[i],
-                            in.getLineNumber(), i + 1);
-                    holder.add(Double.NaN);
-                }
+            try {
+                value = parseDouble(line, columnStarts[i], columnEnds[i]);
+            }
+            catch (NumberFormatException nfe) {
+                LOGGER.warn("invalid double '{}' at line {}, column {}; it will be NaN", getColumn(i),
+                        in.getLineNumber(), i + 1);
             }
+
+            slotValues[slot][columnFields[i]] = value;
         }
 
         DataRecord record = new DataRecord(time, timestamp);
 
-        for (String unique : dataByType.keySet()) {
-            DataTypeBuilder builder = buildersById.get(unique);
-            DataHolder holder = dataByType.get(unique);
+        for (int i = 0; i < slots.length; i++) {
+            DataTypeBuilder builder = slots[i];
+            DataType type = builder.build(time);
 
-            DataType type = builder.build(time, rawData);
+            double[] values = slotValues[i];
 
-            double[] values = holder.data;
-
-            if (bytesTransform.isValidFor(builder.id, builder.subId)) {
-                if (type.hasField("% Used Space")) {
-                    int idx = type.getFieldIndex("% Used Space");
-
-                    values[idx] = 100 - values[idx];
+            if (builder.transformBytes) {
+                if (builder.usedSpaceIndex != -1) {
+                    values[builder.usedSpaceIndex] = 100 - values[builder.usedSpaceIndex];
                 }
 
                 values = bytesTransform.transform(type, values);
@@ -334,6 +475,47 @@ public final class PerfmonParser {
         data.addRecord(record);
     }
 
+    // split the current line into columns, with the same results as Pattern.split(), i.e. no trailing empty columns
+    private void split() {
+        int start = 0;
+        int n = 0;
+
+        while (true) {
+            int end = line.indexOf(delimiter, start);
+
+            if (end == -1) {
+                end = line.length();
+            }
+
+            if (n == columnStarts.length) {
+                columnStarts = java.util.Arrays.copyOf(columnStarts, n * 2);
+                columnEnds = java.util.Arrays.copyOf(columnEnds, n * 2);
+            }
+
+            columnStarts[n] = start;
+            columnEnds[n] = end;
+            ++n;
+
+            if (end == line.length()) {
+                break;
+            }
+
+            start = end + delimiter.length();
+        }
+
+        if (n > 1) {
+            while ((n > 0) && (columnStarts[n - 1] == columnEnds[n - 1])) {
+                --n;
+            }
+        }
+
+        columnCount = n;
+    }
+
+    private String getColumn(int i) {
+        return line.substring(columnStarts[i], columnEnds[i]);
+    }
+
     private String parseSubId(String id, String toParse) {
         // some ESXTop data need special handling
         if ("Interrupt Vector".equals(id)) {
@@ -364,12 +546,16 @@ public final class PerfmonParser {
     }
 
     private double parseDouble(String value) {
+        return parseDouble(value, 0, value.length());
+    }
+
+    private double parseDouble(String value, int start, int end) {
         // assume start with space, whole string is space (i.e. empty)
-        if (value.isEmpty() || (value.charAt(0) == ' ')) {
+        if ((start == end) || (value.charAt(start) == ' ')) {
             return Double.NaN;
         }
         else {
-            return Double.parseDouble(value);
+            return NumberParser.parseDouble(value, start, end);
         }
     }
 
@@ -433,7 +619,11 @@ public final class PerfmonParser {
             return unique.equals(o);
         }
 
-        DataType build(long startTime, String[] rawData) {
+        // set when the type is built
+        private boolean transformBytes;
+        private int usedSpaceIndex = -1;
+
+        DataType build(long startTime) {
             if (type != null) {
                 return type;
             }
@@ -442,7 +632,7 @@ public final class PerfmonParser {
             fields.toArray(fieldsArray);
 
             if (data.getTypeIdPrefix().equals(id)) { // Process
-                int pid = (int) (processIdColumn != -1 ? parseDouble(rawData[processIdColumn]) : 0);
+                int pid = (int) (processIdColumn != -1 ? parseDouble(getColumn(processIdColumn)) : 0);
                 String processName = subId; // store processes with full name
 
                 // parse out pid, if available via
@@ -508,21 +698,16 @@ public final class PerfmonParser {
             }
 
             data.addType(type);
-            return type;
-        }
-    }
 
-    // simple holder for field data as it is being read
-    private final class DataHolder {
-        private int nextIdx = 0;
-        private final double[] data;
+            if (bytesTransform.isValidFor(id, subId)) {
+                transformBytes = true;
 
-        DataHolder(int size) {
-            data = new double[size];
-        }
+                if (type.hasField("% Used Space")) {
+                    usedSpaceIndex = type.getFieldIndex("% Used Space");
+                }
+            }
 
-        void add(double d) {
-            data[nextIdx++] = d;
+            return type;
         }
     }
 }
@@ -7,25 +7,48 @@ import java.util.Map;
 
 import java.io.IOException;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 import java.util.TimeZone;
 
 import com.ibm.nmon.data.NMONDataSet;
 
+import com.ibm.nmon.util.FileHelper;
+
 /**
- * A parser for <code>topas -a</code> output. This serves as a bridge between Topas and NMON. This class takes the
- * output and converts it to a string that can be parsed by {@link NMONParser}.
+ * <p>
+ * A parser for <code>topas -a</code> output. This serves as a bridge between Topas and NMON. This class reorders the
+ * output into the same structure as an NMON file and streams it to {@link NMONParser}.
+ * </p>
+ *
+ * <p>
+ * The file is read twice. The first pass saves the header records and the position of the first data record for each
+ * header. The second pass reads one record for every timestamp from each of those positions, using positional reads on
+ * a single open file. Only the records for the current timestamp are held in memory.
+ * </p>
+ *
+ * <p>
+ * Compressed files cannot be read by position and are never written to disk. Instead, the file is decompressed again
+ * for each batch of timestamps and only the records for that batch are kept. A batch holds at most
+ * {@link #MAX_BATCH_SIZE} characters of records, so most files only need one or two more passes.
+ * </p>
  */
 public final class TopasOutParser {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(TopasOutParser.class);
 
+    // FileReader uses the default charset too
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    // characters of data records held in memory at once when rereading compressed files
+    private static final long MAX_BATCH_SIZE = 16 * 1024 * 1024;
+
     private final NMONParser nmonParser;
 
     public TopasOutParser(NMONParser nmonParser) {
@@ -35,49 +58,68 @@ public final class TopasOutParser {
     // topas -a outputs sorted data; unsort it by looking for the header records and outputting them first
     // once the ZZZZ records are parsed output them then all the corresponding data records for that timestamp
     public NMONDataSet parse(String filename, TimeZone timeZone, boolean scaleProcessesByCPU) throws IOException {
-        File file = new File(filename);
+        List<String> aaa = new java.util.ArrayList<String>(32);
+        List<String> headers = new java.util.ArrayList<String>(32);
 
-        BufferedReader in = null;
+        // LinkedHashMap so data is output in the same order as the headers were found
+        Map<String, Section> sections = new java.util.LinkedHashMap<String, Section>(32);
+        Section timestamps = new Section("ZZZZ");
 
-        StringWriter writer = null;
+        parseHeaders(new LineInputStream(FileHelper.openStream(filename), 64 * 1024), aaa, headers, timestamps,
+                sections);
 
-        try {
-            in = new BufferedReader(new FileReader(file));
-            writer = new StringWriter((int) file.length());
+        LOGGER.debug("found {} " + "data types", headers.size());
+        LOGGER.debug("found {} " + "ZZZZ timestamps", timestamps.count);
+        LOGGER.debug("found {} " + "data types", sections.size());
 
-            // LinkedHashMap so insertion order is maintained; removes need to reparse headers later
-            Map<String, List<String>> headersToLines = new java.util.LinkedHashMap<String, List<String>>(32);
+        if (FileHelper.isCompressed(filename)) {
+            return nmonParser.parse(filename, new CompressedTopasReader(filename, aaa, headers, timestamps,
+                    sections.values()), timeZone, scaleProcessesByCPU);
+        }
 
-            List<String> headers = new java.util.ArrayList<String>(32);
-            List<String> timestamps = new java.util.ArrayList<String>(128);
+        RandomAccessFile data = new RandomAccessFile(filename, "r");
 
+        try {
+            return nmonParser.parse(filename, new FileTopasReader(data.getChannel(), aaa, headers, timestamps,
+                    sections.values()), timeZone, scaleProcessesByCPU);
+        }
+        finally {
+            data.close();
+        }
+    }
+
+    private void parseHeaders(LineInputStream in, List<String> aaa, List<String> headers, Section timestamps,
+            Map<String, Section> sections) throws IOException {
+        try {
             String line = null;
 
             while ((line = in.readLine()) != null) {
-                int idx = line.indexOf(",");
+                int idx = line.indexOf(',');
+
+                if (idx == -1) {
+                    continue;
+                }
 
                 String header = line.substring(0, idx);
 
                 if ("AAA".equals(header)) {
-                    // put all the AAA records at the top by writing them out now
-                    writer.write(line);
-                    writer.write('\n');
+                    // put all the AAA records at the top
+                    aaa.add(line);
                 }
                 else if ("ZZZZ".equals(header)) {
-                    timestamps.add(line);
+                    timestamps.add(in.getLineStart(), line.length());
                 }
                 else {
-                    // save all the data by header name
-                    List<String> lines = headersToLines.get(header);
+                    Section section = sections.get(header);
 
-                    if (lines == null) {
+                    if (section == null) {
                         LOGGER.trace("found {} " + "header", header);
-                        lines = new java.util.ArrayList<String>(218);
-                        headersToLines.put(header, lines);
+                        section = new Section(header);
+                        sections.put(header, section);
                     }
 
-                    if (line.charAt(idx + 1) == 'T') {
-                        lines.add(line);
+                    if ((line.length() > (idx + 1)) && (line.charAt(idx + 1) == 'T')) {
+                        section.add(in.getLineStart(), line.length());
                     }
                     else {
                         if ("LPAR".equals(header)) {
@@ -89,39 +131,383 @@ public final class TopasOutParser {
                     }
                 }
             }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    // the data records for a single header; they are assumed to be sorted by timestamp but may not be contiguous
+    private static final class Section {
+        private final String header;
+
+        private long start = -1;
+        private int count = 0;
+        // total characters in all the records
+        private long size = 0;
+
+        Section(String header) {
+            this.header = header;
+        }
+
+        void add(long position, int length) {
+            if (start == -1) {
+                start = position;
+            }
+
+            ++count;
+            size += length;
+        }
 
-            LOGGER.debug("found {} " + "data types", headers.size());
-            LOGGER.debug("found {} " + "ZZZZ timestamps", timestamps.size());
-            LOGGER.debug("found {} " + "data types", headersToLines.size());
+        boolean matches(String line) {
+            int length = header.length();
 
-            for (String header : headers) {
-                writer.write(header);
-                writer.write('\n');
+            if ((line.length() <= length) || (line.charAt(length) != ',') || !line.startsWith(header)) {
+                return false;
             }
-            
-            // output each timestamp, then all the data for that time
-            // assume all arrays are the same size, i.e. there is data at each timestamp for all values
-            for (int i = 0; i < timestamps.size(); i++) {
-                writer.write(timestamps.get(i));
-                writer.write('\n');
+            else {
+                // ZZZZ is the only header without a T in the record
+                return "ZZZZ".equals(header) || ((line.length() > (length + 1)) && (line.charAt(length + 1) == 'T'));
+            }
+        }
+    }
+
+    // reads the records of a single section in order
+    private static final class SectionCursor {
+        private final Section section;
+        private final LineInputStream in;
+
+        private int remaining;
 
-                for (List<String> lines : headersToLines.values()) {
-                    writer.write(lines.get(i));
-                    writer.write('\n');
+        SectionCursor(FileChannel data, Section section) {
+            this.section = section;
+            this.remaining = section.count;
+
+            // many sections can be open at once so use a smaller buffer
+            this.in = new LineInputStream(new ChannelInputStream(data, section.start), 8 * 1024);
+        }
+
+        // null if there are no more records
+        String next() throws IOException {
+            if (remaining == 0) {
+                return null;
+            }
+
+            String line = null;
+
+            while ((line = in.readLine()) != null) {
+                if (section.matches(line)) {
+                    --remaining;
+                    return line;
                 }
             }
 
-            return nmonParser.parse(filename, new StringReader(writer.toString()), timeZone, scaleProcessesByCPU);
+            remaining = 0;
+            return null;
         }
-        finally {
-            if (in != null) {
+    }
+
+    // generates the NMON formatted text one timestamp at a time
+    private abstract static class TopasReader extends Reader {
+        private final StringBuilder buffer = new StringBuilder(8192);
+        private int position = 0;
+
+        TopasReader(List<String> aaa, List<String> headers) {
+            for (String line : aaa) {
+                buffer.append(line).append('\n');
+            }
+
+            for (String line : headers) {
+                buffer.append(line).append('\n');
+            }
+        }
+
+        // append the next timestamp, then all the data for that time; false if there are no more timestamps
+        protected abstract boolean fill(StringBuilder buffer) throws IOException;
+
+        @Override
+        public final int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (position == buffer.length()) {
+                buffer.setLength(0);
+                position = 0;
+
+                if (!fill(buffer)) {
+                    return -1;
+                }
+            }
+
+            int size = Math.min(len, buffer.length() - position);
+            buffer.getChars(position, position + size, cbuf, off);
+            position += size;
+
+            return size;
+        }
+    }
+
+    // reads each section from its own position in a single open file
+    private static final class FileTopasReader extends TopasReader {
+        private final List<SectionCursor> cursors;
+        private final SectionCursor timestamps;
+
+        FileTopasReader(FileChannel data, List<String> aaa, List<String> headers, Section timestamps,
+                Iterable<Section> sections) {
+            super(aaa, headers);
+
+            this.cursors = new java.util.ArrayList<SectionCursor>();
+
+            for (Section section : sections) {
+                if (section.count > 0) {
+                    cursors.add(new SectionCursor(data, section));
+                }
+            }
+
+            this.timestamps = timestamps.count > 0 ? new SectionCursor(data, timestamps) : null;
+        }
+
+        @Override
+        protected boolean fill(StringBuilder buffer) throws IOException {
+            String timestamp = timestamps == null ? null : timestamps.next();
+
+            if (timestamp == null) {
+                return false;
+            }
+
+            buffer.append(timestamp).append('\n');
+
+            for (SectionCursor cursor : cursors) {
+                String line = cursor.next();
+
+                if (line != null) {
+                    buffer.append(line).append('\n');
+                }
+            }
+
+            return true;
+        }
+
+        // the file is closed by parse()
+        @Override
+        public void close() {
+            cursors.clear();
+        }
+    }
+
+    // decompresses the whole file again for each batch of timestamps, keeping only the records in the batch
+    private static final class CompressedTopasReader extends TopasReader {
+        private final String filename;
+
+        // the timestamps are the first section
+        private final List<Section> sections = new java.util.ArrayList<Section>();
+        private final Map<String, Integer> sectionIndexes = new java.util.HashMap<String, Integer>();
+
+        private final int timestampCount;
+        private final int batchSize;
+
+        // records in the current batch, by section then by timestamp
+        private String[][] batch;
+        private int batchStart = 0;
+        private int batchEnd = 0;
+
+        // next timestamp to output
+        private int next = 0;
+
+        CompressedTopasReader(String filename, List<String> aaa, List<String> headers, Section timestamps,
+                Iterable<Section> sections) {
+            super(aaa, headers);
+
+            this.filename = filename;
+
+            this.sections.add(timestamps);
+            long size = timestamps.size;
+
+            for (Section section : sections) {
+                if (section.count > 0) {
+                    this.sections.add(section);
+                    size += section.size;
+                }
+            }
+
+            for (int i = 0; i < this.sections.size(); i++) {
+                sectionIndexes.put(this.sections.get(i).header, i);
+            }
+
+            this.timestampCount = timestamps.count;
+            this.batchSize = (int) Math.max(1,
+                    Math.min(timestampCount, MAX_BATCH_SIZE * timestampCount / Math.max(1, size)));
+
+            if (timestampCount > 0) {
+                LOGGER.debug("reading {} in {} passes of {} timestamps", filename,
+                        (timestampCount + batchSize - 1) / batchSize, batchSize);
+            }
+        }
+
+        @Override
+        protected boolean fill(StringBuilder buffer) throws IOException {
+            if (next == batchEnd) {
+                if (next == timestampCount) {
+                    return false;
+                }
+
+                readBatch();
+            }
+
+            int idx = next++ - batchStart;
+
+            for (String[] records : batch) {
+                if (records[idx] != null) {
+                    buffer.append(records[idx]).append('\n');
+                }
+            }
+
+            return true;
+        }
+
+        private void readBatch() throws IOException {
+            batchStart = next;
+            batchEnd = Math.min(timestampCount, batchStart + batchSize);
+            batch = new String[sections.size()][batchEnd - batchStart];
+
+            // records read so far for each section
+            int[] counts = new int[sections.size()];
+            int complete = 0;
+
+            LineInputStream in = new LineInputStream(FileHelper.openStream(filename), 64 * 1024);
+
+            try {
+                String line = null;
+
+                // stop once every section is past the batch
+                while ((complete < counts.length) && ((line = in.readLine()) != null)) {
+                    int idx = line.indexOf(',');
+
+                    if (idx == -1) {
+                        continue;
+                    }
+
+                    Integer s = sectionIndexes.get(line.substring(0, idx));
+
+                    if ((s == null) || !sections.get(s).matches(line)) {
+                        continue;
+                    }
+
+                    int record = counts[s]++;
+
+                    if ((record >= batchStart) && (record < batchEnd)) {
+                        batch[s][record - batchStart] = line;
+                    }
+
+                    if (counts[s] == Math.min(batchEnd, sections.get(s).count)) {
+                        ++complete;
+                    }
+                }
+            }
+            finally {
                 in.close();
             }
+        }
+
+        @Override
+        public void close() {
+            batch = null;
+        }
+    }
+
+    // reads a file from the given position; positional reads allow many streams to share the same channel
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
 
-            if (writer != null) {
-                writer.close();
+        ChannelInputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
             }
+
+            int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+
+            if (read > 0) {
+                position += read;
+            }
+
+            return read;
+        }
+    }
+
+    // reads lines like BufferedReader but also tracks the byte position of each line so the file can be reread
+    private static final class LineInputStream {
+        private final BufferedInputStream in;
+
+        private byte[] line = new byte[256];
+
+        private long position = 0;
+        private long lineStart = 0;
+
+        LineInputStream(InputStream in, int bufferSize) {
+            this.in = new BufferedInputStream(in, bufferSize);
         }
 
+        // same line terminators as BufferedReader: \n, \r or \r\n
+        String readLine() throws IOException {
+            lineStart = position;
+            int length = 0;
+            int b = -1;
+
+            while ((b = in.read()) != -1) {
+                ++position;
+
+                if (b == '\n') {
+                    break;
+                }
+                else if (b == '\r') {
+                    in.mark(1);
+
+                    if (in.read() == '\n') {
+                        ++position;
+                    }
+                    else {
+                        in.reset();
+                    }
+
+                    break;
+                }
+
+                if (length == line.length) {
+                    line = java.util.Arrays.copyOf(line, length * 2);
+                }
+
+                line[length++] = (byte) b;
+            }
+
+            if ((b == -1) && (length == 0)) {
+                return null;
+            }
+
+            return new String(line, 0, length, CHARSET);
+        }
+
+        // the position of the last line read, in bytes from the start of the stream
+        long getLineStart() {
+            return lineStart;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
     }
 }
@@ -22,6 +22,7 @@ import com.ibm.nmon.data.DataType;
 import com.ibm.nmon.data.SubDataType;
 
 import com.ibm.nmon.util.DataHelper;
+import com.ibm.nmon.util.FileHelper;
 
 /**
  * Parser for zpool's iostat command. Will parse the data from <code>zpool iostat SAN_ZPOOL -vTd</code>.
@@ -29,7 +30,8 @@ import com.ibm.nmon.util.DataHelper;
 public final class ZPoolIOStatParser {
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(ZPoolIOStatParser.class);
 
-    private static final SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy");
+    // not static since SimpleDateFormat is not thread safe
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy");
 
     private static final Pattern DATA_SPLITTER = Pattern.compile("\\s+");
 
@@ -63,10 +65,10 @@ public final class ZPoolIOStatParser {
         String line = null;
 
         try {
-            in = new LineNumberReader(new java.io.FileReader(filename));
+            in = new LineNumberReader(FileHelper.openReader(filename));
 
             while ((line = in.readLine()) != null) {
-                long time = TIMESTAMP_FORMAT.parse(line).getTime();
+                long time = timestampFormat.parse(line).getTime();
 
                 DataRecord record = new DataRecord(time, line);
 
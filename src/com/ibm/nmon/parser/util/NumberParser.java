@@ -0,0 +1,224 @@
+package com.ibm.nmon.parser.util;
+
+/**
+ * <p>
+ * Allocation free replacement for {@link Double#parseDouble(String)} and {@link String#split(String)} for the simple
+ * comma separated decimal values found in most performance data files.
+ * </p>
+ *
+ * <p>
+ * Plain decimals, i.e. an optional sign, digits and an optional decimal point, with at most 15 significant digits and
+ * at most 22 digits after the decimal point are converted directly. These values are exactly representable as a
+ * <code>long</code> divided by an exact power of 10, so the result is correctly rounded and always equal to
+ * <code>Double.parseDouble()</code>. Anything else, including exponents, whitespace and invalid data, falls back to
+ * <code>Double.parseDouble()</code> so the results and exceptions are the same.
+ * </p>
+ */
+public final class NumberParser {
+    // 10^0 to 10^22 are exact doubles
+    private static final double[] POWERS_OF_10 = new double[23];
+
+    // largest value that can be accumulated without losing precision
+    private static final long MAX_MANTISSA = (1L << 53) - 1;
+
+    static {
+        POWERS_OF_10[0] = 1;
+
+        for (int i = 1; i < POWERS_OF_10.length; i++) {
+            POWERS_OF_10[i] = POWERS_OF_10[i - 1] * 10;
+        }
+    }
+
+    public static double parseDouble(String value) {
+        double parsed = parseDecimal(value, 0, value.length());
+
+        if (parsed != parsed) {
+            // NaN => not a simple decimal
+            return Double.parseDouble(value);
+        }
+        else {
+            return parsed;
+        }
+    }
+
+    /**
+     * Parse the characters from <code>start</code> to <code>end</code> without creating a String, if possible.
+     */
+    public static double parseDouble(CharSequence value, int start, int end) {
+        double parsed = parseDecimal(value, start, end);
+
+        if (parsed != parsed) {
+            return Double.parseDouble(value.subSequence(start, end).toString());
+        }
+        else {
+            return parsed;
+        }
+    }
+
+    /**
+     * Parse the ASCII bytes from <code>start</code> to <code>end</code> as a plain decimal.
+     *
+     * @return the value or NaN if the bytes are not a plain decimal; callers must then decode the bytes and use
+     *         {@link #parseDouble(String)} to get the same result and exceptions
+     */
+    public static double parseDecimal(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+
+        if (i < end) {
+            byte b = bytes[i];
+
+            if (b == '-') {
+                negative = true;
+                ++i;
+            }
+            else if (b == '+') {
+                ++i;
+            }
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1; // -1 => no decimal point
+
+        for (; i < end; i++) {
+            byte b = bytes[i];
+
+            if ((b >= '0') && (b <= '9')) {
+                mantissa = mantissa * 10 + (b - '0');
+
+                if (mantissa > MAX_MANTISSA) {
+                    return Double.NaN;
+                }
+
+                ++digits;
+
+                if (fractionDigits >= 0) {
+                    ++fractionDigits;
+                }
+            }
+            else if ((b == '.') && (fractionDigits < 0)) {
+                fractionDigits = 0;
+            }
+            else {
+                return Double.NaN;
+            }
+        }
+
+        if ((digits == 0) || (fractionDigits >= POWERS_OF_10.length)) {
+            return Double.NaN;
+        }
+
+        double parsed = mantissa;
+
+        if (fractionDigits > 0) {
+            parsed /= POWERS_OF_10[fractionDigits];
+        }
+
+        return negative ? -parsed : parsed;
+    }
+
+    // NaN if the value is not a simple decimal
+    private static double parseDecimal(CharSequence value, int start, int end) {
+        int i = start;
+        boolean negative = false;
+
+        if (i < end) {
+            char c = value.charAt(i);
+
+            if (c == '-') {
+                negative = true;
+                ++i;
+            }
+            else if (c == '+') {
+                ++i;
+            }
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1; // -1 => no decimal point
+
+        for (; i < end; i++) {
+            char c = value.charAt(i);
+
+            if ((c >= '0') && (c <= '9')) {
+                mantissa = mantissa * 10 + (c - '0');
+
+                if (mantissa > MAX_MANTISSA) {
+                    return Double.NaN;
+                }
+
+                ++digits;
+
+                if (fractionDigits >= 0) {
+                    ++fractionDigits;
+                }
+            }
+            else if ((c == '.') && (fractionDigits < 0)) {
+                fractionDigits = 0;
+            }
+            else {
+                return Double.NaN;
+            }
+        }
+
+        if ((digits == 0) || (fractionDigits >= POWERS_OF_10.length)) {
+            return Double.NaN;
+        }
+
+        double parsed = mantissa;
+
+        if (fractionDigits > 0) {
+            parsed /= POWERS_OF_10[fractionDigits];
+        }
+
+        return negative ? -parsed : parsed;
+    }
+
+    /**
+     * Split a line on the given delimiter. The result is the same as {@link java.util.regex.Pattern#split(CharSequence)
+     * Pattern.split()} with a single character pattern, i.e. trailing empty values are removed.
+     */
+    public static String[] split(String line, char delimiter) {
+        int count = 1;
+        int length = line.length();
+
+        // remove trailing empty values
+        while ((length > 0) && (line.charAt(length - 1) == delimiter)) {
+            --length;
+        }
+
+        if (length == 0) {
+            // no delimiters at all => the line itself, otherwise all values are empty
+            return length == line.length() ? new String[] { line } : new String[0];
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) == delimiter) {
+                ++count;
+            }
+        }
+
+        if ((count == 1) && (length == line.length())) {
+            return new String[] { line };
+        }
+
+        String[] values = new String[count];
+        int start = 0;
+        int n = 0;
+
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) == delimiter) {
+                values[n++] = line.substring(start, i);
+                start = i + 1;
+            }
+        }
+
+        values[n] = line.substring(start, length);
+
+        return values;
+    }
+
+    private NumberParser() {}
+}
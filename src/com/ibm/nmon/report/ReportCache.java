@@ -27,6 +27,8 @@ import com.ibm.nmon.data.definition.NamingMode;
 import com.ibm.nmon.data.matcher.ExactFieldMatcher;
 import com.ibm.nmon.data.matcher.ExactTypeMatcher;
 
+import com.ibm.nmon.parser.DataTypeFilter;
+
 /**
  * A simple cache for storing 'reports', a list of parsed chart definitions. Reports are stored and retrieved using a
  * key, which can be any String. Cached reports can be filtered for a list of data sets to avoid creating charts that
@@ -98,6 +100,26 @@ public final class ReportCache {
         return toReturn;
     }
 
+    /**
+     * Get a filter that only accepts the data used by the reports with the given keys. Keys that are not found are
+     * ignored.
+     *
+     * @see ReportDataFilter
+     */
+    public DataTypeFilter getDataFilter(Iterable<String> keys) {
+        List<BaseChartDefinition> combined = new java.util.ArrayList<BaseChartDefinition>();
+
+        for (String key : keys) {
+            combined.addAll(getReport(key));
+        }
+
+        DataTypeFilter filter = new ReportDataFilter(combined);
+
+        LOGGER.debug("data filter for reports {}: {}", keys, filter);
+
+        return filter;
+    }
+
     /**
      * Get the report for the given key filtering based on a given data set. Charts that are not applicable to a host in
      * the data set will not be included in the returned list.
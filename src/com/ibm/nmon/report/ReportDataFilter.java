@@ -0,0 +1,156 @@
+package com.ibm.nmon.report;
+
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.nmon.chart.definition.BaseChartDefinition;
+
+import com.ibm.nmon.data.BasicDataSet;
+import com.ibm.nmon.data.DataType;
+
+import com.ibm.nmon.data.definition.DataDefinition;
+import com.ibm.nmon.data.definition.DefaultDataDefinition;
+
+import com.ibm.nmon.data.matcher.ExactTypeMatcher;
+import com.ibm.nmon.data.matcher.FieldMatcher;
+import com.ibm.nmon.data.matcher.ProcessMatcher;
+import com.ibm.nmon.data.matcher.RegexTypeMatcher;
+import com.ibm.nmon.data.matcher.TopProcessMatcher;
+import com.ibm.nmon.data.matcher.TypeMatcher;
+
+import com.ibm.nmon.parser.DataTypeFilter;
+
+/**
+ * <p>
+ * A {@link DataTypeFilter} that only accepts the data used by a set of chart definitions. Parsing with this filter
+ * means only the types and fields that can actually be charted are kept.
+ * </p>
+ *
+ * <p>
+ * Type ids are checked against each definition's {@link TypeMatcher} and fields against the corresponding
+ * {@link FieldMatcher}. Host matchers are ignored since the hostname is not known until the file is parsed. Definitions
+ * that cannot be checked without the parsed data, i.e. anything other than a {@link DefaultDataDefinition} using an
+ * exact, regex, process or all type matcher, accept all data.
+ * </p>
+ */
+public final class ReportDataFilter implements DataTypeFilter {
+    // the matchers used by each definition
+    private final List<TypeMatcher> typeMatchers = new java.util.ArrayList<TypeMatcher>();
+    private final List<FieldMatcher> fieldMatchers = new java.util.ArrayList<FieldMatcher>();
+
+    private boolean acceptAll = false;
+    private boolean acceptProcesses = false;
+
+    // matchers are not thread safe, so cache results and synchronize access
+    private final Map<String, Boolean> acceptedTypes = new java.util.HashMap<String, Boolean>();
+    private final Map<String, Boolean> acceptedFields = new java.util.HashMap<String, Boolean>();
+
+    public ReportDataFilter(Iterable<BaseChartDefinition> report) {
+        for (BaseChartDefinition chartDefinition : report) {
+            for (DataDefinition definition : chartDefinition.getData()) {
+                addDefinition(definition);
+            }
+        }
+    }
+
+    private void addDefinition(DataDefinition definition) {
+        if (!(definition instanceof DefaultDataDefinition)) {
+            acceptAll = true;
+            return;
+        }
+
+        DefaultDataDefinition defaultDefinition = (DefaultDataDefinition) definition;
+        TypeMatcher typeMatcher = defaultDefinition.getTypeMatcher();
+
+        if ((typeMatcher == ProcessMatcher.INSTANCE) || (typeMatcher instanceof TopProcessMatcher)) {
+            acceptProcesses = true;
+        }
+        else if ((typeMatcher == TypeMatcher.ALL) && (defaultDefinition.getFieldMatcher() == FieldMatcher.ALL)) {
+            acceptAll = true;
+        }
+        else if ((typeMatcher == TypeMatcher.ALL) || (typeMatcher instanceof ExactTypeMatcher)
+                || (typeMatcher instanceof RegexTypeMatcher)) {
+            typeMatchers.add(typeMatcher);
+            fieldMatchers.add(defaultDefinition.getFieldMatcher());
+        }
+        else {
+            acceptAll = true;
+        }
+    }
+
+    @Override
+    public synchronized boolean accept(String typeId) {
+        if (acceptAll) {
+            return true;
+        }
+
+        Boolean accepted = acceptedTypes.get(typeId);
+
+        if (accepted == null) {
+            accepted = false;
+            BasicDataSet scratch = createScratchData(typeId, typeId);
+
+            for (TypeMatcher matcher : typeMatchers) {
+                if (!matcher.getMatchingTypes(scratch).isEmpty()) {
+                    accepted = true;
+                    break;
+                }
+            }
+
+            acceptedTypes.put(typeId, accepted);
+        }
+
+        return accepted;
+    }
+
+    @Override
+    public synchronized boolean accept(String typeId, String field) {
+        if (acceptAll) {
+            return true;
+        }
+
+        String key = typeId + ':' + field;
+        Boolean accepted = acceptedFields.get(key);
+
+        if (accepted == null) {
+            accepted = false;
+            BasicDataSet scratch = createScratchData(typeId, field);
+            DataType type = scratch.getType(typeId);
+
+            for (int i = 0; i < typeMatchers.size(); i++) {
+                if (!typeMatchers.get(i).getMatchingTypes(scratch).isEmpty()
+                        && !fieldMatchers.get(i).getMatchingFields(type).isEmpty()) {
+                    accepted = true;
+                    break;
+                }
+            }
+
+            acceptedFields.put(key, accepted);
+        }
+
+        return accepted;
+    }
+
+    @Override
+    public boolean acceptProcesses() {
+        return acceptAll || acceptProcesses;
+    }
+
+    // matchers work on data sets, so use a data set that only contains the type being checked
+    private static BasicDataSet createScratchData(String typeId, String field) {
+        BasicDataSet scratch = new BasicDataSet(typeId);
+        scratch.addType(new DataType(typeId, typeId, field));
+
+        return scratch;
+    }
+
+    @Override
+    public String toString() {
+        if (acceptAll) {
+            return "$ALL";
+        }
+        else {
+            return "{types: " + typeMatchers + ", fields: " + fieldMatchers + ", processes: " + acceptProcesses + '}';
+        }
+    }
+}
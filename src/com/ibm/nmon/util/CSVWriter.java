@@ -6,9 +6,7 @@ import java.io.IOException;
 import java.io.Writer;
 
 import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 
-import com.ibm.nmon.data.DataRecord;
 import com.ibm.nmon.data.DataType;
 import com.ibm.nmon.data.DataSet;
 
@@ -25,7 +23,14 @@ import com.ibm.nmon.interval.Interval;
  * Helper class for writing CSV data to a Writer.
  */
 public final class CSVWriter {
-    private static final SimpleDateFormat DATETIME = new SimpleDateFormat("yyyy-MM-dd,HH:mm:ss");
+    // yyyy-MM-dd,HH:mm:ss; TimeCodec is not thread safe so use one per thread
+    private static final ThreadLocal<TimeCodec> DATETIME = new ThreadLocal<TimeCodec>() {
+        @Override
+        protected TimeCodec initialValue() {
+            return new TimeCodec("yyyy-MM-dd", ',', true);
+        }
+    };
+
     private static final DecimalFormat FORMAT = new DecimalFormat("0.000");
 
     static {
@@ -55,19 +60,23 @@ public final class CSVWriter {
         writer.write(builder.toString());
         builder.setLength(0);
 
-        for (DataRecord record : data.getRecords(interval)) {
-            builder.append(DATETIME.format(new java.util.Date(record.getTime())));
+        int end = data.getEndIndex(interval);
+
+        TimeCodec datetime = DATETIME.get();
+
+        for (int i = data.getStartIndex(interval); i < end; i++) {
+            datetime.format(data.getTime(i), builder);
             builder.append(',');
 
             for (DataType type : data.getTypes()) {
-                if (record.hasData(type)) {
-                    for (String field : type.getFields()) {
-                        builder.append(FORMAT.format(record.getData(type, field)));
+                if (data.hasData(i, type)) {
+                    for (int j = 0; j < type.getFieldCount(); j++) {
+                        builder.append(FORMAT.format(data.getData(i, type, j)));
                         builder.append(',');
                     }
                 }
                 else {
-                    for (int i = 0; i < type.getFieldCount(); i++) {
+                    for (int j = 0; j < type.getFieldCount(); j++) {
                         builder.append(',');
                     }
                 }
@@ -102,17 +111,27 @@ public final class CSVWriter {
         escape(fields.get(fields.size() - 1), writer);
         writer.write('\n');
 
-        for (DataRecord record : data.getRecords(interval)) {
-            writer.write(DATETIME.format(new java.util.Date(record.getTime())));
+        int[] fieldIndexes = new int[fields.size()];
+
+        for (int i = 0; i < fields.size(); i++) {
+            fieldIndexes[i] = type.getFieldIndex(fields.get(i));
+        }
+
+        int end = data.getEndIndex(interval);
+
+        TimeCodec datetime = DATETIME.get();
+
+        for (int index = data.getStartIndex(interval); index < end; index++) {
+            datetime.format(data.getTime(index), writer);
             writer.write(',');
 
-            if (record.hasData(type)) {
-                for (int i = 0; i < fields.size() - 1; i++) {
-                    writer.write(FORMAT.format(record.getData(type, fields.get(i))));
+            if (data.hasData(index, type)) {
+                for (int i = 0; i < fieldIndexes.length - 1; i++) {
+                    writer.write(FORMAT.format(data.getData(index, type, fieldIndexes[i])));
                     writer.write(',');
                 }
 
-                writer.write(FORMAT.format(record.getData(type, fields.get(fields.size() - 1))));
+                writer.write(FORMAT.format(data.getData(index, type, fieldIndexes[fieldIndexes.length - 1])));
             }
             else {
                 for (int i = 0; i < fields.size(); i++) {
@@ -130,14 +149,16 @@ public final class CSVWriter {
 
             writer.write("PID,Name,StartDate,StartTime,EndDate,EndTime,CommandLine\n");
 
+            TimeCodec datetime = DATETIME.get();
+
             for (Process process : processData.getProcesses()) {
                 writer.write(Integer.toString(process.getId()));
                 writer.write(',');
                 escape(process.getName(), writer);
                 writer.write(',');
-                writer.write(DATETIME.format(process.getStartTime()));
+                datetime.format(process.getStartTime(), writer);
                 writer.write(',');
-                writer.write(DATETIME.format(process.getEndTime()));
+                datetime.format(process.getEndTime(), writer);
                 writer.write(',');
                 writer.write('"');
                 escape(process.getCommandLine(), writer);
@@ -169,8 +190,10 @@ public final class CSVWriter {
         writer.write(data.getSeriesKey(seriesCount - 1).toString());
         writer.write('\n');
 
+        TimeCodec datetime = DATETIME.get();
+
         for (int i = 0; i < data.getItemCount(); i++) {
-            writer.write(DATETIME.format(data.getTimePeriod(i).getEnd()));
+            datetime.format(data.getTimePeriod(i).getEnd().getTime(), writer);
             writer.write(',');
 
             for (int j = 0; j < seriesCount - 1; j++) {
@@ -0,0 +1,123 @@
+package com.ibm.nmon.util;
+
+import java.lang.ref.SoftReference;
+
+import java.util.Set;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>
+ * Thread safe cache that computes the value for each key at most once, no matter how many threads request it at the
+ * same time. The first thread to request a key computes the value; other threads requesting the same key wait for that
+ * result. Threads requesting different keys never wait on each other.
+ * </p>
+ *
+ * <p>
+ * Values are held as SoftReference objects, so they are recomputed if the memory is reclaimed. If a computation throws
+ * an exception, it is thrown to all waiting threads and the key is removed so the next request tries again.
+ * </p>
+ */
+public abstract class ComputeOnceCache<K, V> {
+    // futures are soft referenced; running futures are always strongly referenced by the computing thread
+    private final ConcurrentMap<K, SoftReference<FutureTask<V>>> futures = new ConcurrentHashMap<K, SoftReference<FutureTask<V>>>();
+
+    /**
+     * Calculate the value for a key. Called at most once per key unless the value is {@link #remove(Object) removed}
+     * or reclaimed.
+     */
+    protected abstract V compute(K key);
+
+    public final V get(final K key) {
+        while (true) {
+            SoftReference<FutureTask<V>> futureRef = futures.get(key);
+            FutureTask<V> future = futureRef == null ? null : futureRef.get();
+
+            if (future == null) {
+                FutureTask<V> newFuture = new FutureTask<V>(new Callable<V>() {
+                    @Override
+                    public V call() {
+                        return compute(key);
+                    }
+                });
+
+                SoftReference<FutureTask<V>> newRef = new SoftReference<FutureTask<V>>(newFuture);
+
+                // valid SoftReference but the value has been GC'ed => replace it
+                boolean added = futureRef == null ? futures.putIfAbsent(key, newRef) == null : futures.replace(key,
+                        futureRef, newRef);
+
+                if (!added) {
+                    // another thread started computing first
+                    continue;
+                }
+
+                futureRef = newRef;
+                future = newFuture;
+                future.run();
+            }
+
+            try {
+                return getUninterruptibly(future);
+            }
+            catch (ExecutionException ee) {
+                futures.remove(key, futureRef);
+
+                Throwable cause = ee.getCause();
+
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                else {
+                    throw new IllegalStateException("cannot compute value for " + key, cause);
+                }
+            }
+        }
+    }
+
+    // waiting threads must get the result even if interrupted since the computation is not cancelled
+    private static <V> V getUninterruptibly(FutureTask<V> future) throws ExecutionException {
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                }
+                catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Remove the value for a key. Threads already waiting for the value still receive it.
+     */
+    public final void remove(K key) {
+        futures.remove(key);
+    }
+
+    public final void clear() {
+        futures.clear();
+    }
+
+    /**
+     * @return a live view of the cached keys; removing a key removes its value
+     */
+    public final Set<K> keys() {
+        return futures.keySet();
+    }
+}
@@ -105,6 +105,12 @@ public final class DataHelper {
         data.addProcess(aggregate);
         data.addType(aggregateType);
 
+        ProcessDataType[] processTypes = new ProcessDataType[processes.size()];
+
+        for (int i = 0; i < processTypes.length; i++) {
+            processTypes[i] = data.getType(processes.get(i));
+        }
+
         // for every record in the file, sum up all the data for each process and add the aggregated
         // data to the record
         for (DataRecord record : data.getRecords()) {
@@ -115,16 +121,14 @@ public final class DataHelper {
             // does any process have data at this time?
             boolean valid = false;
 
-            for (Process process : processes) {
-                processType = data.getType(process);
-
-                if (record.hasData(processType)) {
+            for (ProcessDataType type : processTypes) {
+                if (record.hasData(type)) {
                     valid = true;
 
                     int n = 0;
 
-                    for (String field : processType.getFields()) {
-                        totals[n++] += record.getData(processType, field);
+                    for (; n < type.getFieldCount(); n++) {
+                        totals[n] += record.getData(type, n);
                     }
 
                     // process count
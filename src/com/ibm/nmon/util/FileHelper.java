@@ -2,13 +2,30 @@ package com.ibm.nmon.util;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 
 import java.util.List;
 
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
 /**
- * Utility methods for recursive directory searches.
+ * <p>
+ * Utility methods for recursive directory searches and for reading compressed files.
+ * </p>
+ *
+ * <p>
+ * Files ending in <code>.gz</code> are decompressed as they are read. Each file in a zip archive is treated as a
+ * separate file named <code>archive.zip!/path/to/entry</code>; use {@link #getArchiveEntries(String)} to list them.
+ * Decompression runs on a separate thread, ahead of the code reading the data. No temporary files are created.
+ * </p>
  */
 public final class FileHelper {
+    private static final String ZIP_ENTRY_SEPARATOR = "!/";
+
     public static void recurseDirectories(File[] files, FileFilter filter, List<String> filenames) {
         for (int i = 0; i < files.length; i++) {
             if (files[i].isDirectory()) {
@@ -35,5 +52,149 @@ public final class FileHelper {
         }
     }
 
+    /**
+     * @return <code>true</code> if the file is a zip archive rather than a file in an archive
+     */
+    public static boolean isArchive(String filename) {
+        return filename.toLowerCase().endsWith(".zip") && !filename.contains(ZIP_ENTRY_SEPARATOR);
+    }
+
+    /**
+     * @return <code>true</code> if the file is gzipped or in a zip archive
+     */
+    public static boolean isCompressed(String filename) {
+        return filename.contains(ZIP_ENTRY_SEPARATOR) || filename.toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * Replace any zip archives in the list with the files they contain that are accepted by the given filter. Nested
+     * archives are ignored. Archives that cannot be read are left in the list so the error is reported when the file is
+     * parsed.
+     */
+    public static List<String> expandArchives(java.util.Collection<String> filenames, FileFilter filter) {
+        List<String> expanded = new java.util.ArrayList<String>(filenames.size());
+
+        for (String filename : filenames) {
+            if (isArchive(filename)) {
+                try {
+                    for (String entry : getArchiveEntries(filename)) {
+                        if (!entry.toLowerCase().endsWith(".zip") && filter.accept(new File(entry))) {
+                            expanded.add(entry);
+                        }
+                    }
+                }
+                catch (IOException ioe) {
+                    expanded.add(filename);
+                }
+            }
+            else {
+                expanded.add(filename);
+            }
+        }
+
+        return expanded;
+    }
+
+    /**
+     * @return the file name with any <code>.gz</code> extension removed; this name determines the type of the file
+     */
+    public static String getUncompressedName(String filename) {
+        if (filename.toLowerCase().endsWith(".gz")) {
+            return filename.substring(0, filename.length() - 3);
+        }
+        else {
+            return filename;
+        }
+    }
+
+    /**
+     * @return the names of all the files in the given archive, in the form <code>archive.zip!/path/to/entry</code>
+     */
+    public static List<String> getArchiveEntries(String archive) throws IOException {
+        List<String> entries = new java.util.ArrayList<String>();
+        ZipFile zip = new ZipFile(archive);
+
+        try {
+            java.util.Enumeration<? extends ZipEntry> e = zip.entries();
+
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+
+                if (!entry.isDirectory()) {
+                    entries.add(archive + ZIP_ENTRY_SEPARATOR + entry.getName());
+                }
+            }
+        }
+        finally {
+            zip.close();
+        }
+
+        return entries;
+    }
+
+    /**
+     * Open a file that may be compressed or in a zip archive. Data is decompressed on a separate thread.
+     */
+    public static InputStream openStream(String filename) throws IOException {
+        int idx = filename.indexOf(ZIP_ENTRY_SEPARATOR);
+
+        if (idx != -1) {
+            final ZipFile zip = new ZipFile(filename.substring(0, idx));
+            String entryName = filename.substring(idx + ZIP_ENTRY_SEPARATOR.length());
+            ZipEntry entry = zip.getEntry(entryName);
+
+            if (entry == null) {
+                zip.close();
+                throw new java.io.FileNotFoundException("'" + entryName + "' not found in " + zip.getName());
+            }
+
+            InputStream in = new java.io.FilterInputStream(zip.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    }
+                    finally {
+                        zip.close();
+                    }
+                }
+            };
+
+            if (entryName.toLowerCase().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 64 * 1024);
+            }
+
+            return new ReadAheadInputStream(in, filename);
+        }
+        else if (filename.toLowerCase().endsWith(".gz")) {
+            InputStream in = new java.io.FileInputStream(filename);
+
+            try {
+                return new ReadAheadInputStream(new GZIPInputStream(in, 64 * 1024), filename);
+            }
+            catch (IOException ioe) {
+                // not in gzip format
+                in.close();
+                throw ioe;
+            }
+        }
+        else {
+            return new java.io.FileInputStream(filename);
+        }
+    }
+
+    /**
+     * Open a file that may be compressed or in a zip archive using the default character set, like
+     * {@link java.io.FileReader}.
+     */
+    public static Reader openReader(String filename) throws IOException {
+        if (isCompressed(filename)) {
+            return new java.io.InputStreamReader(openStream(filename));
+        }
+        else {
+            return new java.io.FileReader(filename);
+        }
+    }
+
     private FileHelper() {}
 }
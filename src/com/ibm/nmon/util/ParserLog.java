@@ -22,16 +22,24 @@ import com.ibm.nmon.parser.NMONParser;
  * </p>
  * 
  * <p>
+ * The current file name and buffered messages are kept per thread, so files can be parsed in
+ * parallel as long as each file is parsed, and its messages retrieved, on a single thread.
+ * </p>
+ * 
+ * <p>
  * This class is a singleton to ensure that only on instance is added to the Logger for
  * 'com.ibm.nmon.parser' package.
  * </p>
  */
 public final class ParserLog extends Handler {
     private Logger logger;
-    private String currentFilename;
-    private StringWriter logBuffer;
 
-    private boolean hasData;
+    private final ThreadLocal<ThreadState> state = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
 
     private ParserLog() {
         // note the parser package, not this class' package
@@ -43,10 +51,6 @@ public final class ParserLog extends Handler {
 
         // but expose SLF4J logger
         logger = org.slf4j.LoggerFactory.getLogger(loggerName);
-
-        currentFilename = "";
-        logBuffer = new StringWriter(512);
-        hasData = false;
     }
 
     private static final ParserLog INSTANCE = new ParserLog();
@@ -57,22 +61,17 @@ public final class ParserLog extends Handler {
 
     @Override
     public void close() {
-        try {
-            logBuffer.close();
-        }
-        catch (java.io.IOException ioe) {
-            // ignore
-        }
-        finally {
-            logBuffer = null;
-        }
+        state.remove();
     }
 
     @Override
     public void flush() {}
 
     @Override
-    public synchronized void publish(LogRecord record) {
+    public void publish(LogRecord record) {
+        ThreadState current = state.get();
+        StringWriter logBuffer = current.logBuffer;
+
         logBuffer.append(record.getLevel().getName());
         logBuffer.append("  ");
         logBuffer.append(record.getMessage());
@@ -85,38 +84,41 @@ public final class ParserLog extends Handler {
             pw.close();
         }
 
-        hasData = true;
+        current.hasData = true;
     }
 
     public Logger getLogger() {
         return logger;
     }
 
-    public synchronized boolean hasData() {
-        return hasData;
+    public boolean hasData() {
+        return state.get().hasData;
     }
 
-    public synchronized String getCurrentFilename() {
-        return currentFilename;
+    public String getCurrentFilename() {
+        return state.get().currentFilename;
     }
 
-    public synchronized void setCurrentFilename(String currentFilename) {
+    public void setCurrentFilename(String currentFilename) {
         if (currentFilename == null) {
-            this.currentFilename = "";
+            state.get().currentFilename = "";
         }
         else {
-            this.currentFilename = currentFilename;
+            state.get().currentFilename = currentFilename;
         }
     }
 
-    public synchronized String getMessages() {
-        String toReturn = logBuffer.toString();
-        close();
-
-        currentFilename = "";
-        logBuffer = new StringWriter(512);
-        hasData = false;
+    public String getMessages() {
+        String toReturn = state.get().logBuffer.toString();
+        state.remove();
 
         return toReturn;
     }
+
+    private static final class ThreadState {
+        private String currentFilename = "";
+        private StringWriter logBuffer = new StringWriter(512);
+
+        private boolean hasData = false;
+    }
 }
@@ -0,0 +1,304 @@
+package com.ibm.nmon.util;
+
+/**
+ * <p>
+ * A compact, mergeable summary of a set of values that can estimate any quantile with a bounded relative error.
+ * </p>
+ *
+ * <p>
+ * Values are counted in logarithmically sized buckets where each bucket's upper bound is <code>gamma</code> times its
+ * lower bound. Any quantile is returned as the midpoint of its bucket, so the estimate is always within the given
+ * relative accuracy of the actual value. Only buckets that contain values are stored. The count of a bucket does not
+ * depend on the order values are added, so merging sketches gives exactly the same result as adding all the values to
+ * a single sketch.
+ * </p>
+ *
+ * <p>
+ * Zero, and values smaller than {@link #MIN_VALUE} in magnitude, are counted separately. NaN values are ignored.
+ * </p>
+ */
+public final class QuantileSketch {
+    public static final double DEFAULT_ACCURACY = 0.01;
+
+    // smallest magnitude that is counted in a bucket rather than as zero
+    public static final double MIN_VALUE = 1e-9;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+    private long zeroCount = 0;
+
+    private long count = 0;
+    private double minimum = Double.POSITIVE_INFINITY;
+    private double maximum = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    /**
+     * @param relativeAccuracy the maximum relative error of any quantile; must be between 0 and 1, exclusive
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (!((relativeAccuracy > 0) && (relativeAccuracy < 1))) {
+            throw new IllegalArgumentException("relative accuracy must be between 0 and 1");
+        }
+
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    public void add(double value, long times) {
+        if ((value != value) || (times <= 0)) {
+            return;
+        }
+
+        if (value >= MIN_VALUE) {
+            positive.add(getIndex(value), times);
+        }
+        else if (value <= -MIN_VALUE) {
+            negative.add(getIndex(-value), times);
+        }
+        else {
+            zeroCount += times;
+        }
+
+        count += times;
+
+        if (value < minimum) {
+            minimum = value;
+        }
+
+        if (value > maximum) {
+            maximum = value;
+        }
+    }
+
+    /**
+     * Add all the values in another sketch to this one. Both sketches must have the same relative accuracy.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("cannot merge a sketch with relative accuracy " + other.relativeAccuracy
+                    + " into a sketch with relative accuracy " + relativeAccuracy);
+        }
+
+        if (other.count == 0) {
+            return;
+        }
+
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+
+        count += other.count;
+        minimum = Math.min(minimum, other.minimum);
+        maximum = Math.max(maximum, other.maximum);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return the smallest value added, exactly, or NaN if the sketch is empty
+     */
+    public double getMinimum() {
+        return count == 0 ? Double.NaN : minimum;
+    }
+
+    /**
+     * @return the largest value added, exactly, or NaN if the sketch is empty
+     */
+    public double getMaximum() {
+        return count == 0 ? Double.NaN : maximum;
+    }
+
+    /**
+     * Estimate a quantile using the nearest rank definition, i.e. the smallest value where at least
+     * <code>quantile * count</code> values are less than or equal to it.
+     *
+     * @param quantile between 0 and 1, inclusive
+     * @return the estimated value or NaN if the sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        if ((quantile < 0) || (quantile > 1)) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        }
+
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        // nearest rank, zero based
+        long rank = (long) Math.ceil(quantile * count) - 1;
+
+        if (rank < 0) {
+            rank = 0;
+        }
+
+        double value;
+
+        if (rank < negative.total) {
+            // negative buckets in descending order of magnitude
+            value = -getValue(negative.getIndexFromEnd(rank));
+        }
+        else if (rank < (negative.total + zeroCount)) {
+            value = 0;
+        }
+        else {
+            value = getValue(positive.getIndex(rank - negative.total - zeroCount));
+        }
+
+        // the actual minimum and maximum are known so never return values outside of them
+        return Math.max(minimum, Math.min(maximum, value));
+    }
+
+    /**
+     * Release any unused space. Values can still be added afterwards.
+     */
+    public void trimToSize() {
+        positive.trimToSize();
+        negative.trimToSize();
+    }
+
+    private int getIndex(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    // midpoint of the bucket, i.e. within relativeAccuracy of every value in it
+    private double getValue(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    // sorted bucket indexes with their counts
+    private static final class Buckets {
+        private static final int[] EMPTY_INDEXES = new int[0];
+        private static final long[] EMPTY_COUNTS = new long[0];
+
+        private int[] indexes = EMPTY_INDEXES;
+        private long[] counts = EMPTY_COUNTS;
+        private int size = 0;
+
+        private long total = 0;
+
+        void add(int index, long times) {
+            int i = java.util.Arrays.binarySearch(indexes, 0, size, index);
+
+            if (i < 0) {
+                i = -(i + 1);
+
+                if (size == indexes.length) {
+                    int newLength = Math.max(4, size + (size >> 1) + 1);
+
+                    indexes = java.util.Arrays.copyOf(indexes, newLength);
+                    counts = java.util.Arrays.copyOf(counts, newLength);
+                }
+
+                System.arraycopy(indexes, i, indexes, i + 1, size - i);
+                System.arraycopy(counts, i, counts, i + 1, size - i);
+
+                indexes[i] = index;
+                counts[i] = 0;
+
+                ++size;
+            }
+
+            counts[i] += times;
+            total += times;
+        }
+
+        void merge(Buckets other) {
+            if (other.size == 0) {
+                return;
+            }
+            else if (size == 0) {
+                indexes = java.util.Arrays.copyOf(other.indexes, other.size);
+                counts = java.util.Arrays.copyOf(other.counts, other.size);
+                size = other.size;
+                total = other.total;
+
+                return;
+            }
+
+            int[] mergedIndexes = new int[size + other.size];
+            long[] mergedCounts = new long[size + other.size];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+
+            while ((i < size) || (j < other.size)) {
+                if ((j == other.size) || ((i < size) && (indexes[i] < other.indexes[j]))) {
+                    mergedIndexes[n] = indexes[i];
+                    mergedCounts[n++] = counts[i++];
+                }
+                else if ((i == size) || (other.indexes[j] < indexes[i])) {
+                    mergedIndexes[n] = other.indexes[j];
+                    mergedCounts[n++] = other.counts[j++];
+                }
+                else {
+                    mergedIndexes[n] = indexes[i];
+                    mergedCounts[n++] = counts[i++] + other.counts[j++];
+                }
+            }
+
+            indexes = mergedIndexes;
+            counts = mergedCounts;
+            size = n;
+            total += other.total;
+        }
+
+        // index of the bucket holding the given rank, counting up from the smallest index
+        int getIndex(long rank) {
+            long seen = 0;
+
+            for (int i = 0; i < size; i++) {
+                seen += counts[i];
+
+                if (rank < seen) {
+                    return indexes[i];
+                }
+            }
+
+            return indexes[size - 1];
+        }
+
+        // index of the bucket holding the given rank, counting down from the largest index
+        int getIndexFromEnd(long rank) {
+            long seen = 0;
+
+            for (int i = size - 1; i >= 0; i--) {
+                seen += counts[i];
+
+                if (rank < seen) {
+                    return indexes[i];
+                }
+            }
+
+            return indexes[0];
+        }
+
+        void trimToSize() {
+            if (size < indexes.length) {
+                indexes = size == 0 ? EMPTY_INDEXES : java.util.Arrays.copyOf(indexes, size);
+                counts = size == 0 ? EMPTY_COUNTS : java.util.Arrays.copyOf(counts, size);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.ibm.nmon.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * InputStream that reads another stream on a separate thread. Reading is limited to a small number of blocks ahead of
+ * the caller. This allows expensive streams, like decompression, to overlap with parsing.
+ */
+final class ReadAheadInputStream extends InputStream {
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int MAX_BLOCKS = 16;
+
+    // end of stream marker
+    private static final byte[] END = new byte[0];
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(MAX_BLOCKS);
+    private final Thread reader;
+
+    // set by the reader thread before END is queued
+    private volatile IOException error;
+
+    private byte[] current = null;
+    private int position = 0;
+
+    private boolean closed = false;
+
+    ReadAheadInputStream(InputStream source, String name) {
+        this.source = source;
+
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        }, "ReadAhead-" + name);
+
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readAhead() {
+        try {
+            while (true) {
+                byte[] block = new byte[BLOCK_SIZE];
+                int size = 0;
+
+                // fill each block completely so small reads do not create small blocks
+                while (size < BLOCK_SIZE) {
+                    int read = source.read(block, size, BLOCK_SIZE - size);
+
+                    if (read == -1) {
+                        break;
+                    }
+
+                    size += read;
+                }
+
+                if (size > 0) {
+                    blocks.put(size == BLOCK_SIZE ? block : java.util.Arrays.copyOf(block, size));
+                }
+
+                if (size < BLOCK_SIZE) {
+                    blocks.put(END);
+                    break;
+                }
+            }
+        }
+        catch (IOException ioe) {
+            error = ioe;
+
+            try {
+                blocks.put(END);
+            }
+            catch (InterruptedException ie) {
+                // closed
+            }
+        }
+        catch (InterruptedException ie) {
+            // closed before the end of the stream
+        }
+        finally {
+            try {
+                source.close();
+            }
+            catch (IOException ioe) {
+                // ignore
+            }
+        }
+    }
+
+    // false at the end of the stream
+    private boolean nextBlock() throws IOException {
+        if (current == END) {
+            return false;
+        }
+
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+
+        try {
+            current = blocks.take();
+            position = 0;
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("interrupted while reading");
+        }
+
+        if (current == END) {
+            if (error != null) {
+                throw error;
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ((current == null) || (position == current.length)) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if ((current == null) || (position == current.length)) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+
+        int size = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, size);
+        position += size;
+
+        return size;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+
+            // stop the reader; it closes the source stream
+            reader.interrupt();
+            blocks.clear();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.ibm.nmon.util;
+
+import java.io.IOException;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * <p>
+ * Parses and formats date times where the time of day is always <code>HH:mm:ss</code>, like NMON's ZZZZ records or
+ * CSV time columns. Full date parsing is only done when the date changes. Times on the same day are calculated from
+ * the start of the day, and formatting needs no allocation at all.
+ * </p>
+ *
+ * <p>
+ * Results are always the same as the equivalent {@link SimpleDateFormat}. Days where the time zone offset changes,
+ * along with any times not in exactly <code>HH:mm:ss</code> format, fall back to the full format.
+ * </p>
+ *
+ * <p>
+ * Like SimpleDateFormat, this class is <em>not</em> thread safe. Use one instance per thread.
+ * </p>
+ */
+public final class TimeCodec {
+    private static final long MILLIS_PER_DAY = 86400000;
+
+    // offsets are checked this often when deciding if a day can use the fast path
+    private static final long OFFSET_CHECK_INTERVAL = 900000;
+
+    // formatting only uses the fast path for years 1 to 9999; adding the offset cannot overflow in this range
+    private static final long MIN_FORMAT_TIME = -62135769600000L;
+    private static final long MAX_FORMAT_TIME = 253402300799999L;
+
+    private final SimpleDateFormat dateFormat;
+    private final SimpleDateFormat fullFormat;
+
+    private final char separator;
+    private final boolean dateFirst;
+
+    private TimeZone timeZone;
+
+    // parse cache; dayStart is Long.MIN_VALUE if times on the last date must be fully parsed
+    private String lastDate;
+    private long dayStart;
+
+    // format cache; the local day, counting from the epoch, and its formatted date
+    private long formattedDay = Long.MIN_VALUE;
+    private String formattedDate;
+
+    public TimeCodec(String datePattern, char separator, boolean dateFirst) {
+        this(datePattern, separator, dateFirst, Locale.getDefault());
+    }
+
+    /**
+     * @param datePattern the {@link SimpleDateFormat} pattern for the date portion; it must only contain date fields
+     *        and must not contain the separator
+     * @param separator the character between the date and the time
+     * @param dateFirst does the date come before or after the time?
+     */
+    public TimeCodec(String datePattern, char separator, boolean dateFirst, Locale locale) {
+        this.dateFormat = new SimpleDateFormat(datePattern, locale);
+        this.fullFormat = new SimpleDateFormat(dateFirst ? datePattern + separator + "HH:mm:ss" : "HH:mm:ss"
+                + separator + datePattern, locale);
+
+        this.separator = separator;
+        this.dateFirst = dateFirst;
+
+        setTimeZone(dateFormat.getTimeZone());
+    }
+
+    public TimeZone getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(TimeZone timeZone) {
+        this.timeZone = timeZone;
+
+        dateFormat.setTimeZone(timeZone);
+        fullFormat.setTimeZone(timeZone);
+
+        lastDate = null;
+        formattedDay = Long.MIN_VALUE;
+        formattedDate = null;
+    }
+
+    /**
+     * Parse a date time containing both the date and time, separated by the separator.
+     */
+    public long parse(String text) throws ParseException {
+        int idx = dateFirst ? text.indexOf(separator) : (text.length() > 8 ? 8 : -1);
+
+        if ((idx == -1) || (text.charAt(idx) != separator)) {
+            return fullFormat.parse(text).getTime();
+        }
+        else if (dateFirst) {
+            return parse(text.substring(0, idx), text.substring(idx + 1), text);
+        }
+        else {
+            return parse(text.substring(idx + 1), text.substring(0, idx), text);
+        }
+    }
+
+    /**
+     * Parse a date time where the date and time are already separate.
+     */
+    public long parse(String date, String time) throws ParseException {
+        return parse(date, time, null);
+    }
+
+    private long parse(String date, String time, String text) throws ParseException {
+        int secondOfDay = parseTimeOfDay(time);
+
+        if (secondOfDay < 0) {
+            return fullParse(date, time, text);
+        }
+
+        if (!date.equals(lastDate)) {
+            lastDate = date;
+            dayStart = Long.MIN_VALUE;
+
+            try {
+                long start = dateFormat.parse(date).getTime();
+
+                if (hasConstantOffset(start)) {
+                    // verify the fast path against the full format for the first time on each day
+                    if ((start + secondOfDay * 1000L) == fullParse(date, time, text)) {
+                        dayStart = start;
+                    }
+                }
+            }
+            catch (ParseException pe) {
+                // fall through to full parse
+            }
+        }
+
+        if (dayStart == Long.MIN_VALUE) {
+            return fullParse(date, time, text);
+        }
+        else {
+            return dayStart + secondOfDay * 1000L;
+        }
+    }
+
+    private long fullParse(String date, String time, String text) throws ParseException {
+        if (text == null) {
+            text = dateFirst ? date + separator + time : time + separator + date;
+        }
+
+        return fullFormat.parse(text).getTime();
+    }
+
+    private boolean hasConstantOffset(long start) {
+        int offset = timeZone.getOffset(start);
+
+        // check a little past the end in case the day is longer than usual
+        long end = start + MILLIS_PER_DAY + 3600000;
+
+        for (long t = start + OFFSET_CHECK_INTERVAL; t <= end; t += OFFSET_CHECK_INTERVAL) {
+            if (timeZone.getOffset(t) != offset) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // HH:mm:ss to seconds or -1 if the time is in any other format; SimpleDateFormat ignores anything after the seconds
+    private static int parseTimeOfDay(String time) {
+        if ((time.length() < 8) || (time.charAt(2) != ':') || (time.charAt(5) != ':')) {
+            return -1;
+        }
+
+        if ((time.length() > 8) && Character.isDigit(time.charAt(8))) {
+            return -1;
+        }
+
+        int hours = parseTwoDigits(time, 0);
+        int minutes = parseTwoDigits(time, 3);
+        int seconds = parseTwoDigits(time, 6);
+
+        if ((hours < 0) || (hours > 23) || (minutes < 0) || (minutes > 59) || (seconds < 0) || (seconds > 59)) {
+            return -1;
+        }
+
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    private static int parseTwoDigits(String s, int idx) {
+        char tens = s.charAt(idx);
+        char ones = s.charAt(idx + 1);
+
+        if ((tens < '0') || (tens > '9') || (ones < '0') || (ones > '9')) {
+            return -1;
+        }
+
+        return (tens - '0') * 10 + (ones - '0');
+    }
+
+    /**
+     * Format a time, in the same format used for parsing, without creating any intermediate objects.
+     */
+    public void format(long time, Appendable out) throws IOException {
+        // e.g. Long.MAX_VALUE for processes with no end time
+        if ((time < MIN_FORMAT_TIME) || (time > MAX_FORMAT_TIME)) {
+            out.append(fullFormat.format(new java.util.Date(time)));
+            return;
+        }
+
+        long local = time + timeZone.getOffset(time);
+        long day = local / MILLIS_PER_DAY;
+        long millisOfDay = local % MILLIS_PER_DAY;
+
+        if (millisOfDay < 0) {
+            --day;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+
+        if (day != formattedDay) {
+            formattedDate = dateFormat.format(new java.util.Date(time));
+            formattedDay = day;
+        }
+
+        if (dateFirst) {
+            out.append(formattedDate);
+            out.append(separator);
+            appendTimeOfDay((int) (millisOfDay / 1000), out);
+        }
+        else {
+            appendTimeOfDay((int) (millisOfDay / 1000), out);
+            out.append(separator);
+            out.append(formattedDate);
+        }
+    }
+
+    public String format(long time) {
+        StringBuilder builder = new StringBuilder(32);
+
+        try {
+            format(time, builder);
+        }
+        catch (IOException ioe) {
+            // cannot happen with a StringBuilder
+        }
+
+        return builder.toString();
+    }
+
+    private static void appendTimeOfDay(int secondOfDay, Appendable out) throws IOException {
+        appendTwoDigits(secondOfDay / 3600, out);
+        out.append(':');
+        appendTwoDigits((secondOfDay / 60) % 60, out);
+        out.append(':');
+        appendTwoDigits(secondOfDay % 60, out);
+    }
+
+    private static void appendTwoDigits(int value, Appendable out) throws IOException {
+        out.append((char) ('0' + (value / 10)));
+        out.append((char) ('0' + (value % 10)));
+    }
+}